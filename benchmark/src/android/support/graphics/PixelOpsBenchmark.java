@@ -0,0 +1,114 @@
+package android.support.graphics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * The kernels of {@link PixelOps} on one band and split over the processors,
+ * against the copy-and-loop of the former Bitmaps.replaceColor. Every
+ * invocation of every variant first copies the pristine pixels into a work
+ * buffer, so each one starts from the same colors rather than the output of
+ * the one before, and all of them pay for the same copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelOpsBenchmark {
+	private static final int FROM_COLOR = 0xffffffff;
+	private static final int TO_COLOR = 0x00000000;
+
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	private int[] pixels;
+	private int[] work;
+	private PixelOps.Op replaceColor;
+	private PixelOps.Op[] chain;
+	private int bands;
+
+	@Setup
+	public void setUp() {
+		pixels = new int[size * size];
+		final Random random = new Random(size);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt(4) == 0 ? FROM_COLOR : random.nextInt();
+		}
+		work = new int[pixels.length];
+		replaceColor = PixelOps.replaceColor(FROM_COLOR, TO_COLOR);
+		final int[] mask = new int[size * size];
+		for (int i = 0; i < mask.length; i++) {
+			mask[i] = random.nextInt();
+		}
+		chain = new PixelOps.Op[] { replaceColor, PixelOps.tint(0x80ff0000), PixelOps.alphaMask(mask, size),
+				PixelOps.circleCrop() };
+		bands = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * The former Bitmaps.replaceColor, minus the bitmaps.
+	 */
+	@Benchmark
+	public int[] replaceColorCopy() {
+		final int[] copy = reset();
+		for (int x = 0; x < copy.length; ++x) {
+			copy[x] = copy[x] == FROM_COLOR ? TO_COLOR : copy[x];
+		}
+		return copy;
+	}
+
+	@Benchmark
+	public int[] replaceColorSequential() {
+		PixelOps.apply(reset(), 0, size, size, size, 0, size, 1, replaceColor);
+		return work;
+	}
+
+	@Benchmark
+	public int[] replaceColorParallel() {
+		PixelOps.apply(reset(), 0, size, size, size, 0, size, bands, replaceColor);
+		return work;
+	}
+
+	@Benchmark
+	public int[] chainSequential() {
+		PixelOps.apply(reset(), 0, size, size, size, 0, size, 1, chain);
+		return work;
+	}
+
+	@Benchmark
+	public int[] chainParallel() {
+		PixelOps.apply(reset(), 0, size, size, size, 0, size, bands, chain);
+		return work;
+	}
+
+	/**
+	 * Copies the pristine pixels into the work buffer.
+	 */
+	private int[] reset() {
+		System.arraycopy(pixels, 0, work, 0, pixels.length);
+		return work;
+	}
+}
@@ -0,0 +1,131 @@
+package android.support.graphics.bitmapfun;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Reads and writes of one value against a cache holding {@code entryCount}
+ * entries in a temporary directory, with every value in a file of its own or,
+ * with a {@code packThreshold}, small values packed into shared segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskLruCacheBenchmark {
+	@Param({ "256", "1024", "65536" })
+	public int valueSize;
+
+	@Param({ "0", "4096" })
+	public int packThreshold;
+
+	@Param({ "1000" })
+	public int entryCount;
+
+	private File directory;
+	private DiskLruCache cache;
+	private byte[] value;
+	private byte[] readBuffer;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("disklrucache", "");
+		directory.delete();
+		cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, packThreshold);
+		value = new byte[valueSize];
+		new Random(valueSize).nextBytes(value);
+		readBuffer = new byte[8192];
+		for (int i = 0; i < entryCount; i++) {
+			put(key(i));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		cache.delete();
+	}
+
+	private static String key(final int index) {
+		return "key" + index;
+	}
+
+	private void put(final String key) throws IOException {
+		final DiskLruCache.Editor editor = cache.edit(key);
+		final OutputStream out = editor.newOutputStream(0);
+		try {
+			out.write(value);
+		} finally {
+			out.close();
+		}
+		editor.commit();
+	}
+
+	@Benchmark
+	public int get() throws IOException {
+		next = (next + 1) % entryCount;
+		final DiskLruCache.Snapshot snapshot = cache.get(key(next));
+		int total = 0;
+		try {
+			final InputStream in = snapshot.getInputStream(0);
+			int count;
+			while ((count = in.read(readBuffer)) != -1) {
+				total += count;
+			}
+		} finally {
+			snapshot.close();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int map() throws IOException {
+		next = (next + 1) % entryCount;
+		final DiskLruCache.Snapshot snapshot = cache.get(key(next));
+		int total = 0;
+		try {
+			final ByteBuffer buffer = snapshot.map(0);
+			while (buffer.remaining() >= 8) {
+				total += (int) buffer.getLong();
+			}
+		} finally {
+			snapshot.close();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public void edit() throws IOException {
+		next = (next + 1) % entryCount;
+		put(key(next));
+	}
+}
@@ -0,0 +1,127 @@
+package android.support.graphics.bitmapfun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Cold open of a cache of {@code entryCount} entries, each written once and
+ * read once, from the binary journal and, including its migration, from the
+ * text journal. Only the journal is written, the values are never opened.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class DiskLruCacheOpenBenchmark {
+	@Param({ "10000", "100000" })
+	public int entryCount;
+
+	private File directory;
+	private byte[] textJournal;
+	private byte[] binaryJournal;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("disklrucacheopen", "");
+		directory.delete();
+		directory.mkdirs();
+
+		final StringBuilder journal = new StringBuilder();
+		journal.append(DiskLruCache.MAGIC).append("\n").append(DiskLruCache.VERSION_1).append("\n1\n1\n\n");
+		for (int i = 0; i < entryCount; i++) {
+			final String key = key(i);
+			journal.append("DIRTY ").append(key).append("\nCLEAN ").append(key).append(" 4096\n");
+		}
+		for (int i = 0; i < entryCount; i++) {
+			journal.append("READ ").append(key(i)).append("\n");
+		}
+		textJournal = journal.toString().getBytes("US-ASCII");
+
+		write(DiskLruCache.JOURNAL_FILE_V1, textJournal);
+		DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE).close();
+		binaryJournal = Files.readAllBytes(new File(directory, DiskLruCache.JOURNAL_FILE).toPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		DiskLruCache.deleteContents(directory);
+		directory.delete();
+	}
+
+	/** A 32 character hex key like the ones of ImageCache. */
+	private static String key(final int index) {
+		return String.format("%032x", Integer.valueOf(index));
+	}
+
+	private void write(final String name, final byte[] bytes) throws IOException {
+		new File(directory, DiskLruCache.JOURNAL_FILE).delete();
+		new File(directory, DiskLruCache.JOURNAL_FILE_V1).delete();
+		final OutputStream out = new FileOutputStream(new File(directory, name));
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class TextJournal {
+		@Setup(Level.Invocation)
+		public void setUp(final DiskLruCacheOpenBenchmark benchmark) throws IOException {
+			benchmark.write(DiskLruCache.JOURNAL_FILE_V1, benchmark.textJournal);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BinaryJournal {
+		@Setup(Level.Invocation)
+		public void setUp(final DiskLruCacheOpenBenchmark benchmark) throws IOException {
+			benchmark.write(DiskLruCache.JOURNAL_FILE, benchmark.binaryJournal);
+		}
+	}
+
+	@Benchmark
+	public long openBinary(final BinaryJournal journal) throws IOException {
+		final DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+		final long size = cache.size();
+		cache.close();
+		return size;
+	}
+
+	@Benchmark
+	public long migrateText(final TextJournal journal) throws IOException {
+		final DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+		final long size = cache.size();
+		cache.close();
+		return size;
+	}
+}
@@ -0,0 +1,138 @@
+package android.support.graphics.bitmapfun;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Read throughput of one shared cache by 1, 4 and 16 threads, with one shard
+ * standing for the plain {@link DiskLruCache}. One in {@code writeEvery}
+ * operations rewrites its entry instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedDiskLruCacheBenchmark {
+	@Param({ "1", "4", "16" })
+	public int shardCount;
+
+	@Param({ "0", "10" })
+	public int writeEvery;
+
+	@Param({ "4096" })
+	public int valueSize;
+
+	private static final int ENTRY_COUNT = 1024;
+
+	private File directory;
+	private ShardedDiskLruCache cache;
+	private byte[] value;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private final Random random = new Random();
+		private final byte[] readBuffer = new byte[8192];
+		private int count;
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("shardeddisklrucache", "");
+		directory.delete();
+		cache = ShardedDiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, shardCount);
+		value = new byte[valueSize];
+		new Random(valueSize).nextBytes(value);
+		for (int i = 0; i < ENTRY_COUNT; i++) {
+			put("key" + i);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		cache.delete();
+	}
+
+	private void put(final String key) throws IOException {
+		final DiskLruCache.Editor editor = cache.edit(key);
+		if (editor == null) {
+			return; // another thread is writing it
+		}
+		final OutputStream out = editor.newOutputStream(0);
+		try {
+			out.write(value);
+		} finally {
+			out.close();
+		}
+		editor.commit();
+	}
+
+	private int access(final Cursor cursor) throws IOException {
+		final String key = "key" + cursor.random.nextInt(ENTRY_COUNT);
+		if (writeEvery > 0 && ++cursor.count % writeEvery == 0) {
+			put(key);
+			return 0;
+		}
+		final DiskLruCache.Snapshot snapshot = cache.get(key);
+		if (snapshot == null) {
+			return 0;
+		}
+		int total = 0;
+		try {
+			final InputStream in = snapshot.getInputStream(0);
+			int count;
+			while ((count = in.read(cursor.readBuffer)) != -1) {
+				total += count;
+			}
+		} finally {
+			snapshot.close();
+		}
+		return total;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int threads1(final Cursor cursor) throws IOException {
+		return access(cursor);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int threads4(final Cursor cursor) throws IOException {
+		return access(cursor);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public int threads16(final Cursor cursor) throws IOException {
+		return access(cursor);
+	}
+}
@@ -0,0 +1,76 @@
+package android.support.lang;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptBenchmark {
+	private static final String KEY = "benchmark";
+
+	@Param({ "16", "100", "1024", "10240", "65536" })
+	public int size;
+
+	private String plain;
+	private String encrypted;
+	private byte[] bytes;
+	private byte[] encryptedBytes;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		final char[] chars = new char[size];
+		final Random random = new Random(size);
+		for (int i = 0; i < size; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		plain = new String(chars);
+		encrypted = Crypt.encrypt(plain, KEY);
+		bytes = plain.getBytes();
+		encryptedBytes = Crypt.encrypt(bytes, 0, bytes.length, KEY);
+	}
+
+	@Benchmark
+	public String encryptString() {
+		return Crypt.encrypt(plain, KEY);
+	}
+
+	@Benchmark
+	public String decryptString() {
+		return Crypt.decrypt(encrypted, KEY);
+	}
+
+	@Benchmark
+	public byte[] encryptBytes() throws GeneralSecurityException {
+		return Crypt.encrypt(bytes, 0, bytes.length, KEY);
+	}
+
+	@Benchmark
+	public byte[] decryptBytes() throws GeneralSecurityException {
+		return Crypt.decrypt(encryptedBytes, 0, encryptedBytes.length, KEY);
+	}
+}
@@ -0,0 +1,135 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minidev.json.JSONObject;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * The time a {@link SocketClient} takes to drain a burst of {@value #BURST}
+ * messages through a loopback server that answers each one by echoing it.
+ * The former Propose sent the head of one queue every 100 ms, which would
+ * have taken over 16 minutes for the same burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SocketClientDrainBenchmark {
+	private static final int BURST = 10000;
+
+	private ServerSockets server;
+	private SocketClient client;
+	private final JSONObject[] messages = new JSONObject[BURST];
+	private volatile CountDownLatch connected;
+	private volatile CountDownLatch answered;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+		server = new ServerSockets(0);
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				echo();
+			}
+		}, "SocketClientDrainBenchmark");
+		thread.setDaemon(true);
+		thread.start();
+
+		for (int i = 0; i < BURST; i++) {
+			messages[i] = new JSONObject();
+			messages[i].put(Sockets.ACTION, "action" + i);
+		}
+
+		connected = new CountDownLatch(1);
+		client = new SocketClient();
+		client.setServerIp("127.0.0.1");
+		client.setServerPort(server.getLocalPort());
+		client.setCallback(new SocketClient.SocketClientCallback() {
+			@Override
+			public void onConnected(final Sockets socket) {
+				connected.countDown();
+			}
+
+			@Override
+			public void onDisconnected() {
+			}
+
+			@Override
+			public void onRead(final String message) {
+				final CountDownLatch latch = answered;
+				if (null != latch && message.indexOf(Sockets.MSG_CODE) >= 0) {
+					latch.countDown();
+				}
+			}
+		});
+		client.connectToServer();
+		if (!connected.await(10, TimeUnit.SECONDS)) {
+			throw new IOException("Not connected");
+		}
+	}
+
+	/**
+	 * Answers every message of the one client with the message itself, which
+	 * carries its code.
+	 */
+	private void echo() {
+		try {
+			final Sockets socket = server.accept();
+			socket.setTcpNoDelay(true);
+			while (socket.read()) {
+				String message;
+				while (null != (message = socket.decode())) {
+					if (message.length() != 0 && !Sockets.KEEPALIVE.equals(message)) {
+						socket.send(message);
+					}
+				}
+			}
+		} catch (final IOException exception) {
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.onDisconnect();
+		server.close();
+	}
+
+	@Benchmark
+	public long drain() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(BURST);
+		answered = latch;
+		for (final JSONObject message : messages) {
+			// a fresh code for every burst, the message keeps its action
+			client.addMessage(message, SocketClient.PRIORITY_LOW);
+		}
+		if (!latch.await(5, TimeUnit.MINUTES)) {
+			throw new IllegalStateException(latch.getCount() + " messages not answered");
+		}
+		return latch.getCount();
+	}
+}
@@ -0,0 +1,98 @@
+package android.support.net;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Messages per second through one connection to a loopback
+ * {@link SocketServer}: a burst of {@value #BURST} keep-alives is written at
+ * once and every reaction read back. The former receive loops slept 5 ms
+ * after each line, which capped a connection at 200 messages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketReceiveBenchmark {
+	private static final int BURST = 1000;
+
+	/**
+	 * Thread per client, selector loops, or selector loops draining a
+	 * client's buffer before the next one.
+	 */
+	@Param({ "thread", "selector", "selectorBatch" })
+	public String mode;
+
+	private Socket client;
+	private OutputStream output;
+	private InputStream input;
+	private byte[] burst;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+		final int port = SocketServerLoadBenchmark.startServer("thread".equals(mode) ? "thread" : "selector",
+				"selectorBatch".equals(mode));
+		client = new Socket(InetAddress.getLoopbackAddress(), port);
+		client.setTcpNoDelay(true);
+		output = client.getOutputStream();
+		input = new BufferedInputStream(client.getInputStream());
+
+		final byte[] ping = (Sockets.KEEPALIVE + "\n").getBytes();
+		burst = new byte[ping.length * BURST];
+		for (int i = 0; i < BURST; i++) {
+			System.arraycopy(ping, 0, burst, i * ping.length, ping.length);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public int burst() throws IOException {
+		output.write(burst);
+		int lines = 0;
+		while (lines < BURST) {
+			final int b = input.read();
+			if (b < 0) {
+				throw new IOException("Disconnected");
+			}
+			if ('\n' == b) {
+				lines++;
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,167 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Keeps {@code connections} clients connected to a loopback
+ * {@link SocketServer}, with a thread pair per client or on the selector
+ * event loops, and samples the round trip of a keep-alive through one client
+ * after another, so the percentiles of the sample mode give the p99 echo
+ * latency under load. The server threads per connection are printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketServerLoadBenchmark {
+	/** waitForClient, or selectForClient with one loop per processor. */
+	@Param({ "thread", "selector" })
+	public String mode;
+
+	@Param({ "100", "1000" })
+	public int connections;
+
+	private static final byte[] PING = (Sockets.KEEPALIVE + "\n").getBytes();
+
+	private Socket[] clients;
+	private InputStream[] inputs;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+		final int threadsBefore = Thread.activeCount();
+		final int port = startServer(mode, false);
+
+		clients = new Socket[connections];
+		inputs = new InputStream[connections];
+		for (int i = 0; i < connections; i++) {
+			clients[i] = new Socket(InetAddress.getLoopbackAddress(), port);
+			clients[i].setTcpNoDelay(true);
+			inputs[i] = clients[i].getInputStream();
+		}
+		for (int i = 0; i < connections; i++) {
+			ping(i);
+		}
+		System.out.println(mode + ": " + (Thread.activeCount() - threadsBefore) + " server threads for "
+				+ connections + " connections");
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (final Socket client : clients) {
+			try {
+				client.close();
+			} catch (final IOException exception) {
+			}
+		}
+	}
+
+	/**
+	 * One keep-alive and its reaction, on the clients in turn so none of
+	 * them times out.
+	 */
+	@Benchmark
+	public int echo() throws IOException {
+		final int index = next;
+		next = (next + 1) % connections;
+		return ping(index);
+	}
+
+	private int ping(final int index) throws IOException {
+		clients[index].getOutputStream().write(PING);
+		int length = 0;
+		int b;
+		while ('\n' != (b = inputs[index].read())) {
+			if (b < 0) {
+				throw new IOException("Disconnected");
+			}
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Starts a server on a free port, handing every client to a
+	 * {@link SocketServerHandler}. The server runs until the fork exits.
+	 */
+	static int startServer(final String mode, final boolean isBatchDrain) throws IOException, InterruptedException {
+		final ServerSocket probe = new ServerSocket(0);
+		final int port = probe.getLocalPort();
+		probe.close();
+
+		final SocketServer server = new SocketServer();
+		server.setServerPort(port);
+		server.setBatchDrain(isBatchDrain);
+		server.setCallback(new SocketServer.SocketServerCallback() {
+			@Override
+			public void onConnected(final Sockets socket) {
+				new SocketServerHandler().connectToClient(socket);
+			}
+		});
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if ("selector".equals(mode)) {
+					server.selectForClient(Runtime.getRuntime().availableProcessors());
+				} else {
+					server.waitForClient();
+				}
+			}
+		}, "SocketServer");
+		thread.setDaemon(true);
+		thread.start();
+
+		// wait until it listens; the probe is only closed once it was served,
+		// as waitForClient gives up on a client closed while being set up
+		for (int i = 0; i < 100; i++) {
+			final Socket socket;
+			try {
+				socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			} catch (final IOException exception) {
+				Thread.sleep(50);
+				continue;
+			}
+			try {
+				socket.getOutputStream().write(PING);
+				final InputStream input = socket.getInputStream();
+				int b;
+				while ('\n' != (b = input.read()) && b >= 0) {
+					// the reaction
+				}
+			} finally {
+				socket.close();
+			}
+			return port;
+		}
+		throw new IOException("Server did not start on port " + port);
+	}
+}
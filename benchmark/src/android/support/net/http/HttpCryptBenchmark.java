@@ -0,0 +1,69 @@
+package android.support.net.http;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpCryptBenchmark {
+	@Param({ "16", "100", "1024", "10240", "65536" })
+	public int size;
+
+	private byte[] bytes;
+	private String hex;
+	private String plain;
+	private String encrypted;
+
+	@Setup
+	public void setUp() {
+		bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		hex = HttpCrypt.byteArrayToHexString(bytes);
+		plain = hex.substring(0, size);
+		encrypted = HttpCrypt.encrypt(plain);
+	}
+
+	@Benchmark
+	public String byteArrayToHexString() {
+		return HttpCrypt.byteArrayToHexString(bytes);
+	}
+
+	@Benchmark
+	public byte[] hexStringToByteArray() {
+		return HttpCrypt.hexStringToByteArray(hex);
+	}
+
+	@Benchmark
+	public String encrypt() {
+		return HttpCrypt.encrypt(plain);
+	}
+
+	@Benchmark
+	public String decrypt() {
+		return HttpCrypt.decrypt(encrypted);
+	}
+}
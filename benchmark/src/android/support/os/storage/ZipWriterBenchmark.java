@@ -0,0 +1,159 @@
+package android.support.os.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Zips a directory of mixed files, a third of the bytes JPEG-like random data
+ * and the rest text, with the former Files.zip and with {@link ZipWriter} on
+ * the calling thread and on a thread per processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipWriterBenchmark {
+	private static final String[] WORDS = { "image", "cache", "disk", "bitmap", "zip", "entry", "the", "of", "and",
+			"a", "{\"id\":", "\"name\":", "},", "\n" };
+
+	/** The size of the large files in kilobytes; small ones are 4 KB. */
+	@Param({ "64", "1024" })
+	public int size;
+
+	private File directory;
+	private File[] files;
+	private File output;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("ZipWriterBenchmark", "");
+		directory.delete();
+		directory.mkdirs();
+		output = new File(directory.getParentFile(), directory.getName() + ".zip");
+
+		final Random random = new Random(size);
+		files = new File[48];
+		for (int i = 0; i < files.length; i++) {
+			final byte[] content;
+			final String name;
+			if (i % 3 == 0) {
+				content = new byte[size * 1024];
+				random.nextBytes(content);
+				content[0] = (byte) 0xff;
+				content[1] = (byte) 0xd8;
+				content[2] = (byte) 0xff;
+				name = "photo" + i + ".jpg";
+			} else {
+				content = text(random, i % 3 == 1 ? size * 1024 : 4 * 1024);
+				name = "text" + i + ".txt";
+			}
+			files[i] = new File(directory, name);
+			final FileOutputStream out = new FileOutputStream(files[i]);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private static byte[] text(final Random random, final int length) {
+		final StringBuilder builder = new StringBuilder(length + 16);
+		while (builder.length() < length) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(random.nextInt(1000));
+		}
+		builder.setLength(length);
+		return builder.toString().getBytes();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (final File file : files) {
+			file.delete();
+		}
+		directory.delete();
+		output.delete();
+	}
+
+	/**
+	 * The former Files.zip: deflates everything through 1 KB buffers.
+	 */
+	@Benchmark
+	public long zipOutputStream() throws IOException {
+		final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+		try {
+			final byte data[] = new byte[1024];
+			for (final File file : files) {
+				final BufferedInputStream origin = new BufferedInputStream(new FileInputStream(file), 1024);
+				try {
+					out.putNextEntry(new ZipEntry(file.getName()));
+					int count;
+					while ((count = origin.read(data, 0, 1024)) != -1) {
+						out.write(data, 0, count);
+					}
+				} finally {
+					origin.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return output.length();
+	}
+
+	@Benchmark
+	public long zipWriterSequential() throws IOException {
+		return zip(0);
+	}
+
+	@Benchmark
+	public long zipWriterParallel() throws IOException {
+		return zip(Runtime.getRuntime().availableProcessors());
+	}
+
+	private long zip(final int threads) throws IOException {
+		final ZipWriter out = new ZipWriter(new FileOutputStream(output), threads, 64L * 1024 * 1024,
+				Deflater.DEFAULT_COMPRESSION);
+		try {
+			for (final File file : files) {
+				out.add(file, file.getName());
+			}
+		} finally {
+			out.close();
+		}
+		return output.length();
+	}
+}
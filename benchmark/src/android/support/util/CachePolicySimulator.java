@@ -0,0 +1,137 @@
+package android.support.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Replays a trace of cache keys against every {@link PolicyCache} policy and
+ * prints the hit ratio of each. A lookup that misses is followed by a put, as
+ * {@code ImageWorker} does after loading the image.
+ *
+ * <pre>
+ * cd benchmark && gradle simulate -Ptrace=keys.txt -Psizes=100,1000
+ * </pre>
+ *
+ * The trace holds one key per line, optionally followed by the size of its
+ * value, such as the kilobytes of the bitmap. Without a trace, a synthetic one
+ * is generated: Zipf distributed requests for a set of hot keys, interrupted
+ * by flings through long runs of keys seen only once.
+ */
+public class CachePolicySimulator {
+	private static final String[] POLICIES = { PolicyCache.LRU, PolicyCache.SLRU, PolicyCache.TINY_LFU };
+
+	public static void main(final String[] args) throws IOException {
+		String trace = null;
+		int[] sizes = { 100, 500, 1000 };
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if ("--trace".equals(args[i])) {
+				trace = args[i + 1];
+			} else if ("--sizes".equals(args[i])) {
+				final String[] values = args[i + 1].split(",");
+				sizes = new int[values.length];
+				for (int t = 0; t < values.length; t++) {
+					sizes[t] = Integer.parseInt(values[t].trim());
+				}
+			}
+		}
+
+		final List<String> keys = new ArrayList<String>();
+		final List<Integer> weights = new ArrayList<Integer>();
+		if (trace == null) {
+			generate(keys, weights, 200000);
+			System.out.println("Synthetic trace, " + keys.size() + " requests");
+		} else {
+			read(trace, keys, weights);
+			System.out.println(trace + ", " + keys.size() + " requests");
+		}
+
+		System.out.println(String.format("%-10s %10s %10s %10s", "policy", "maxSize", "hits", "hitRatio"));
+		for (final int maxSize : sizes) {
+			for (final String policy : POLICIES) {
+				final PolicyCache<String, Integer> cache = new PolicyCache<String, Integer>(maxSize, policy) {
+					@Override
+					protected int sizeOf(final String key, final Integer value) {
+						return value.intValue();
+					}
+				};
+				for (int i = 0; i < keys.size(); i++) {
+					final String key = keys.get(i);
+					if (cache.get(key) == null) {
+						cache.put(key, weights.get(i));
+					}
+				}
+				final float ratio = (float) cache.hitCount() / keys.size();
+				System.out.println(String.format("%-10s %10d %10d %9.2f%%", policy, maxSize, cache.hitCount(),
+						ratio * 100));
+			}
+		}
+	}
+
+	private static void read(final String file, final List<String> keys, final List<Integer> weights)
+			throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				final String[] fields = line.split("\\s+");
+				keys.add(fields[0]);
+				weights.add(Integer.valueOf(fields.length > 1 ? Integer.parseInt(fields[1]) : 1));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Zipf requests over 5000 hot keys, with a fling through 2000 new keys
+	 * after every 10000 requests.
+	 */
+	private static void generate(final List<String> keys, final List<Integer> weights, final int count) {
+		final Random random = new Random(42);
+		final int hotCount = 5000;
+		final double[] cumulative = new double[hotCount];
+		double sum = 0;
+		for (int i = 0; i < hotCount; i++) {
+			sum += 1 / Math.pow(i + 1, 0.9);
+			cumulative[i] = sum;
+		}
+		int flingKey = 0;
+		while (keys.size() < count) {
+			if (keys.size() % 12000 >= 10000) {
+				keys.add("fling" + flingKey++);
+			} else {
+				final double value = random.nextDouble() * sum;
+				int low = 0;
+				int high = hotCount - 1;
+				while (low < high) {
+					final int middle = (low + high) >>> 1;
+					if (cumulative[middle] < value) {
+						low = middle + 1;
+					} else {
+						high = middle;
+					}
+				}
+				keys.add("hot" + low);
+			}
+			weights.add(Integer.valueOf(1));
+		}
+	}
+}
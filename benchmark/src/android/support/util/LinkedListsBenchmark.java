@@ -0,0 +1,80 @@
+package android.support.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkedListsBenchmark {
+	@Param({ "16", "1024", "65536" })
+	public int size;
+
+	private LinkedLists<Integer> list;
+
+	@Setup
+	public void setUp() {
+		list = new LinkedLists<Integer>();
+		for (int i = 0; i < size; i++) {
+			list.add(Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * One element through a queue holding {@code size} elements.
+	 */
+	@Benchmark
+	public Integer offerPoll() {
+		list.offer(Integer.valueOf(size));
+		return list.poll();
+	}
+
+	@Benchmark
+	public void iterate(final Blackhole blackhole) {
+		for (final Integer value : list) {
+			blackhole.consume(value);
+		}
+	}
+
+	@Benchmark
+	public Integer getMiddle() {
+		return list.get(size / 2);
+	}
+
+	@Benchmark
+	public boolean containsLast() {
+		return list.contains(Integer.valueOf(size - 1));
+	}
+
+	@Benchmark
+	public LinkedLists<Integer> fill() {
+		final LinkedLists<Integer> filled = new LinkedLists<Integer>();
+		for (int i = 0; i < size; i++) {
+			filled.add(Integer.valueOf(i));
+		}
+		return filled;
+	}
+}
@@ -0,0 +1,17 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+public class Bitmap {
+	public enum CompressFormat {
+		JPEG, PNG, WEBP
+	}
+
+	public boolean compress(final CompressFormat format, final int quality, final OutputStream stream) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void recycle() {
+		throw new RuntimeException("Stub!");
+	}
+}
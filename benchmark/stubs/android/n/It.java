@@ -0,0 +1,10 @@
+package android.n;
+
+/**
+ * Stands in for the Ndroid class with just what the benchmarked classes use.
+ */
+public class It {
+	public static final boolean isNull(final Object object) {
+		return null == object || object.toString().length() == 0;
+	}
+}
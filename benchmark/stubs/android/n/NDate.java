@@ -0,0 +1,10 @@
+package android.n;
+
+/**
+ * Stands in for the Ndroid class with just what the benchmarked classes use.
+ */
+public class NDate {
+	public static final String getDate() {
+		return String.valueOf(System.currentTimeMillis());
+	}
+}
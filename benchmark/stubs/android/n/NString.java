@@ -0,0 +1,18 @@
+package android.n;
+
+/**
+ * Stands in for the Ndroid class with just what the benchmarked classes use.
+ */
+public class NString {
+	public static final String add(final String... strings) {
+		final StringBuilder builder = new StringBuilder();
+		for (final String string : strings) {
+			builder.append(string);
+		}
+		return builder.toString();
+	}
+
+	public static final String parse(final Object object) {
+		return String.valueOf(object);
+	}
+}
@@ -0,0 +1,13 @@
+package android.support.graphics;
+
+import android.graphics.Bitmap;
+
+/**
+ * Replaces the real class, which needs the Android framework, for the
+ * benchmarks.
+ */
+public class Bitmaps {
+	public static final Bitmap getBitmap(final String filePath, final int size, final boolean isExif) {
+		throw new RuntimeException("Stub!");
+	}
+}
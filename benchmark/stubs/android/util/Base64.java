@@ -0,0 +1,9 @@
+package android.util;
+
+public class Base64 {
+	public static final int DEFAULT = 0;
+
+	public static String encodeToString(final byte[] input, final int flags) {
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -0,0 +1,11 @@
+package android.util;
+
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+
+public class Base64OutputStream extends FilterOutputStream {
+	public Base64OutputStream(final OutputStream out, final int flags) {
+		super(out);
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -10,7 +10,7 @@ import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.media.ExifInterface;
+import android.support.graphics.bitmapfun.ImageHeaders;
 import android.support.graphics.bitmapfun.ImageResizer;
 import android.view.View;
 
@@ -23,39 +23,28 @@ import android.view.View;
  * @version 1.0.0
  */
 public class Bitmaps {
-	public static final int[] getBitmapSize(final String path) {
-		final BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(path, options);
+	/** The most pixels {@link #apply} copies out of a bitmap at a time. */
+	private static final int PIXEL_STRIP_SIZE = 512 * 1024;
 
-		return new int[] { options.outHeight, options.outWidth };
+	/**
+	 * @return the height and width of the image, read from its header and
+	 *         cached by {@link ImageHeaders}
+	 */
+	public static final int[] getBitmapSize(final String path) {
+		final ImageHeaders.Info info = ImageHeaders.get(path);
+		if (info == null) {
+			return new int[] { -1, -1 };
+		}
+		return new int[] { info.height, info.width };
 	}
 
+	/**
+	 * @return the rotation from the EXIF orientation of the image, read from
+	 *         its header and cached by {@link ImageHeaders}
+	 */
 	public static final int getBitmapOrientation(final String path) {
-		int result = 0;
-		try {
-			ExifInterface exif;
-			exif = new ExifInterface(path);
-			final int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-					ExifInterface.ORIENTATION_NORMAL);
-
-			switch (orientation) {
-			case ExifInterface.ORIENTATION_ROTATE_270:
-				result = 270;
-				break;
-			case ExifInterface.ORIENTATION_ROTATE_180:
-				result = 180;
-				break;
-			case ExifInterface.ORIENTATION_ROTATE_90:
-				result = 90;
-				break;
-			default:
-				result = 0;
-				break;
-			}
-		} catch (final IOException exception) {
-		}
-		return result;
+		final ImageHeaders.Info info = ImageHeaders.get(path);
+		return info != null ? info.orientation : 0;
 	}
 
 	public static final Bitmap getBitmap(final String path, final boolean isExif) {
@@ -231,18 +220,55 @@ public class Bitmaps {
 	// }
 
 	public static final Bitmap replaceColor(final Bitmap bitmap, final int fromColor, final int toColor) {
-		Bitmap result = null;
-		if (null != bitmap) {
-			final int width = bitmap.getWidth();
-			final int height = bitmap.getHeight();
-			final int[] pixels = new int[width * height];
-			bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		return replaceColor(bitmap, fromColor, toColor, false);
+	}
+
+	/**
+	 * @param inPlace
+	 *            true to change the bitmap itself if it is mutable
+	 */
+	public static final Bitmap replaceColor(final Bitmap bitmap, final int fromColor, final int toColor,
+			final boolean inPlace) {
+		return apply(bitmap, inPlace, PixelOps.replaceColor(fromColor, toColor));
+	}
 
-			for (int x = 0; x < pixels.length; ++x) {
-				pixels[x] = pixels[x] == fromColor ? toColor : pixels[x];
+	/**
+	 * Applies pixel operations to a bitmap in one pass, a strip of rows at a
+	 * time through a pooled buffer.
+	 *
+	 * @param inPlace
+	 *            true to change the bitmap itself if it is mutable
+	 * @return the bitmap itself if changed in place, or else a new bitmap in
+	 *         the config of the source
+	 */
+	public static final Bitmap apply(final Bitmap bitmap, final boolean inPlace, final PixelOps.Op... ops) {
+		if (null == bitmap) {
+			return null;
+		}
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final Bitmap result;
+		if (inPlace && bitmap.isMutable()) {
+			result = bitmap;
+		} else {
+			final Config config = bitmap.getConfig();
+			result = Bitmap.createBitmap(width, height, null != config ? config : Config.ARGB_8888);
+		}
+		if (0 == width || 0 == height) {
+			return result;
+		}
+
+		final int stripRows = Math.max(1, Math.min(height, PIXEL_STRIP_SIZE / width));
+		final int[] buffer = PixelOps.obtainBuffer(stripRows * width);
+		try {
+			for (int y = 0; y < height; y += stripRows) {
+				final int rows = Math.min(stripRows, height - y);
+				bitmap.getPixels(buffer, 0, width, 0, y, width, rows);
+				PixelOps.apply(buffer, 0, width, width, height, y, rows, ops);
+				result.setPixels(buffer, 0, width, 0, y, width, rows);
 			}
-			result = Bitmap.createBitmap(width, height, bitmap.getConfig());
-			result.setPixels(pixels, 0, width, 0, 0, width, height);
+		} finally {
+			PixelOps.releaseBuffer(buffer);
 		}
 		return result;
 	}
@@ -1,12 +1,29 @@
 package android.support.graphics;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
-import android.support.os.storage.Files;
+import android.support.graphics.bitmapfun.ImageHeaders;
+import android.support.graphics.bitmapfun.ImageResizer;
 
 /*
  * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
@@ -16,7 +33,20 @@ import android.support.os.storage.Files;
  * @author Kenneth Tu
  * @version 1.0.0
  */
+
+/**
+ * Resizes images and zips them as JPEGs, leaving the originals as they are.
+ *
+ * <p>
+ * Images are decoded and encoded on a pool with a thread per processor, and
+ * each JPEG is written to the zip as soon as those before it are, stored
+ * without compressing it again. Images are only started while the bitmaps in
+ * flight fit in an eighth of the maximum memory.
+ */
 public class ImageZipTask extends AsyncTask<Void, Void, String> {
+	private static final int JPEG_QUALITY = 90;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private final transient ArrayList<String> imageArrayList;
 	private final transient int compressSize;
 	private final transient String uploadFilePath;
@@ -37,34 +67,153 @@ public class ImageZipTask extends AsyncTask<Void, Void, String> {
 
 	@Override
 	public String doInBackground(final Void... params) {
-		final ArrayList<String> fileStrings = new ArrayList<String>();
-
-		final int loopStopNum = imageArrayList.size();
-		for (int i = 0; i < loopStopNum; i++) {
-			final String imgPath = imageArrayList.get(i);
+		final int threads = Runtime.getRuntime().availableProcessors();
+		final long budget = Runtime.getRuntime().maxMemory() / 8;
+		final ThreadPoolExecutor executor = newExecutor(threads);
+		final ArrayDeque<Encoding> encodings = new ArrayDeque<Encoding>();
+		long inFlight = 0;
 
-			FileOutputStream out = null;
+		ZipOutputStream out = null;
+		try {
+			out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(uploadFilePath), BUFFER_SIZE));
+			for (final String imgPath : imageArrayList) {
+				final long cost = Math.min(budget, estimateCost(imgPath));
+				// write the oldest results until this image fits
+				while (!encodings.isEmpty() && (inFlight + cost > budget || encodings.size() >= threads * 2)) {
+					final Encoding encoding = encodings.poll();
+					inFlight -= encoding.cost;
+					write(out, encoding);
+				}
+				encodings.add(new Encoding(imgPath, cost, executor.submit(new Encoder(imgPath))));
+				inFlight += cost;
+			}
+			while (!encodings.isEmpty()) {
+				write(out, encodings.poll());
+			}
+		} catch (final IOException exception) {
+		} finally {
+			executor.shutdownNow();
 			try {
-				final Bitmap bitmap = Bitmaps.getBitmap(imgPath, compressSize, true);
-
-				out = new FileOutputStream(imgPath);
-				bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
-				fileStrings.add(imgPath);
-			} catch (final IOException exception) {
-			} finally {
-				try {
+				if (null != out) {
 					out.close();
-				} catch (final IOException exception) {
 				}
+			} catch (final IOException exception) {
 			}
 		}
 
+		return uploadFilePath;
+	}
+
+	private static ThreadPoolExecutor newExecutor(final int threads) {
+		return new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						return new Thread(r, "ImageZipTask #" + mCount.getAndIncrement());
+					}
+				});
+	}
+
+	/**
+	 * @return the size in bytes of the decoded bitmap of the image, which
+	 *         outweighs its JPEG
+	 */
+	private long estimateCost(final String imgPath) {
+		final ImageHeaders.Info info = ImageHeaders.get(imgPath);
+		if (null == info) {
+			return 0;
+		}
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.outWidth = info.width;
+		options.outHeight = info.height;
+		final int sampleSize = ImageResizer.calculateInSampleSize(options, compressSize, compressSize);
+		return 4L * (info.width / sampleSize) * (info.height / sampleSize);
+	}
+
+	/**
+	 * Writes the JPEG of an image, if it could be made, as a stored entry.
+	 */
+	private static void write(final ZipOutputStream out, final Encoding encoding) throws IOException {
+		final Jpeg jpeg;
 		try {
-			Files.zip(fileStrings.toArray(new String[fileStrings.size()]), uploadFilePath);
-		} catch (final IOException exception) {
+			jpeg = encoding.future.get();
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (final ExecutionException exception) {
+			return;
+		}
+		if (null == jpeg) {
+			return;
 		}
 
-		return uploadFilePath;
+		final ZipEntry entry = new ZipEntry(encoding.imgPath.substring(encoding.imgPath.lastIndexOf('/') + 1));
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(jpeg.size());
+		entry.setCompressedSize(jpeg.size());
+		entry.setCrc(jpeg.crc);
+		out.putNextEntry(entry);
+		jpeg.writeTo(out);
+		out.closeEntry();
+	}
+
+	private static final class Encoding {
+		private final String imgPath;
+		private final long cost;
+		private final Future<Jpeg> future;
+
+		private Encoding(final String imgPath, final long cost, final Future<Jpeg> future) {
+			this.imgPath = imgPath;
+			this.cost = cost;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * Resizes an image and encodes it to a JPEG in memory.
+	 */
+	private final class Encoder implements Callable<Jpeg> {
+		private final String imgPath;
+
+		private Encoder(final String imgPath) {
+			this.imgPath = imgPath;
+		}
+
+		@Override
+		public Jpeg call() {
+			final Bitmap bitmap = Bitmaps.getBitmap(imgPath, compressSize, true);
+			if (null == bitmap) {
+				return null;
+			}
+			final Jpeg jpeg = new Jpeg();
+			try {
+				jpeg.compress(bitmap);
+			} finally {
+				bitmap.recycle();
+			}
+			return jpeg;
+		}
+	}
+
+	/**
+	 * The JPEG of an image and its checksum, which a stored entry needs
+	 * before its data.
+	 */
+	private static final class Jpeg extends ByteArrayOutputStream {
+		private long crc;
+
+		private Jpeg() {
+			super(BUFFER_SIZE);
+		}
+
+		private void compress(final Bitmap bitmap) {
+			bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, this);
+			final CRC32 crc32 = new CRC32();
+			crc32.update(buf, 0, count);
+			crc = crc32.getValue();
+		}
 	}
 
 	@Override
@@ -0,0 +1,371 @@
+package android.support.graphics;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Pixel operations on ARGB colors in an int[], as returned by
+ * {@link android.graphics.Bitmap#getPixels}, for {@link Bitmaps#apply}.
+ *
+ * <p>
+ * Several operations are chained in one pass: each row goes through all of
+ * them while it is in the cache. Large images are split into bands of rows
+ * that run in parallel, one on the calling thread and the others on a shared
+ * pool with a thread per extra processor. The kernels are plain Java with no
+ * framework dependency.
+ *
+ * <pre>
+ * PixelOps.apply(pixels, width, height, PixelOps.replaceColor(Color.WHITE, Color.TRANSPARENT),
+ * 		PixelOps.circleCrop());
+ * </pre>
+ */
+public final class PixelOps {
+	/** Images with fewer pixels than this run on the calling thread only. */
+	public static final int PARALLEL_THRESHOLD = 64 * 1024;
+	private static final int MIN_BAND_ROWS = 16;
+
+	private static final int MAX_POOLED_BUFFERS = 4;
+	private static final ArrayList<SoftReference<int[]>> sBuffers = new ArrayList<SoftReference<int[]>>();
+
+	private static ThreadPoolExecutor sExecutor;
+
+	/**
+	 * An operation on the pixels of an image, one row at a time. Rows may be
+	 * applied on different threads at once, so an operation keeps no state
+	 * between rows.
+	 */
+	public static abstract interface Op {
+		/**
+		 * @param pixels
+		 *            the colors
+		 * @param offset
+		 *            the index of the first pixel of the row
+		 * @param width
+		 *            the width of the row and of the image
+		 * @param y
+		 *            the row in the image
+		 * @param height
+		 *            the height of the image
+		 */
+		public abstract void apply(int[] pixels, int offset, int width, int y, int height);
+	}
+
+	private PixelOps() {
+	}
+
+	/**
+	 * Replaces every pixel of exactly {@code fromColor} by {@code toColor}.
+	 */
+	public static Op replaceColor(final int fromColor, final int toColor) {
+		return new Op() {
+			@Override
+			public void apply(final int[] pixels, final int offset, final int width, final int y, final int height) {
+				for (int i = offset, end = offset + width; i < end; i++) {
+					if (pixels[i] == fromColor) {
+						pixels[i] = toColor;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Blends {@code color} over the color of every pixel by the alpha of
+	 * {@code color}, keeping the alpha of the pixel, like
+	 * {@link android.graphics.PorterDuff.Mode#SRC_ATOP}.
+	 */
+	public static Op tint(final int color) {
+		final int alpha = color >>> 24;
+		final int inverse = 255 - alpha;
+		final int red = (color >> 16 & 0xff) * alpha;
+		final int green = (color >> 8 & 0xff) * alpha;
+		final int blue = (color & 0xff) * alpha;
+		return new Op() {
+			@Override
+			public void apply(final int[] pixels, final int offset, final int width, final int y, final int height) {
+				for (int i = offset, end = offset + width; i < end; i++) {
+					final int pixel = pixels[i];
+					pixels[i] = pixel & 0xff000000 | div255((pixel >> 16 & 0xff) * inverse + red) << 16
+							| div255((pixel >> 8 & 0xff) * inverse + green) << 8
+							| div255((pixel & 0xff) * inverse + blue);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Multiplies the alpha of every pixel by the alpha of the pixel at the
+	 * same position in {@code mask}.
+	 *
+	 * @param mask
+	 *            colors of at least the size of the image
+	 * @param maskStride
+	 *            the number of entries in {@code mask} between rows
+	 */
+	public static Op alphaMask(final int[] mask, final int maskStride) {
+		return new Op() {
+			@Override
+			public void apply(final int[] pixels, final int offset, final int width, final int y, final int height) {
+				for (int i = offset, m = y * maskStride, end = offset + width; i < end; i++, m++) {
+					final int pixel = pixels[i];
+					pixels[i] = div255((pixel >>> 24) * (mask[m] >>> 24)) << 24 | pixel & 0xffffff;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Makes every pixel outside the circle centered in the image with the
+	 * diameter of its shorter side transparent, with an anti-aliased edge.
+	 */
+	public static Op circleCrop() {
+		return new Op() {
+			@Override
+			public void apply(final int[] pixels, final int offset, final int width, final int y, final int height) {
+				final float cx = width / 2f;
+				final float radius = Math.min(width, height) / 2f;
+				final float dy = y + 0.5f - height / 2f;
+				final float outerRadius = radius + 0.5f;
+				if (Math.abs(dy) >= outerRadius) {
+					Arrays.fill(pixels, offset, offset + width, 0);
+					return;
+				}
+				// pixels within half a pixel of the circle are partly covered
+				final float outer = (float) Math.sqrt(outerRadius * outerRadius - dy * dy);
+				final float innerRadius = radius - 0.5f;
+				final float inner = innerRadius > Math.abs(dy) ? (float) Math.sqrt(innerRadius * innerRadius - dy
+						* dy) : -1;
+				final int start = clamp((int) Math.floor(cx - outer - 0.5f) + 1, 0, width);
+				final int end = clamp((int) Math.ceil(cx + outer - 0.5f), start, width);
+				final int innerStart = inner < 0 ? end : clamp((int) Math.floor(cx - inner - 0.5f) + 1, start, end);
+				final int innerEnd = inner < 0 ? end : clamp((int) Math.ceil(cx + inner - 0.5f), innerStart, end);
+
+				Arrays.fill(pixels, offset, offset + start, 0);
+				Arrays.fill(pixels, offset + end, offset + width, 0);
+				for (int x = start; x < innerStart; x++) {
+					cover(pixels, offset + x, outerRadius, x + 0.5f - cx, dy);
+				}
+				for (int x = innerEnd; x < end; x++) {
+					cover(pixels, offset + x, outerRadius, x + 0.5f - cx, dy);
+				}
+			}
+		};
+	}
+
+	private static void cover(final int[] pixels, final int i, final float outerRadius, final float dx,
+			final float dy) {
+		final float coverage = outerRadius - (float) Math.sqrt(dx * dx + dy * dy);
+		if (coverage <= 0) {
+			pixels[i] = 0;
+		} else if (coverage < 1) {
+			final int pixel = pixels[i];
+			pixels[i] = (int) ((pixel >>> 24) * coverage + 0.5f) << 24 | pixel & 0xffffff;
+		}
+	}
+
+	private static int div255(final int value) {
+		return (value + 128 + (value + 128 >> 8)) >> 8;
+	}
+
+	private static int clamp(final int value, final int min, final int max) {
+		return value < min ? min : value > max ? max : value;
+	}
+
+	/**
+	 * Applies the operations in place to a whole image whose rows follow each
+	 * other in {@code pixels}.
+	 */
+	public static void apply(final int[] pixels, final int width, final int height, final Op... ops) {
+		apply(pixels, 0, width, width, height, 0, height, ops);
+	}
+
+	/**
+	 * Applies the operations in place to some rows of an image.
+	 *
+	 * @param offset
+	 *            the index in {@code pixels} of the first pixel of row
+	 *            {@code firstRow}
+	 * @param stride
+	 *            the number of entries in {@code pixels} between rows
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param firstRow
+	 *            the first row to apply to
+	 * @param rowCount
+	 *            the number of rows to apply to
+	 */
+	public static void apply(final int[] pixels, final int offset, final int stride, final int width,
+			final int height, final int firstRow, final int rowCount, final Op... ops) {
+		apply(pixels, offset, stride, width, height, firstRow, rowCount, bandCount(width, rowCount), ops);
+	}
+
+	/**
+	 * @return the number of bands to split rows of an image into
+	 */
+	static int bandCount(final int width, final int rowCount) {
+		if ((long) width * rowCount < PARALLEL_THRESHOLD) {
+			return 1;
+		}
+		final int processors = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(processors, rowCount / MIN_BAND_ROWS));
+	}
+
+	static void apply(final int[] pixels, final int offset, final int stride, final int width, final int height,
+			final int firstRow, final int rowCount, final int bandCount, final Op... ops) {
+		if (width < 0 || height < 0 || stride < width || firstRow < 0 || rowCount < 0
+				|| firstRow + rowCount > height) {
+			throw new IllegalArgumentException("Bad image geometry");
+		}
+		if (rowCount == 0 || width == 0 || ops.length == 0) {
+			return;
+		}
+		if (offset < 0 || offset + (long) (rowCount - 1) * stride + width > pixels.length) {
+			throw new ArrayIndexOutOfBoundsException("pixels too short");
+		}
+		if (bandCount <= 1) {
+			applyRows(pixels, offset, stride, width, height, firstRow, rowCount, ops);
+			return;
+		}
+
+		final CountDownLatch done = new CountDownLatch(bandCount - 1);
+		final RuntimeException[] failure = new RuntimeException[1];
+		final ThreadPoolExecutor executor = getExecutor();
+		for (int band = 1; band < bandCount; band++) {
+			final int bandStart = rowCount * band / bandCount;
+			final int bandRows = rowCount * (band + 1) / bandCount - bandStart;
+			final Runnable runnable = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						applyRows(pixels, offset + bandStart * stride, stride, width, height, firstRow + bandStart,
+								bandRows, ops);
+					} catch (final RuntimeException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			try {
+				executor.execute(runnable);
+			} catch (final RejectedExecutionException e) {
+				runnable.run();
+			}
+		}
+		try {
+			applyRows(pixels, offset, stride, width, height, firstRow, rowCount / bandCount, ops);
+		} finally {
+			// even if this band failed, the others still write into pixels
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+	}
+
+	private static void applyRows(final int[] pixels, final int offset, final int stride, final int width,
+			final int height, final int firstRow, final int rowCount, final Op[] ops) {
+		for (int row = 0, i = offset; row < rowCount; row++, i += stride) {
+			for (final Op op : ops) {
+				op.apply(pixels, i, width, firstRow + row, height);
+			}
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (sExecutor == null) {
+			final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			sExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger mCount = new AtomicInteger(1);
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(r, "PixelOps #" + mCount.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			sExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * @return a pooled buffer of at least {@code length} entries, or a new one;
+	 *         the contents are undefined
+	 */
+	public static int[] obtainBuffer(final int length) {
+		synchronized (sBuffers) {
+			int[] best = null;
+			int bestIndex = -1;
+			for (int i = sBuffers.size() - 1; i >= 0; i--) {
+				final int[] buffer = sBuffers.get(i).get();
+				if (buffer == null) {
+					sBuffers.remove(i);
+					if (bestIndex > i) {
+						bestIndex--;
+					}
+				} else if (buffer.length >= length && (best == null || buffer.length < best.length)) {
+					best = buffer;
+					bestIndex = i;
+				}
+			}
+			if (best != null) {
+				sBuffers.remove(bestIndex);
+				return best;
+			}
+		}
+		return new int[length];
+	}
+
+	/**
+	 * Returns a buffer from {@link #obtainBuffer(int)} to the pool. The pool
+	 * holds it softly, so it is freed when memory runs low.
+	 */
+	public static void releaseBuffer(final int[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		synchronized (sBuffers) {
+			if (sBuffers.size() >= MAX_POOLED_BUFFERS) {
+				sBuffers.remove(0);
+			}
+			sBuffers.add(new SoftReference<int[]>(buffer));
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package android.support.graphics.bitmapfun;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build.VERSION_CODES;
+import android.support.util.Versions;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Strongly referenced mutable bitmaps kept for {@link BitmapFactory.Options#inBitmap},
+ * limited to {@code maxSize} bytes and evicted least recently pooled first.
+ *
+ * <p>
+ * Bitmaps are grouped by config and, from KitKat on, by their allocation size
+ * in steps of an eighth of a power of two. A lookup checks the bucket of the
+ * requested size for a bitmap that is large enough, then takes the newest
+ * bitmap of the next buckets, so it never uses more than twice the memory.
+ * Before KitKat {@code inBitmap} needs the exact dimensions, so the bitmaps
+ * are grouped by config, width and height instead.
+ */
+public final class BitmapPool {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final HashMap<Long, ArrayDeque<Bitmap>> buckets = new HashMap<Long, ArrayDeque<Bitmap>>();
+	/** All bitmaps to their bucket, least recently pooled first. */
+	private final LinkedHashMap<Bitmap, Long> lru = new LinkedHashMap<Bitmap, Long>();
+	private final long maxSize;
+	private long size;
+
+	private int putCount;
+	private int hitCount;
+	private int missCount;
+	private int evictionCount;
+
+	/**
+	 * @param maxSize
+	 *            the maximum number of bytes of the pooled bitmaps
+	 */
+	public BitmapPool(final long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Pools a bitmap that is no longer used, evicting older ones to stay
+	 * within the budget. Immutable or recycled bitmaps are ignored.
+	 */
+	public synchronized void put(final Bitmap bitmap) {
+		if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled() || bitmap.getConfig() == null
+				|| lru.containsKey(bitmap)) {
+			return;
+		}
+		final int byteCount = getByteCount(bitmap);
+		if (byteCount > maxSize) {
+			return;
+		}
+		final Long key = Versions.hasKitKat() ? Long.valueOf(bucketKey(bitmap.getConfig(), bucketOf(byteCount)))
+				: Long.valueOf(sizeKey(bitmap.getConfig(), bitmap.getWidth(), bitmap.getHeight()));
+		ArrayDeque<Bitmap> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayDeque<Bitmap>();
+			buckets.put(key, bucket);
+		}
+		bucket.addLast(bitmap);
+		lru.put(bitmap, key);
+		size += byteCount;
+		putCount++;
+		trimToSize(maxSize);
+	}
+
+	/**
+	 * Takes a bitmap out of the pool that the image described by
+	 * {@code options} can be decoded into.
+	 *
+	 * @param options
+	 *            options with the out* fields, inSampleSize and
+	 *            inPreferredConfig of the image
+	 * @return the bitmap, or null if none fits
+	 */
+	public synchronized Bitmap get(final BitmapFactory.Options options) {
+		final Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Config.ARGB_8888;
+		final int sampleSize = Math.max(1, options.inSampleSize);
+		Bitmap bitmap = null;
+		if (Versions.hasKitKat()) {
+			final int width = options.outWidth / sampleSize;
+			final int height = options.outHeight / sampleSize;
+			final long byteCount = (long) width * height * getBytesPerPixel(config);
+			final int bucket = bucketOf(byteCount);
+			bitmap = poll(bucketKey(config, bucket), byteCount);
+			for (int i = 1; bitmap == null && i <= SUB_BUCKETS; i++) {
+				bitmap = poll(bucketKey(config, bucket + i), 0);
+			}
+		} else if (sampleSize == 1) {
+			bitmap = poll(sizeKey(config, options.outWidth, options.outHeight), 0);
+		}
+		if (bitmap == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Takes the newest bitmap of the bucket with at least {@code byteCount}
+	 * bytes.
+	 */
+	private Bitmap poll(final long key, final long byteCount) {
+		final ArrayDeque<Bitmap> bucket = buckets.get(Long.valueOf(key));
+		if (bucket == null) {
+			return null;
+		}
+		final Iterator<Bitmap> iterator = bucket.descendingIterator();
+		while (iterator.hasNext()) {
+			final Bitmap bitmap = iterator.next();
+			final int bitmapSize = getByteCount(bitmap);
+			if (bitmapSize >= byteCount) {
+				iterator.remove();
+				if (bucket.isEmpty()) {
+					buckets.remove(Long.valueOf(key));
+				}
+				lru.remove(bitmap);
+				size -= bitmapSize;
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Evicts the least recently pooled bitmaps until at most {@code maxSize}
+	 * bytes are left.
+	 */
+	public synchronized void trimToSize(final long maxSize) {
+		final Iterator<Map.Entry<Bitmap, Long>> iterator = lru.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			final Map.Entry<Bitmap, Long> entry = iterator.next();
+			iterator.remove();
+			final Bitmap bitmap = entry.getKey();
+			final ArrayDeque<Bitmap> bucket = buckets.get(entry.getValue());
+			// the eldest of its bucket too
+			bucket.removeFirstOccurrence(bitmap);
+			if (bucket.isEmpty()) {
+				buckets.remove(entry.getValue());
+			}
+			size -= getByteCount(bitmap);
+			evictionCount++;
+		}
+	}
+
+	public synchronized void evictAll() {
+		trimToSize(0);
+	}
+
+	/**
+	 * @return the number of bytes of the pooled bitmaps
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized long maxSize() {
+		return maxSize;
+	}
+
+	public synchronized int putCount() {
+		return putCount;
+	}
+
+	/**
+	 * @return the number of lookups that found a bitmap to decode into
+	 */
+	public synchronized int hitCount() {
+		return hitCount;
+	}
+
+	public synchronized int missCount() {
+		return missCount;
+	}
+
+	public synchronized int evictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		final int accesses = hitCount + missCount;
+		final int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+		return String.format("BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", size, maxSize,
+				hitCount, missCount, hitPercent);
+	}
+
+	@TargetApi(VERSION_CODES.KITKAT)
+	private static int getByteCount(final Bitmap bitmap) {
+		if (Versions.hasKitKat()) {
+			return bitmap.getAllocationByteCount();
+		}
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	private static long bucketKey(final Config config, final int bucket) {
+		return ((long) config.ordinal() << 32) | bucket;
+	}
+
+	private static long sizeKey(final Config config, final int width, final int height) {
+		return ((long) config.ordinal() << 56) | ((long) width << 28) | height;
+	}
+
+	/**
+	 * @return the power of two below {@code byteCount} followed by the next
+	 *         {@link #SUB_BUCKET_BITS} bits
+	 */
+	private static int bucketOf(final long byteCount) {
+		final long value = Math.max(SUB_BUCKETS, byteCount);
+		final int log2 = 63 - Long.numberOfLeadingZeros(value);
+		final int fraction = (int) (value >>> (log2 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (log2 << SUB_BUCKET_BITS) | fraction;
+	}
+
+	/**
+	 * Return the byte usage per pixel of a bitmap based on its configuration.
+	 *
+	 * @param config
+	 *            The bitmap configuration.
+	 * @return The byte usage per pixel.
+	 */
+	static int getBytesPerPixel(final Config config) {
+		if (config == Config.ARGB_8888) {
+			return 4;
+		} else if (config == Config.RGB_565) {
+			return 2;
+		} else if (config == Config.ARGB_4444) {
+			return 2;
+		} else if (config == Config.ALPHA_8) {
+			return 1;
+		}
+		return 1;
+	}
+}
@@ -17,35 +17,45 @@
 package android.support.graphics.bitmapfun;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
  ******************************************************************************
@@ -92,7 +102,9 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * Clients call {@link #get} to read a snapshot of an entry. The read will
  * observe the value at the time that {@link #get} was called. Updates and
- * removals after the call do not impact ongoing reads.
+ * removals after the call do not impact ongoing reads. Reads do not take the
+ * cache's lock: they are recorded in a buffer and applied to the LRU order and
+ * the journal by the next write or by the background thread.
  *
  * <p>
  * This class is tolerant of some I/O errors. If files are missing from the
@@ -102,16 +114,35 @@ import java.util.concurrent.TimeUnit;
  * responding appropriately.
  */
 public final class DiskLruCache implements Closeable {
-	static final String JOURNAL_FILE = "journal";
-	static final String JOURNAL_FILE_TMP = "journal.tmp";
+	static final String JOURNAL_FILE = "journal.bin";
+	static final String JOURNAL_FILE_TMP = "journal.bin.tmp";
+	static final String JOURNAL_FILE_V1 = "journal";
+	static final String JOURNAL_FILE_V1_TMP = "journal.tmp";
 	static final String MAGIC = "libcore.io.DiskLruCache";
 	static final String VERSION_1 = "1";
+	static final int MAGIC_V2 = 0x444c5243; // "DLRC"
+	static final int VERSION_2 = 2;
+	static final String PACK_FILE_PREFIX = "segment-";
+	static final String PACK_FILE_SUFFIX = ".pack";
 	static final long ANY_SEQUENCE_NUMBER = -1;
 	private static final String CLEAN = "CLEAN";
 	private static final String DIRTY = "DIRTY";
 	private static final String REMOVE = "REMOVE";
 	private static final String READ = "READ";
 
+	private static final byte OP_KEY = 1;
+	private static final byte OP_CLEAN = 2;
+	private static final byte OP_DIRTY = 3;
+	private static final byte OP_REMOVE = 4;
+	private static final byte OP_READ = 5;
+	private static final byte OP_PACKED = 6;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 1 + 8 + 4;
+
+	/** Location of a value stored in its own file. */
+	private static final long UNPACKED = -1;
+	private static final long PACK_SEGMENT_SIZE = 4 * 1024 * 1024;
+
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	private static final int IO_BUFFER_SIZE = 8 * 1024;
 
@@ -145,19 +176,67 @@ public final class DiskLruCache implements Closeable {
 	 * may occasionally be compacted by dropping redundant lines. A temporary
 	 * file named "journal.tmp" will be used during compaction; that file should
 	 * be deleted if it exists when the cache is opened.
+	 *
+	 * This text journal is only read to migrate an existing cache. The
+	 * journal written now is the binary "journal.bin": a 16 byte header of
+	 * MAGIC_V2, VERSION_2, the application's version and the value count,
+	 * followed by records of the same states. Every record starts with its
+	 * operation byte and the 64-bit hash of its key and ends with the CRC32 of
+	 * the bytes before it. CLEAN records carry the value lengths as longs in
+	 * between, so every operation has a fixed width. The key itself is written
+	 * once, in a KEY record of the hash, its UTF-8 length as a short and its
+	 * bytes, before the first record of the entry since the last compaction. A
+	 * record that is cut short or fails its checksum ends the journal, which
+	 * is then compacted.
+	 *
+	 * With a pack threshold, values up to that many bytes are appended to a
+	 * shared "segment-N.pack" file instead of getting a file of their own. A
+	 * PACKED record replaces CLEAN for such entries and carries, for every
+	 * value, its length and its location: the segment number in the upper and
+	 * the offset in the lower 32 bits, or -1 for a value in its own file.
+	 * Segments are mapped into memory for reading, and rewritten once less
+	 * than half of them is still in use.
 	 */
 
 	private final File directory;
 	private final File journalFile;
 	private final File journalFileTmp;
+	private final File journalFileV1;
 	private final int appVersion;
 	private final long maxSize;
 	private final int valueCount;
-	private long size = 0;
-	private Writer journalWriter;
+	private final int packThreshold;
+	private volatile long size = 0;
+	private volatile OutputStream journalWriter;
+	private final CRC32 journalCrc = new CRC32();
+	private byte[] recordBuffer = new byte[256];
+
+	/** True if the journal ended in a broken record and must be compacted. */
+	private boolean isJournalTruncated;
 	private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
 	private int redundantOpCount;
 
+	/**
+	 * The entries of {@link #lruEntries} for lock-free lookups by
+	 * {@link #get}. Only changed together with {@link #lruEntries}.
+	 */
+	private final ConcurrentHashMap<String, Entry> readEntries = new ConcurrentHashMap<String, Entry>();
+
+	/** Keys read since the last drain, oldest first. */
+	private final ConcurrentLinkedQueue<String> pendingReads = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger pendingReadCount = new AtomicInteger();
+	private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+	private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+	private final AtomicInteger hitCount = new AtomicInteger();
+	private final AtomicInteger missCount = new AtomicInteger();
+	private final AtomicInteger evictionCount = new AtomicInteger();
+	private static final int READ_RETRY_COUNT = 3;
+
+	/** Pack segments by number, looked up by lock-free readers. */
+	private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+	private Segment activeSegment;
+	private int nextSegmentId;
+
 	/**
 	 * To differentiate between old and current snapshots, each entry is given a
 	 * sequence number each time an edit is committed. A snapshot is stale if
@@ -268,11 +347,14 @@ public final class DiskLruCache implements Closeable {
 	private final Callable<Void> cleanupCallable = new Callable<Void>() {
 		@Override
 		public Void call() throws Exception {
+			isDrainScheduled.set(false);
 			synchronized (DiskLruCache.this) {
 				if (journalWriter == null) {
 					return null; // closed
 				}
+				drainReads();
 				trimToSize();
+				compactSegments();
 				if (journalRebuildRequired()) {
 					rebuildJournal();
 					redundantOpCount = 0;
@@ -282,13 +364,16 @@ public final class DiskLruCache implements Closeable {
 		}
 	};
 
-	private DiskLruCache(final File directory, final int appVersion, final int valueCount, final long maxSize) {
+	private DiskLruCache(final File directory, final int appVersion, final int valueCount, final long maxSize,
+			final int packThreshold) {
 		this.directory = directory;
 		this.appVersion = appVersion;
 		journalFile = new File(directory, JOURNAL_FILE);
 		journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+		journalFileV1 = new File(directory, JOURNAL_FILE_V1);
 		this.valueCount = valueCount;
 		this.maxSize = maxSize;
+		this.packThreshold = packThreshold;
 	}
 
 	/**
@@ -307,6 +392,21 @@ public final class DiskLruCache implements Closeable {
 	 */
 	public static DiskLruCache open(final File directory, final int appVersion, final int valueCount,
 			final long maxSize) throws IOException {
+		return open(directory, appVersion, valueCount, maxSize, 0);
+	}
+
+	/**
+	 * Opens the cache in {@code directory}, creating a cache if none exists
+	 * there.
+	 *
+	 * @param packThreshold
+	 *            values of up to this many bytes are stored in shared pack
+	 *            segments instead of a file each; 0 to store every value in
+	 *            its own file
+	 * @see #open(File, int, int, long)
+	 */
+	public static DiskLruCache open(final File directory, final int appVersion, final int valueCount,
+			final long maxSize, final int packThreshold) throws IOException {
 		if (maxSize <= 0) {
 			throw new IllegalArgumentException("maxSize <= 0");
 		}
@@ -315,29 +415,241 @@ public final class DiskLruCache implements Closeable {
 		}
 
 		// prefer to pick up where we left off
-		DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
-		if (cache.journalFile.exists()) {
-			try {
-				cache.readJournal();
-				cache.processJournal();
-				cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true), IO_BUFFER_SIZE);
+		DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, packThreshold);
+		try {
+			if (cache.loadJournal()) {
 				return cache;
-			} catch (final IOException journalIsCorrupt) {
-				// System.logW("DiskLruCache " + directory + " is corrupt: "
-				// + journalIsCorrupt.getMessage() + ", removing");
-				cache.delete();
 			}
+		} catch (final IOException journalIsCorrupt) {
+			// System.logW("DiskLruCache " + directory + " is corrupt: "
+			// + journalIsCorrupt.getMessage() + ", removing");
+			cache.delete();
 		}
 
 		// create a new empty cache
 		directory.mkdirs();
-		cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+		cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, packThreshold);
 		cache.rebuildJournal();
 		return cache;
 	}
 
+	/**
+	 * Opens the cache left in {@code directory}, or returns null if there is
+	 * none or its journal is corrupt. Unlike {@link #open}, this never deletes
+	 * anything.
+	 */
+	static DiskLruCache openExisting(final File directory, final int appVersion, final int valueCount,
+			final long maxSize, final int packThreshold) throws IOException {
+		final DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, packThreshold);
+		try {
+			if (cache.loadJournal()) {
+				return cache;
+			}
+		} catch (final IOException journalIsCorrupt) {
+			closeQuietly(cache);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the journal, migrating a text journal to the binary one, and opens
+	 * it for appending.
+	 *
+	 * @return false if there is no journal
+	 * @throws IOException
+	 *             if the journal is corrupt
+	 */
+	private boolean loadJournal() throws IOException {
+		if (journalFile.exists()) {
+			readJournal();
+			processJournal();
+			readEntries.putAll(lruEntries);
+			if (isJournalTruncated) {
+				rebuildJournal();
+			} else {
+				journalWriter = newJournalWriter(journalFile, true);
+			}
+			return true;
+		}
+		if (journalFileV1.exists()) {
+			// migrate from the text journal
+			readTextJournal();
+			processJournal();
+			readEntries.putAll(lruEntries);
+			rebuildJournal();
+			deleteIfExists(journalFileV1);
+			deleteIfExists(new File(directory, JOURNAL_FILE_V1_TMP));
+			return true;
+		}
+		return false;
+	}
+
+	private static OutputStream newJournalWriter(final File file, final boolean append) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(file, append), IO_BUFFER_SIZE);
+	}
+
+	/**
+	 * Replays the binary journal, read into memory in one go.
+	 */
 	private void readJournal() throws IOException {
-		final InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
+		final long fileLength = journalFile.length();
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new IOException("journal too large: " + fileLength);
+		}
+		final byte[] bytes = new byte[(int) fileLength];
+		final InputStream in = new FileInputStream(journalFile);
+		try {
+			int offset = 0;
+			int count;
+			while (offset < bytes.length && (count = in.read(bytes, offset, bytes.length - offset)) != -1) {
+				offset += count;
+			}
+			if (offset != bytes.length) {
+				throw new EOFException();
+			}
+		} finally {
+			closeQuietly(in);
+		}
+
+		final ByteBuffer journal = ByteBuffer.wrap(bytes);
+		if (journal.remaining() < HEADER_SIZE || journal.getInt() != MAGIC_V2 || journal.getInt() != VERSION_2
+				|| journal.getInt() != appVersion || journal.getInt() != valueCount) {
+			throw new IOException("unexpected journal header");
+		}
+
+		final HashMap<Long, String> keys = new HashMap<Long, String>();
+		final int cleanSize = RECORD_SIZE + 8 * valueCount;
+		final int packedSize = RECORD_SIZE + 16 * valueCount;
+		while (journal.hasRemaining()) {
+			final int start = journal.position();
+			if (journal.remaining() < RECORD_SIZE) {
+				isJournalTruncated = true;
+				break;
+			}
+			final byte op = journal.get();
+			final Long hash = Long.valueOf(journal.getLong());
+			int size = RECORD_SIZE;
+			String key = null;
+			if (op == OP_KEY) {
+				final int keyLength = journal.getShort() & 0xffff;
+				size = RECORD_SIZE + 2 + keyLength;
+				if (journal.remaining() >= keyLength + 4) {
+					key = new String(bytes, journal.position(), keyLength, UTF_8);
+					journal.position(journal.position() + keyLength);
+				}
+			} else if (op == OP_CLEAN) {
+				size = cleanSize;
+			} else if (op == OP_PACKED) {
+				size = packedSize;
+			}
+			if (bytes.length - start < size) {
+				isJournalTruncated = true;
+				break;
+			}
+			journalCrc.reset();
+			journalCrc.update(bytes, start, size - 4);
+			journal.position(start + size - 4);
+			if ((int) journalCrc.getValue() != journal.getInt()) {
+				isJournalTruncated = true;
+				break;
+			}
+
+			if (op == OP_KEY) {
+				final String known = keys.put(hash, key);
+				if (known != null && !known.equals(key)) {
+					throw new IOException("journal key hash collision: " + key);
+				}
+				continue;
+			}
+			key = keys.get(hash);
+			if (key == null) {
+				throw new IOException("unexpected journal record for unknown key");
+			}
+			if (op == OP_REMOVE) {
+				lruEntries.remove(key);
+				continue;
+			}
+
+			Entry entry = lruEntries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				lruEntries.put(key, entry);
+			}
+			entry.isKeyWritten = true;
+			if (op == OP_CLEAN || op == OP_PACKED) {
+				entry.readable = true;
+				entry.currentEditor = null;
+				journal.position(start + RECORD_SIZE - 4);
+				for (int i = 0; i < valueCount; i++) {
+					entry.lengths[i] = journal.getLong();
+					entry.locations[i] = op == OP_PACKED ? journal.getLong() : UNPACKED;
+				}
+				journal.position(start + size);
+			} else if (op == OP_DIRTY) {
+				entry.currentEditor = new Editor(entry);
+			} else if (op != OP_READ) {
+				throw new IOException("unexpected journal record: " + op);
+			}
+		}
+	}
+
+	/**
+	 * Appends one record of {@code entry}, preceded by its key if the journal
+	 * does not have it yet.
+	 */
+	private void writeRecord(final OutputStream out, final byte op, final Entry entry) throws IOException {
+		if (!entry.isKeyWritten) {
+			final byte[] key = entry.key.getBytes(UTF_8);
+			if (key.length > 0xffff) {
+				throw new IOException("key too long: " + entry.key);
+			}
+			final ByteBuffer record = recordBuffer(RECORD_SIZE + 2 + key.length);
+			record.put(OP_KEY).putLong(entry.hash).putShort((short) key.length).put(key);
+			writeRecord(out, record);
+			entry.isKeyWritten = true;
+		}
+
+		final boolean isPacked = op == OP_CLEAN && entry.isPacked();
+		final ByteBuffer record = recordBuffer(RECORD_SIZE + 16 * valueCount);
+		record.put(isPacked ? OP_PACKED : op).putLong(entry.hash);
+		if (op == OP_CLEAN) {
+			for (int i = 0; i < valueCount; i++) {
+				record.putLong(entry.lengths[i]);
+				if (isPacked) {
+					record.putLong(entry.locations[i]);
+				}
+			}
+		}
+		writeRecord(out, record);
+	}
+
+	private ByteBuffer recordBuffer(final int size) {
+		if (recordBuffer.length < size) {
+			recordBuffer = new byte[Math.max(size, recordBuffer.length * 2)];
+		}
+		return ByteBuffer.wrap(recordBuffer);
+	}
+
+	private void writeRecord(final OutputStream out, final ByteBuffer record) throws IOException {
+		journalCrc.reset();
+		journalCrc.update(recordBuffer, 0, record.position());
+		record.putInt((int) journalCrc.getValue());
+		out.write(recordBuffer, 0, record.position());
+	}
+
+	/**
+	 * 64-bit FNV-1a of the key's characters.
+	 */
+	private static long hashKey(final String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0, length = key.length(); i < length; i++) {
+			hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private void readTextJournal() throws IOException {
+		final InputStream in = new BufferedInputStream(new FileInputStream(journalFileV1), IO_BUFFER_SIZE);
 		try {
 			final String magic = readAsciiLine(in);
 			final String version = readAsciiLine(in);
@@ -400,12 +712,39 @@ public final class DiskLruCache implements Closeable {
 	 */
 	private void processJournal() throws IOException {
 		deleteIfExists(journalFileTmp);
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				final String name = file.getName();
+				if (name.startsWith(PACK_FILE_PREFIX) && name.endsWith(PACK_FILE_SUFFIX)) {
+					try {
+						final int id = Integer.parseInt(
+								name.substring(PACK_FILE_PREFIX.length(), name.length() - PACK_FILE_SUFFIX.length()));
+						segments.put(Integer.valueOf(id), new Segment(id, file));
+						nextSegmentId = Math.max(nextSegmentId, id + 1);
+					} catch (final NumberFormatException e) {
+					}
+				}
+			}
+		}
+
 		for (final Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext();) {
 			final Entry entry = i.next();
 			if (entry.currentEditor == null) {
+				if (!acquirePacked(entry)) {
+					// its segment is gone, drop the rest of the entry too
+					for (int t = 0; t < valueCount; t++) {
+						if (entry.locations[t] == UNPACKED) {
+							deleteIfExists(entry.getCleanFile(t));
+						}
+					}
+					i.remove();
+					continue;
+				}
 				for (int t = 0; t < valueCount; t++) {
 					size += entry.lengths[t];
 				}
+				entry.publish();
 			} else {
 				entry.currentEditor = null;
 				for (int t = 0; t < valueCount; t++) {
@@ -415,6 +754,138 @@ public final class DiskLruCache implements Closeable {
 				i.remove();
 			}
 		}
+
+		for (final Iterator<Segment> i = segments.values().iterator(); i.hasNext();) {
+			final Segment segment = i.next();
+			if (segment.liveBytes == 0) {
+				deleteIfExists(segment.file);
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Counts the packed values of a clean entry as live in their segments.
+	 *
+	 * @return false if a segment is missing or too short for a value
+	 */
+	private boolean acquirePacked(final Entry entry) {
+		for (int t = 0; t < valueCount; t++) {
+			final long location = entry.locations[t];
+			if (location != UNPACKED) {
+				final Segment segment = segments.get(Integer.valueOf(segmentOf(location)));
+				if (segment == null || offsetOf(location) + entry.lengths[t] > segment.length) {
+					for (int u = 0; u < t; u++) {
+						releasePacked(entry.locations[u], entry.lengths[u]);
+					}
+					return false;
+				}
+				segment.liveBytes += entry.lengths[t];
+			}
+		}
+		return true;
+	}
+
+	private static int segmentOf(final long location) {
+		return (int) (location >>> 32);
+	}
+
+	private static long offsetOf(final long location) {
+		return location & 0xffffffffL;
+	}
+
+	/**
+	 * Appends a value to the active segment, starting a new one when it is
+	 * full.
+	 *
+	 * @return the location of the value
+	 */
+	private long pack(final byte[] value, final int offset, final int length) throws IOException {
+		if (activeSegment == null || activeSegment.length + length > PACK_SEGMENT_SIZE) {
+			if (activeSegment != null) {
+				activeSegment.closeWriter();
+				if (activeSegment.liveBytes == 0) {
+					removeSegment(activeSegment);
+				}
+			}
+			final int id = nextSegmentId++;
+			activeSegment = new Segment(id, new File(directory, PACK_FILE_PREFIX + id + PACK_FILE_SUFFIX));
+			segments.put(Integer.valueOf(id), activeSegment);
+		}
+		final Segment segment = activeSegment;
+		final long location = ((long) segment.id << 32) | segment.length;
+		segment.append(value, offset, length);
+		segment.liveBytes += length;
+		return location;
+	}
+
+	private void releasePacked(final long location, final long length) {
+		if (location != UNPACKED) {
+			final Segment segment = segments.get(Integer.valueOf(segmentOf(location)));
+			if (segment != null) {
+				final boolean wasHalfLive = segment.liveBytes * 2 >= segment.length;
+				segment.liveBytes -= length;
+				if (segment == activeSegment) {
+					return;
+				}
+				if (segment.liveBytes <= 0) {
+					removeSegment(segment);
+				} else if (wasHalfLive && segment.liveBytes * 2 < segment.length) {
+					executorService.submit(cleanupCallable);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes a segment. Readers keep their mapping of it.
+	 */
+	private void removeSegment(final Segment segment) {
+		segment.closeWriter();
+		segments.remove(Integer.valueOf(segment.id), segment);
+		segment.file.delete();
+	}
+
+	/**
+	 * Moves the values out of segments that are less than half in use, so
+	 * their space can be reclaimed.
+	 */
+	private void compactSegments() throws IOException {
+		for (final Segment segment : new ArrayList<Segment>(segments.values())) {
+			if (segment == activeSegment || segment.liveBytes * 2 >= segment.length) {
+				continue;
+			}
+			for (final Entry entry : lruEntries.values()) {
+				boolean isMoved = false;
+				for (int i = 0; i < valueCount; i++) {
+					final long location = entry.locations[i];
+					if (location != UNPACKED && segmentOf(location) == segment.id) {
+						if (!isMoved) {
+							entry.version++;
+							isMoved = true;
+						}
+						final ByteBuffer value = segment.slice(offsetOf(location), entry.lengths[i]);
+						final byte[] bytes = new byte[value.remaining()];
+						value.get(bytes);
+						entry.locations[i] = pack(bytes, 0, bytes.length);
+						segment.liveBytes -= bytes.length;
+					}
+				}
+				if (isMoved) {
+					entry.publish();
+					entry.version++;
+					redundantOpCount++;
+					writeRecord(journalWriter, OP_CLEAN, entry);
+					if (entry.currentEditor != null) {
+						// keep the edit in progress, as rebuildJournal does
+						redundantOpCount++;
+						writeRecord(journalWriter, OP_DIRTY, entry);
+					}
+				}
+			}
+			journalWriter.flush();
+			removeSegment(segment);
+		}
 	}
 
 	/**
@@ -426,28 +897,20 @@ public final class DiskLruCache implements Closeable {
 			journalWriter.close();
 		}
 
-		final Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
-		writer.write(MAGIC);
-		writer.write("\n");
-		writer.write(VERSION_1);
-		writer.write("\n");
-		writer.write(Integer.toString(appVersion));
-		writer.write("\n");
-		writer.write(Integer.toString(valueCount));
-		writer.write("\n");
-		writer.write("\n");
+		final OutputStream writer = newJournalWriter(journalFileTmp, false);
+		final ByteBuffer header = recordBuffer(HEADER_SIZE);
+		header.putInt(MAGIC_V2).putInt(VERSION_2).putInt(appVersion).putInt(valueCount);
+		writer.write(recordBuffer, 0, HEADER_SIZE);
 
 		for (final Entry entry : lruEntries.values()) {
-			if (entry.currentEditor != null) {
-				writer.write(DIRTY + ' ' + entry.key + '\n');
-			} else {
-				writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-			}
+			entry.isKeyWritten = false;
+			writeRecord(writer, entry.currentEditor != null ? OP_DIRTY : OP_CLEAN, entry);
 		}
 
 		writer.close();
 		journalFileTmp.renameTo(journalFile);
-		journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+		journalWriter = newJournalWriter(journalFile, true);
+		isJournalTruncated = false;
 	}
 
 	private static void deleteIfExists(final File file) throws IOException {
@@ -466,42 +929,140 @@ public final class DiskLruCache implements Closeable {
 	/**
 	 * Returns a snapshot of the entry named {@code key}, or null if it doesn't
 	 * exist is not currently readable. If a value is returned, it is moved to
-	 * the head of the LRU queue.
+	 * the head of the LRU queue once the read is drained.
 	 */
-	public synchronized Snapshot get(final String key) throws IOException {
+	public Snapshot get(final String key) throws IOException {
+		final Snapshot snapshot = getSnapshot(key);
+		if (snapshot != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return snapshot;
+	}
+
+	private Snapshot getSnapshot(final String key) throws IOException {
 		checkNotClosed();
 		validateKey(key);
-		final Entry entry = lruEntries.get(key);
+		final Entry entry = readEntries.get(key);
 		if (entry == null) {
 			return null;
 		}
 
-		if (!entry.readable) {
-			return null;
-		}
-
 		/*
 		 * Open all streams eagerly to guarantee that we see a single published
 		 * snapshot. If we opened streams lazily then the streams could come
-		 * from different edits.
+		 * from different edits. An edit committed while the streams are
+		 * opened changes the entry's version, so they are opened again; after
+		 * a few tries the lock is taken instead.
 		 */
+		Snapshot snapshot = null;
+		for (int i = 0; i < READ_RETRY_COUNT && snapshot == null; i++) {
+			final int version = entry.version;
+			if ((version & 1) != 0) {
+				continue; // being committed
+			}
+			if (!entry.readable) {
+				return null;
+			}
+			final long sequenceNumber = entry.sequenceNumber;
+			final InputStream[] ins = openCleanFiles(entry);
+			if (ins == null) {
+				if (version != entry.version) {
+					continue; // moved meanwhile
+				}
+				return null;
+			}
+			if (version == entry.version) {
+				snapshot = new Snapshot(key, sequenceNumber, ins);
+			} else {
+				closeAll(ins);
+			}
+		}
+		if (snapshot == null) {
+			synchronized (this) {
+				if (!entry.readable) {
+					return null;
+				}
+				final InputStream[] ins = openCleanFiles(entry);
+				if (ins == null) {
+					return null;
+				}
+				snapshot = new Snapshot(key, entry.sequenceNumber, ins);
+			}
+		}
+
+		pendingReads.offer(key);
+		if (pendingReadCount.incrementAndGet() >= READ_BUFFER_DRAIN_THRESHOLD
+				&& isDrainScheduled.compareAndSet(false, true)) {
+			executorService.submit(cleanupCallable);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the streams of all values, or null if a file is missing
+	 */
+	private InputStream[] openCleanFiles(final Entry entry) {
+		// one read of the committed values, never the arrays being edited
+		final long[] published = entry.published;
+		if (published == null) {
+			return null;
+		}
 		final InputStream[] ins = new InputStream[valueCount];
 		try {
 			for (int i = 0; i < valueCount; i++) {
-				ins[i] = new FileInputStream(entry.getCleanFile(i));
+				ins[i] = openCleanFile(entry, published, i);
 			}
 		} catch (final FileNotFoundException e) {
-			// a file must have been deleted manually!
+			// a file must have been deleted manually, or evicted meanwhile
+			closeAll(ins);
 			return null;
 		}
+		return ins;
+	}
 
-		redundantOpCount++;
-		journalWriter.append(READ + ' ' + key + '\n');
-		if (journalRebuildRequired()) {
-			executorService.submit(cleanupCallable);
+	/**
+	 * @param published
+	 *            the lengths and locations published by the entry
+	 */
+	private InputStream openCleanFile(final Entry entry, final long[] published, final int index)
+			throws FileNotFoundException {
+		final long location = published[valueCount + index];
+		if (location == UNPACKED) {
+			return new FileInputStream(entry.getCleanFile(index));
+		}
+		final Segment segment = segments.get(Integer.valueOf(segmentOf(location)));
+		if (segment == null) {
+			throw new FileNotFoundException("segment " + segmentOf(location));
+		}
+		try {
+			return new BufferInputStream(segment.slice(offsetOf(location), published[index]));
+		} catch (final IOException e) {
+			throw new FileNotFoundException(e.toString());
 		}
+	}
+
+	private static void closeAll(final InputStream[] ins) {
+		for (final InputStream in : ins) {
+			closeQuietly(in);
+		}
+	}
 
-		return new Snapshot(key, entry.sequenceNumber, ins);
+	/**
+	 * Applies the reads recorded by {@link #get} to the LRU order and the
+	 * journal.
+	 */
+	private void drainReads() throws IOException {
+		String key;
+		while ((key = pendingReads.poll()) != null) {
+			pendingReadCount.decrementAndGet();
+			final Entry entry = lruEntries.get(key);
+			if (entry != null) {
+				redundantOpCount++;
+				writeRecord(journalWriter, OP_READ, entry);
+			}
+		}
 	}
 
 	/**
@@ -515,6 +1076,40 @@ public final class DiskLruCache implements Closeable {
 	private synchronized Editor edit(final String key, final long expectedSequenceNumber) throws IOException {
 		checkNotClosed();
 		validateKey(key);
+		drainReads();
+		final Editor editor = newEditor(key, expectedSequenceNumber);
+		if (editor != null) {
+			// flush the journal before creating files to prevent file leaks
+			journalWriter.flush();
+		}
+		return editor;
+	}
+
+	/**
+	 * Returns editors for several entries at once, flushing the journal once
+	 * for all of them instead of once per entry.
+	 *
+	 * @return an editor per key, null where another edit is in progress
+	 */
+	public synchronized Editor[] edit(final String[] keys) throws IOException {
+		checkNotClosed();
+		for (final String key : keys) {
+			validateKey(key);
+		}
+		drainReads();
+		final Editor[] editors = new Editor[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			editors[i] = newEditor(keys[i], ANY_SEQUENCE_NUMBER);
+		}
+		// flush the journal before creating files to prevent file leaks
+		journalWriter.flush();
+		return editors;
+	}
+
+	/**
+	 * Writes the dirty record of a new editor without flushing the journal.
+	 */
+	private Editor newEditor(final String key, final long expectedSequenceNumber) throws IOException {
 		Entry entry = lruEntries.get(key);
 		if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
 				&& (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
@@ -523,16 +1118,14 @@ public final class DiskLruCache implements Closeable {
 		if (entry == null) {
 			entry = new Entry(key);
 			lruEntries.put(key, entry);
+			readEntries.put(key, entry);
 		} else if (entry.currentEditor != null) {
 			return null; // another edit is in progress
 		}
 
 		final Editor editor = new Editor(entry);
 		entry.currentEditor = editor;
-
-		// flush the journal before creating files to prevent file leaks
-		journalWriter.write(DIRTY + ' ' + key + '\n');
-		journalWriter.flush();
+		writeRecord(journalWriter, OP_DIRTY, entry);
 		return editor;
 	}
 
@@ -556,10 +1149,31 @@ public final class DiskLruCache implements Closeable {
 	 * this cache. This may be greater than the max size if a background
 	 * deletion is pending.
 	 */
-	public synchronized long size() {
+	public long size() {
 		return size;
 	}
 
+	/**
+	 * Returns the number of times {@link #get} returned a snapshot.
+	 */
+	public int hitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of times {@link #get} returned null.
+	 */
+	public int missCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of entries removed to stay within the maximum size.
+	 */
+	public int evictionCount() {
+		return evictionCount.get();
+	}
+
 	private synchronized void completeEdit(final Editor editor, final boolean success) throws IOException {
 		final Entry entry = editor.entry;
 		if (entry.currentEditor != editor) {
@@ -577,14 +1191,23 @@ public final class DiskLruCache implements Closeable {
 			}
 		}
 
+		entry.version++;
 		for (int i = 0; i < valueCount; i++) {
 			final File dirty = entry.getDirtyFile(i);
 			if (success) {
 				if (dirty.exists()) {
 					final File clean = entry.getCleanFile(i);
-					dirty.renameTo(clean);
 					final long oldLength = entry.lengths[i];
-					final long newLength = clean.length();
+					final long newLength = dirty.length();
+					releasePacked(entry.locations[i], oldLength);
+					if (packThreshold > 0 && newLength <= packThreshold) {
+						entry.locations[i] = pack(readFully(dirty, (int) newLength), 0, (int) newLength);
+						deleteIfExists(dirty);
+						deleteIfExists(clean);
+					} else {
+						dirty.renameTo(clean);
+						entry.locations[i] = UNPACKED;
+					}
 					entry.lengths[i] = newLength;
 					size = size - oldLength + newLength;
 				}
@@ -593,18 +1216,21 @@ public final class DiskLruCache implements Closeable {
 			}
 		}
 
+		entry.publish();
 		redundantOpCount++;
 		entry.currentEditor = null;
 		if (entry.readable | success) {
 			entry.readable = true;
-			journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+			writeRecord(journalWriter, OP_CLEAN, entry);
 			if (success) {
 				entry.sequenceNumber = nextSequenceNumber++;
 			}
 		} else {
 			lruEntries.remove(entry.key);
-			journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+			readEntries.remove(entry.key);
+			writeRecord(journalWriter, OP_REMOVE, entry);
 		}
+		entry.version++;
 
 		if (size > maxSize || journalRebuildRequired()) {
 			executorService.submit(cleanupCallable);
@@ -635,17 +1261,24 @@ public final class DiskLruCache implements Closeable {
 		}
 
 		for (int i = 0; i < valueCount; i++) {
-			final File file = entry.getCleanFile(i);
-			if (!file.delete()) {
-				throw new IOException("failed to delete " + file);
+			if (entry.locations[i] == UNPACKED) {
+				final File file = entry.getCleanFile(i);
+				if (!file.delete()) {
+					throw new IOException("failed to delete " + file);
+				}
+			} else {
+				releasePacked(entry.locations[i], entry.lengths[i]);
+				entry.locations[i] = UNPACKED;
 			}
 			size -= entry.lengths[i];
 			entry.lengths[i] = 0;
 		}
+		entry.publish();
 
 		redundantOpCount++;
-		journalWriter.append(REMOVE + ' ' + key + '\n');
+		writeRecord(journalWriter, OP_REMOVE, entry);
 		lruEntries.remove(key);
+		readEntries.remove(key);
 
 		if (journalRebuildRequired()) {
 			executorService.submit(cleanupCallable);
@@ -672,6 +1305,7 @@ public final class DiskLruCache implements Closeable {
 	 */
 	public synchronized void flush() throws IOException {
 		checkNotClosed();
+		drainReads();
 		trimToSize();
 		journalWriter.flush();
 	}
@@ -689,16 +1323,24 @@ public final class DiskLruCache implements Closeable {
 				entry.currentEditor.abort();
 			}
 		}
+		drainReads();
 		trimToSize();
 		journalWriter.close();
 		journalWriter = null;
+		if (activeSegment != null) {
+			activeSegment.closeWriter();
+		}
 	}
 
 	private void trimToSize() throws IOException {
+		if (size > maxSize) {
+			drainReads();
+		}
 		while (size > maxSize) {
 			// Map.Entry<String, Entry> toEvict = lruEntries.eldest();
 			final Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
 			remove(toEvict.getKey());
+			evictionCount.incrementAndGet();
 		}
 	}
 
@@ -712,6 +1354,43 @@ public final class DiskLruCache implements Closeable {
 		deleteContents(directory);
 	}
 
+	/**
+	 * Returns the keys of the readable entries, least recently used first.
+	 */
+	synchronized List<String> keys() {
+		return new ArrayList<String>(lruEntries.keySet());
+	}
+
+	/**
+	 * Closes the cache and deletes the files it keeps: the journals, the value
+	 * files and the pack segments. Unlike {@link #delete()}, anything else in
+	 * the directory is left alone.
+	 */
+	synchronized void deleteFiles() throws IOException {
+		close();
+		for (final Entry entry : lruEntries.values()) {
+			for (int i = 0; i < valueCount; i++) {
+				deleteIfExists(entry.getCleanFile(i));
+				deleteIfExists(entry.getDirtyFile(i));
+			}
+		}
+		for (final Segment segment : segments.values()) {
+			deleteIfExists(segment.file);
+		}
+		deleteJournalFiles(directory);
+	}
+
+	/**
+	 * Deletes the journal files of a cache in {@code directory}, of either
+	 * version.
+	 */
+	static void deleteJournalFiles(final File directory) throws IOException {
+		deleteIfExists(new File(directory, JOURNAL_FILE));
+		deleteIfExists(new File(directory, JOURNAL_FILE_TMP));
+		deleteIfExists(new File(directory, JOURNAL_FILE_V1));
+		deleteIfExists(new File(directory, JOURNAL_FILE_V1_TMP));
+	}
+
 	private void validateKey(final String key) {
 		if (key.contains(" ") || key.contains("\n") || key.contains("\r")) {
 			throw new IllegalArgumentException("keys must not contain spaces or newlines: \"" + key + "\"");
@@ -759,6 +1438,27 @@ public final class DiskLruCache implements Closeable {
 			return inputStreamToString(getInputStream(index));
 		}
 
+		/**
+		 * Returns a read-only buffer mapped from the value for {@code index},
+		 * without copying it. It stays valid after the snapshot is closed.
+		 */
+		public ByteBuffer map(final int index) throws IOException {
+			final InputStream in = ins[index];
+			if (in instanceof BufferInputStream) {
+				return ((BufferInputStream) in).buffer.duplicate();
+			}
+			final FileChannel channel = ((FileInputStream) in).getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		/**
+		 * Returns true if the value for {@code index} has a file of its own,
+		 * so {@link #getInputStream} is a {@link FileInputStream}.
+		 */
+		public boolean isFile(final int index) {
+			return ins[index] instanceof FileInputStream;
+		}
+
 		@Override
 		public void close() {
 			for (final InputStream in : ins) {
@@ -790,7 +1490,7 @@ public final class DiskLruCache implements Closeable {
 				if (!entry.readable) {
 					return null;
 				}
-				return new FileInputStream(entry.getCleanFile(index));
+				return openCleanFile(entry, entry.published, index);
 			}
 		}
 
@@ -898,12 +1598,26 @@ public final class DiskLruCache implements Closeable {
 
 	private final class Entry {
 		private final String key;
+		private final long hash;
+
+		/** True once the journal has a KEY record for this entry. */
+		private boolean isKeyWritten;
 
 		/** Lengths of this entry's files. */
 		private final long[] lengths;
 
+		/** Where each value is packed, or {@link #UNPACKED}. */
+		private final long[] locations;
+
+		/**
+		 * A copy of the lengths followed by the locations, made under the
+		 * cache's lock whenever they change and never modified after, so
+		 * lock-free readers see all of them from a single volatile read.
+		 */
+		private volatile long[] published;
+
 		/** True if this entry has ever been published */
-		private boolean readable;
+		private volatile boolean readable;
 
 		/** The ongoing edit or null if this entry is not being edited. */
 		private Editor currentEditor;
@@ -912,11 +1626,20 @@ public final class DiskLruCache implements Closeable {
 		 * The sequence number of the most recently committed edit to this
 		 * entry.
 		 */
-		private long sequenceNumber;
+		private volatile long sequenceNumber;
+
+		/**
+		 * Odd while an edit of this entry is being committed, so lock-free
+		 * readers can tell whether they opened files of a single edit.
+		 */
+		private volatile int version;
 
 		private Entry(final String key) {
 			this.key = key;
+			hash = hashKey(key);
 			lengths = new long[valueCount];
+			locations = new long[valueCount];
+			Arrays.fill(locations, UNPACKED);
 		}
 
 		public String getLengths() throws IOException {
@@ -948,6 +1671,22 @@ public final class DiskLruCache implements Closeable {
 			throw new IOException("unexpected journal line: " + Arrays.toString(strings));
 		}
 
+		private void publish() {
+			final long[] values = new long[valueCount * 2];
+			System.arraycopy(lengths, 0, values, 0, valueCount);
+			System.arraycopy(locations, 0, values, valueCount, valueCount);
+			published = values;
+		}
+
+		private boolean isPacked() {
+			for (final long location : locations) {
+				if (location != UNPACKED) {
+					return true;
+				}
+			}
+			return false;
+		}
+
 		public File getCleanFile(final int i) {
 			return new File(directory, key + "." + i);
 		}
@@ -956,4 +1695,127 @@ public final class DiskLruCache implements Closeable {
 			return new File(directory, key + "." + i + ".tmp");
 		}
 	}
+
+	private static byte[] readFully(final File file, final int length) throws IOException {
+		final byte[] bytes = new byte[length];
+		final InputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			int count;
+			while (offset < length && (count = in.read(bytes, offset, length - offset)) != -1) {
+				offset += count;
+			}
+			if (offset != length) {
+				throw new EOFException(file.toString());
+			}
+		} finally {
+			closeQuietly(in);
+		}
+		return bytes;
+	}
+
+	/**
+	 * A pack file of small values. Appended to under the cache's lock and
+	 * mapped for reading.
+	 */
+	private static final class Segment {
+		private final int id;
+		private final File file;
+		private volatile long length;
+		private long liveBytes;
+		private volatile MappedByteBuffer mapped;
+		private RandomAccessFile writer;
+
+		private Segment(final int id, final File file) {
+			this.id = id;
+			this.file = file;
+			length = file.length();
+		}
+
+		private void append(final byte[] value, final int offset, final int count) throws IOException {
+			if (writer == null) {
+				writer = new RandomAccessFile(file, "rw");
+			}
+			writer.seek(length);
+			writer.write(value, offset, count);
+			length += count;
+		}
+
+		private void closeWriter() {
+			closeQuietly(writer);
+			writer = null;
+		}
+
+		/**
+		 * Returns a read-only view of {@code count} bytes at {@code offset},
+		 * mapping the segment again if it has grown past the last mapping.
+		 */
+		private ByteBuffer slice(final long offset, final long count) throws IOException {
+			MappedByteBuffer buffer = mapped;
+			if (buffer == null || offset + count > buffer.capacity()) {
+				synchronized (this) {
+					buffer = mapped;
+					if (buffer == null || offset + count > buffer.capacity()) {
+						final RandomAccessFile in = new RandomAccessFile(file, "r");
+						try {
+							buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+						} finally {
+							closeQuietly(in);
+						}
+						mapped = buffer;
+					}
+				}
+			}
+			if (offset + count > buffer.capacity()) {
+				throw new EOFException(file.toString());
+			}
+			final ByteBuffer slice = buffer.duplicate();
+			slice.position((int) offset);
+			slice.limit((int) (offset + count));
+			return slice.slice();
+		}
+	}
+
+	/**
+	 * Reads a packed value from its mapped segment.
+	 */
+	private static final class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		private final ByteBuffer data;
+
+		private BufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+			data = buffer.duplicate();
+		}
+
+		@Override
+		public int read() {
+			return data.hasRemaining() ? data.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int count) {
+			if (count == 0) {
+				return 0;
+			}
+			if (!data.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(count, data.remaining());
+			data.get(bytes, offset, n);
+			return n;
+		}
+
+		@Override
+		public long skip(final long count) {
+			final int n = (int) Math.max(0, Math.min(count, data.remaining()));
+			data.position(data.position() + n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+	}
 }
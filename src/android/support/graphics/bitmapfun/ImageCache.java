@@ -22,29 +22,34 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
-import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.StatFs;
+import android.support.util.PolicyCache;
 import android.support.util.Versions;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.util.LruCache;
 import android.util.Log;
 
 /**
@@ -61,27 +66,61 @@ public class ImageCache {
 
 	// Default memory cache size in kilobytes
 	private static final int DEFAULT_MEM_CACHE_SIZE = 1024 * 5; // 5MB
+	private static final String DEFAULT_MEM_CACHE_POLICY = PolicyCache.LRU;
+	private static final float DEFAULT_BITMAP_POOL_SHARE = 0.25f;
 
 	// Default disk cache size in bytes
 	private static final int DEFAULT_DISK_CACHE_SIZE = 1024 * 1024 * 10; // 10MB
+	private static final int DEFAULT_DISK_CACHE_SHARD_COUNT = ShardedDiskLruCache.DEFAULT_SHARD_COUNT;
+	private static final int DEFAULT_DISK_CACHE_PACK_THRESHOLD = 0; // a file per image
 
 	// Compression settings when writing images to disk cache
 	private static final CompressFormat DEFAULT_COMPRESS_FORMAT = CompressFormat.JPEG;
 	private static final int DEFAULT_COMPRESS_QUALITY = 70;
 	private static final int DISK_CACHE_INDEX = 0;
 
+	// Write-behind settings of the disk cache
+	private static final int DEFAULT_DISK_WRITE_BACKLOG = 32;
+	private static final boolean DEFAULT_DISK_CACHE_ORIGINALS = false;
+	private static final int DISK_WRITE_BATCH_SIZE = 8;
+
 	// Constants to easily toggle various caches
 	private static final boolean DEFAULT_MEM_CACHE_ENABLED = true;
 	private static final boolean DEFAULT_DISK_CACHE_ENABLED = true;
 	private static final boolean DEFAULT_INIT_DISK_CACHE_ON_CREATE = false;
 
-	private DiskLruCache mDiskLruCache;
-	private LruCache<String, BitmapDrawable> mMemoryCache;
+	private volatile ShardedDiskLruCache mDiskLruCache;
+	private PolicyCache<String, BitmapDrawable> mMemoryCache;
 	private ImageCache.ImageCacheParams mCacheParams;
 	private final Object mDiskCacheLock = new Object();
 	private boolean mDiskCacheStarting = true;
 
-	private Set<SoftReference<Bitmap>> mReusableBitmaps;
+	private BitmapPool mBitmapPool;
+
+	/**
+	 * Disk cache writes waiting for the writer thread, oldest first: a Bitmap
+	 * to compress or the original bytes of the image.
+	 */
+	private final LinkedHashMap<String, Object> mPendingWrites = new LinkedHashMap<String, Object>();
+	private boolean mWriteScheduled;
+	private int mDroppedWriteCount;
+	/** The writes the writer thread has taken from the backlog and not done. */
+	private final HashMap<String, Object> mWritingValues = new HashMap<String, Object>();
+	/**
+	 * Drawables removed from the memory cache while their bitmap waited to be
+	 * written, released once it is, so it is not reused meanwhile.
+	 */
+	private final IdentityHashMap<Bitmap, BitmapDrawable> mDeferredReleases = new IdentityHashMap<Bitmap, BitmapDrawable>();
+	/** The drawable being put in the memory cache, under its lock. */
+	private BitmapDrawable mInserting;
+	private final ExecutorService mWriteExecutor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>());
+	private final Runnable mWriteRunnable = new Runnable() {
+		@Override
+		public void run() {
+			drainPendingWrites(true);
+		}
+	};
 
 	/**
 	 * Create a new ImageCache object using the specified parameters. This
@@ -144,29 +183,17 @@ public class ImageCache {
 			Log.d(TAG, "Memory cache created (size = " + mCacheParams.memCacheSize + ")");
 			// }
 
-			// If we're running on Honeycomb or newer, create a set of reusable
-			// bitmaps that can be
-			// populated into the inBitmap field of BitmapFactory.Options. Note
-			// that the set is
-			// of SoftReferences which will actually not be very effective due
-			// to the garbage
-			// collector being aggressive clearing Soft/WeakReferences. A better
-			// approach
-			// would be to use a strongly references bitmaps, however this would
-			// require some
-			// balancing of memory usage between this set and the bitmap
-			// LruCache. It would also
-			// require knowledge of the expected size of the bitmaps. From
-			// Honeycomb to JellyBean
-			// the size would need to be precise, from KitKat onward the size
-			// would just need to
-			// be the upper bound (due to changes in how inBitmap can re-use
-			// bitmaps).
+			// If we're running on Honeycomb or newer, keep evicted bitmaps
+			// for reuse with the inBitmap field of BitmapFactory.Options. The
+			// pool holds them strongly, and its bytes count against the
+			// memory cache's budget.
 			if (Versions.hasHoneycomb()) {
-				mReusableBitmaps = Collections.synchronizedSet(new HashSet<SoftReference<Bitmap>>());
+				mBitmapPool = new BitmapPool(
+						(long) (mCacheParams.memCacheSize * 1024L * mCacheParams.bitmapPoolShare));
 			}
 
-			mMemoryCache = new LruCache<String, BitmapDrawable>(mCacheParams.memCacheSize) {
+			mMemoryCache = new PolicyCache<String, BitmapDrawable>(mCacheParams.memCacheSize,
+					mCacheParams.memCachePolicy) {
 
 				/**
 				 * Notify the removed entry that is no longer being cached
@@ -174,21 +201,13 @@ public class ImageCache {
 				@Override
 				protected void entryRemoved(final boolean evicted, final String key, final BitmapDrawable oldValue,
 						final BitmapDrawable newValue) {
-					if (RecyclingBitmapDrawable.class.isInstance(oldValue)) {
-						// The removed entry is a recycling drawable, so notify
-						// it
-						// that it has been removed from the memory cache
-						((RecyclingBitmapDrawable) oldValue).setIsCached(false);
-					} else {
-						// The removed entry is a standard BitmapDrawable
-
-						if (Versions.hasHoneycomb()) {
-							// We're running on Honeycomb or later, so add the
-							// bitmap
-							// to a SoftReference set for possible use with
-							// inBitmap later
-							mReusableBitmaps.add(new SoftReference<>(oldValue.getBitmap()));
-						}
+					if (oldValue == mInserting && !RecyclingBitmapDrawable.class.isInstance(oldValue)) {
+						// Rejected by the put that inserted it, so it is about
+						// to be displayed and must not be reused
+						return;
+					}
+					if (!deferRelease(key, oldValue)) {
+						release(oldValue);
 					}
 				}
 
@@ -231,7 +250,8 @@ public class ImageCache {
 					}
 					if (getUsableSpace(diskCacheDir) > mCacheParams.diskCacheSize) {
 						try {
-							mDiskLruCache = DiskLruCache.open(diskCacheDir, 1, 1, mCacheParams.diskCacheSize);
+							mDiskLruCache = ShardedDiskLruCache.open(diskCacheDir, 1, 1, mCacheParams.diskCacheSize,
+									mCacheParams.diskCacheShardCount, mCacheParams.diskCachePackThreshold);
 							// if (BuildConfig.DEBUG) {
 							Log.d(TAG, "Disk cache initialized");
 							// }
@@ -248,7 +268,7 @@ public class ImageCache {
 	}
 
 	/**
-	 * Adds a bitmap to both memory and disk cache.
+	 * Adds a bitmap to the memory cache, and queues it for the disk cache.
 	 *
 	 * @param data
 	 *            Unique identifier for the bitmap to store
@@ -260,6 +280,24 @@ public class ImageCache {
 		if (data == null || value == null) {
 			return;
 		}
+		// Queued first, so an eviction meanwhile knows the bitmap is in use
+		addBitmapToDiskCacheAsync(data, value.getBitmap());
+		addBitmapToMemCache(data, value);
+		// END_INCLUDE(add_bitmap_to_cache)
+	}
+
+	/**
+	 * Adds a bitmap to the memory cache only.
+	 *
+	 * @param data
+	 *            Unique identifier for the bitmap to store
+	 * @param value
+	 *            The bitmap drawable to store
+	 */
+	public void addBitmapToMemCache(final String data, final BitmapDrawable value) {
+		if (data == null || value == null) {
+			return;
+		}
 
 		// Add to memory cache
 		if (mMemoryCache != null) {
@@ -268,44 +306,347 @@ public class ImageCache {
 				// that it has been added into the memory cache
 				((RecyclingBitmapDrawable) value).setIsCached(true);
 			}
-			mMemoryCache.put(data, value);
-		}
-
-		synchronized (mDiskCacheLock) {
-			// Add to disk cache
-			if (mDiskLruCache != null) {
-				final String key = hashKeyForDisk(data);
-				OutputStream out = null;
+			synchronized (mMemoryCache) {
+				mInserting = value;
 				try {
-					final DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
-					if (snapshot == null) {
-						final DiskLruCache.Editor editor = mDiskLruCache.edit(key);
-						if (editor != null) {
-							out = editor.newOutputStream(DISK_CACHE_INDEX);
-							value.getBitmap().compress(mCacheParams.compressFormat, mCacheParams.compressQuality, out);
-							editor.commit();
-							out.close();
-						}
-					} else {
-						snapshot.getInputStream(DISK_CACHE_INDEX).close();
+					mMemoryCache.put(data, value);
+					if (mBitmapPool != null) {
+						// Share the budget with the pooled bitmaps
+						mMemoryCache.trimToSize(mCacheParams.memCacheSize - (int) (mBitmapPool.size() / 1024));
 					}
-				} catch (final IOException e) {
-					Log.e(TAG, "addBitmapToCache - " + e);
-				} catch (final Exception e) {
-					Log.e(TAG, "addBitmapToCache - " + e);
 				} finally {
-					try {
-						if (out != null) {
-							out.close();
+					mInserting = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compresses a bitmap into the disk cache unless it is there already.
+	 * Includes disk access, so it should not be called on the main/UI thread.
+	 *
+	 * @param data
+	 *            Unique identifier for the bitmap to store
+	 * @param bitmap
+	 *            The bitmap to store
+	 */
+	public void addBitmapToDiskCache(final String data, final Bitmap bitmap) {
+		if (data == null || bitmap == null) {
+			return;
+		}
+		writeToDiskCache(new String[] { data }, new Object[] { bitmap });
+	}
+
+	/**
+	 * Queues a bitmap to be compressed into the disk cache on a background
+	 * thread. Does nothing if the disk cache stores the original bytes and
+	 * they are queued already.
+	 *
+	 * @param data
+	 *            Unique identifier for the bitmap to store
+	 * @param bitmap
+	 *            The bitmap to store
+	 */
+	public void addBitmapToDiskCacheAsync(final String data, final Bitmap bitmap) {
+		if (data != null && bitmap != null) {
+			queueWrite(data, bitmap);
+		}
+	}
+
+	/**
+	 * Queues the original bytes of an image, as downloaded, to be stored in
+	 * the disk cache on a background thread, which saves compressing the
+	 * decoded bitmap again. Only use it if {@link #isDiskCacheOriginals()},
+	 * as the disk cache then keeps undecoded images for
+	 * {@link #getBytesFromDiskCache(String)}.
+	 *
+	 * @param data
+	 *            Unique identifier for the image to store
+	 * @param bytes
+	 *            The encoded image, not to be changed afterwards
+	 */
+	public void addBytesToDiskCacheAsync(final String data, final byte[] bytes) {
+		if (data != null && bytes != null) {
+			queueWrite(data, bytes);
+		}
+	}
+
+	/**
+	 * @return true if the disk cache stores the original bytes of images
+	 *         rather than the compressed bitmaps
+	 */
+	public boolean isDiskCacheOriginals() {
+		return mCacheParams.diskCacheOriginals;
+	}
+
+	/**
+	 * @return the number of queued disk cache writes dropped because the
+	 *         backlog was full
+	 */
+	public int getDroppedWriteCount() {
+		synchronized (mPendingWrites) {
+			return mDroppedWriteCount;
+		}
+	}
+
+	/**
+	 * @return the number of disk cache writes waiting for the writer thread
+	 */
+	public int getPendingWriteCount() {
+		synchronized (mPendingWrites) {
+			return mPendingWrites.size();
+		}
+	}
+
+	/**
+	 * Fills in the counters and sizes of the memory, bitmap pool and disk
+	 * tiers.
+	 */
+	void fillSnapshot(final ImageMetrics.Snapshot snapshot) {
+		final PolicyCache<String, BitmapDrawable> memoryCache = mMemoryCache;
+		if (memoryCache != null) {
+			snapshot.memoryHits = memoryCache.hitCount();
+			snapshot.memoryMisses = memoryCache.missCount();
+			snapshot.memoryEvictions = memoryCache.evictionCount();
+			// kept in kilobytes
+			snapshot.memorySize = memoryCache.size() * 1024L;
+			snapshot.memoryMaxSize = memoryCache.maxSize() * 1024L;
+		}
+		final BitmapPool bitmapPool = mBitmapPool;
+		if (bitmapPool != null) {
+			snapshot.poolHits = bitmapPool.hitCount();
+			snapshot.poolMisses = bitmapPool.missCount();
+			snapshot.poolEvictions = bitmapPool.evictionCount();
+			snapshot.poolSize = bitmapPool.size();
+			snapshot.poolMaxSize = bitmapPool.maxSize();
+		}
+		final ShardedDiskLruCache diskLruCache = mDiskLruCache;
+		if (diskLruCache != null) {
+			snapshot.diskHits = diskLruCache.hitCount();
+			snapshot.diskMisses = diskLruCache.missCount();
+			snapshot.diskEvictions = diskLruCache.evictionCount();
+			snapshot.diskSize = diskLruCache.size();
+			snapshot.diskMaxSize = diskLruCache.maxSize();
+		}
+		synchronized (mPendingWrites) {
+			snapshot.pendingWrites = mPendingWrites.size();
+			snapshot.droppedWrites = mDroppedWriteCount;
+		}
+	}
+
+	/**
+	 * Queues a write unless one for the same data is pending, in which case
+	 * the original bytes replace a bitmap. The oldest write is dropped when
+	 * the backlog is full.
+	 */
+	private void queueWrite(final String data, final Object value) {
+		Object removed = null;
+		synchronized (mPendingWrites) {
+			final Object pending = mPendingWrites.get(data);
+			if (pending != null) {
+				if (value instanceof byte[] && !(pending instanceof byte[])) {
+					mPendingWrites.put(data, value);
+					removed = pending;
+				}
+			} else {
+				if (mPendingWrites.size() >= Math.max(1, mCacheParams.diskWriteBacklog)) {
+					final Iterator<Object> eldest = mPendingWrites.values().iterator();
+					removed = eldest.next();
+					eldest.remove();
+					mDroppedWriteCount++;
+				}
+				mPendingWrites.put(data, value);
+				if (!mWriteScheduled) {
+					mWriteScheduled = true;
+					mWriteExecutor.execute(mWriteRunnable);
+				}
+			}
+		}
+		releaseAfterWrite(removed);
+	}
+
+	/**
+	 * Defers the release of a drawable removed from the memory cache while
+	 * its bitmap is waiting to be written or being written.
+	 *
+	 * @return true if deferred
+	 */
+	private boolean deferRelease(final String data, final BitmapDrawable drawable) {
+		final Bitmap bitmap = drawable.getBitmap();
+		synchronized (mPendingWrites) {
+			if (bitmap != null && (mPendingWrites.get(data) == bitmap || mWritingValues.get(data) == bitmap)) {
+				mDeferredReleases.put(bitmap, drawable);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the drawable whose release waited for a write of the value,
+	 * which is done, dropped or cleared.
+	 */
+	private void releaseAfterWrite(final Object value) {
+		if (!(value instanceof Bitmap)) {
+			return;
+		}
+		final BitmapDrawable drawable;
+		synchronized (mPendingWrites) {
+			drawable = mDeferredReleases.remove(value);
+		}
+		if (drawable != null) {
+			release(drawable);
+		}
+	}
+
+	/**
+	 * Lets go of a drawable that is no longer cached.
+	 */
+	private void release(final BitmapDrawable drawable) {
+		if (RecyclingBitmapDrawable.class.isInstance(drawable)) {
+			// The removed entry is a recycling drawable, so notify it
+			// that it has been removed from the memory cache
+			((RecyclingBitmapDrawable) drawable).setIsCached(false);
+		} else {
+			// The removed entry is a standard BitmapDrawable
+
+			if (Versions.hasHoneycomb()) {
+				// We're running on Honeycomb or later, so pool the
+				// bitmap for possible use with inBitmap later
+				mBitmapPool.put(drawable.getBitmap());
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending writes in batches, each with a single journal flush.
+	 *
+	 * @param writer
+	 *            true on the writer thread, which is done once nothing is
+	 *            pending
+	 */
+	private void drainPendingWrites(final boolean writer) {
+		while (true) {
+			final String[] datas;
+			final Object[] values;
+			synchronized (mPendingWrites) {
+				final int count = Math.min(DISK_WRITE_BATCH_SIZE, mPendingWrites.size());
+				if (count == 0) {
+					if (writer) {
+						mWriteScheduled = false;
+					}
+					return;
+				}
+				datas = new String[count];
+				values = new Object[count];
+				final Iterator<Map.Entry<String, Object>> iterator = mPendingWrites.entrySet().iterator();
+				for (int i = 0; i < count; i++) {
+					final Map.Entry<String, Object> entry = iterator.next();
+					datas[i] = entry.getKey();
+					values[i] = entry.getValue();
+					iterator.remove();
+					mWritingValues.put(datas[i], values[i]);
+				}
+			}
+			try {
+				writeToDiskCache(datas, values);
+			} finally {
+				synchronized (mPendingWrites) {
+					for (int i = 0; i < datas.length; i++) {
+						if (mWritingValues.get(datas[i]) == values[i]) {
+							mWritingValues.remove(datas[i]);
 						}
-					} catch (final IOException e) {
 					}
 				}
+				for (final Object value : values) {
+					releaseAfterWrite(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores the values that are not on disk yet, waiting for the disk cache
+	 * to start if it is.
+	 */
+	private void writeToDiskCache(final String[] datas, final Object[] values) {
+		// BEGIN_INCLUDE(add_bitmap_to_cache)
+		final ShardedDiskLruCache diskLruCache;
+		synchronized (mDiskCacheLock) {
+			while (mDiskCacheStarting) {
+				try {
+					mDiskCacheLock.wait();
+				} catch (final InterruptedException e) {
+				}
+			}
+			diskLruCache = mDiskLruCache;
+		}
+		if (diskLruCache == null) {
+			return;
+		}
+
+		// Add to disk cache, the shards do their own locking
+		final ArrayList<String> keys = new ArrayList<String>(datas.length);
+		final ArrayList<Object> newValues = new ArrayList<Object>(datas.length);
+		try {
+			for (int i = 0; i < datas.length; i++) {
+				if (values[i] instanceof Bitmap && ((Bitmap) values[i]).isRecycled()) {
+					continue;
+				}
+				final String key = hashKeyForDisk(datas[i]);
+				final DiskLruCache.Snapshot snapshot = diskLruCache.get(key);
+				if (snapshot == null) {
+					keys.add(key);
+					newValues.add(values[i]);
+				} else {
+					snapshot.close();
+				}
+			}
+			if (keys.isEmpty()) {
+				return;
+			}
+			final DiskLruCache.Editor[] editors = diskLruCache.edit(keys.toArray(new String[keys.size()]));
+			for (int i = 0; i < editors.length; i++) {
+				if (editors[i] != null) {
+					write(editors[i], newValues.get(i));
+				}
 			}
+		} catch (final IOException e) {
+			Log.e(TAG, "addBitmapToCache - " + e);
+		} catch (final IllegalStateException e) {
+			// closed or cleared meanwhile
 		}
 		// END_INCLUDE(add_bitmap_to_cache)
 	}
 
+	private void write(final DiskLruCache.Editor editor, final Object value) {
+		OutputStream out = null;
+		try {
+			out = editor.newOutputStream(DISK_CACHE_INDEX);
+			if (value instanceof byte[]) {
+				out.write((byte[]) value);
+			} else {
+				((Bitmap) value).compress(mCacheParams.compressFormat, mCacheParams.compressQuality, out);
+			}
+			out.close();
+			out = null;
+			editor.commit();
+		} catch (final Exception e) {
+			Log.e(TAG, "addBitmapToCache - " + e);
+			try {
+				editor.abort();
+			} catch (final Exception ignored) {
+			}
+		} finally {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (final IOException e) {
+			}
+		}
+	}
+
 	/**
 	 * Get from memory cache.
 	 *
@@ -321,9 +662,11 @@ public class ImageCache {
 			memValue = mMemoryCache.get(data);
 		}
 
-		// if (BuildConfig.DEBUG && memValue != null) {
-		Log.d(TAG, "Memory cache hit");
-		// }
+		if (memValue != null) {
+			// if (BuildConfig.DEBUG) {
+			Log.d(TAG, "Memory cache hit");
+			// }
+		}
 
 		return memValue;
 		// END_INCLUDE(get_bitmap_from_mem_cache)
@@ -341,6 +684,8 @@ public class ImageCache {
 		final String key = hashKeyForDisk(data);
 		Bitmap bitmap = null;
 
+		// Only wait for the disk cache to start, reads need no lock
+		final ShardedDiskLruCache diskLruCache;
 		synchronized (mDiskCacheLock) {
 			while (mDiskCacheStarting) {
 				try {
@@ -348,89 +693,137 @@ public class ImageCache {
 				} catch (final InterruptedException e) {
 				}
 			}
-			if (mDiskLruCache != null) {
-				InputStream inputStream = null;
+			diskLruCache = mDiskLruCache;
+		}
+		if (diskLruCache != null) {
+			InputStream inputStream = null;
+			try {
+				final DiskLruCache.Snapshot snapshot = diskLruCache.get(key);
+				if (snapshot != null) {
+					// if (BuildConfig.DEBUG) {
+					Log.d(TAG, "Disk cache hit");
+					// }
+					inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
+					if (inputStream instanceof FileInputStream) {
+						final FileDescriptor fd = ((FileInputStream) inputStream).getFD();
+
+						// Decode bitmap, but we don't want to sample so
+						// give
+						// MAX_VALUE as the target dimensions
+						bitmap = ImageResizer.decodeSampledBitmapFromDescriptor(fd, Integer.MAX_VALUE,
+								Integer.MAX_VALUE, this);
+					} else if (inputStream != null) {
+						// packed with other small images
+						final ByteBuffer buffer = snapshot.map(DISK_CACHE_INDEX);
+						final byte[] bytes = new byte[buffer.remaining()];
+						buffer.get(bytes);
+						bitmap = ImageResizer.decodeSampledBitmapFromByteArray(bytes, 0, bytes.length,
+								Integer.MAX_VALUE, Integer.MAX_VALUE, this);
+					}
+				}
+			} catch (final IOException e) {
+				Log.e(TAG, "getBitmapFromDiskCache - " + e);
+			} catch (final IllegalStateException e) {
+				// closed or cleared meanwhile
+			} finally {
 				try {
-					final DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
-					if (snapshot != null) {
-						// if (BuildConfig.DEBUG) {
-						Log.d(TAG, "Disk cache hit");
-						// }
-						inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
-						if (inputStream != null) {
-							final FileDescriptor fd = ((FileInputStream) inputStream).getFD();
-
-							// Decode bitmap, but we don't want to sample so
-							// give
-							// MAX_VALUE as the target dimensions
-							bitmap = ImageResizer.decodeSampledBitmapFromDescriptor(fd, Integer.MAX_VALUE,
-									Integer.MAX_VALUE, this);
-						}
+					if (inputStream != null) {
+						inputStream.close();
 					}
 				} catch (final IOException e) {
-					Log.e(TAG, "getBitmapFromDiskCache - " + e);
-				} finally {
-					try {
-						if (inputStream != null) {
-							inputStream.close();
-						}
-					} catch (final IOException e) {
-					}
 				}
 			}
-			return bitmap;
 		}
+		return bitmap;
 		// END_INCLUDE(get_bitmap_from_disk_cache)
 	}
 
 	/**
-	 * @param options
-	 *            - BitmapFactory.Options with out* options populated
-	 * @return Bitmap that case be used for inBitmap
+	 * Get the stored bytes from disk cache, such as the original bytes of an
+	 * image if {@link #isDiskCacheOriginals()}.
+	 *
+	 * @param data
+	 *            Unique identifier for which item to get
+	 * @return The bytes if found in cache, null otherwise
 	 */
-	protected Bitmap getBitmapFromReusableSet(final BitmapFactory.Options options) {
-		// BEGIN_INCLUDE(get_bitmap_from_reusable_set)
-		Bitmap bitmap = null;
-
-		if (mReusableBitmaps != null && !mReusableBitmaps.isEmpty()) {
-			synchronized (mReusableBitmaps) {
-				final Iterator<SoftReference<Bitmap>> iterator = mReusableBitmaps.iterator();
-				Bitmap item;
-
-				while (iterator.hasNext()) {
-					item = iterator.next().get();
-
-					if (null != item && item.isMutable()) {
-						// Check to see it the item can be used for inBitmap
-						if (canUseForInBitmap(item, options)) {
-							bitmap = item;
+	public byte[] getBytesFromDiskCache(final String data) {
+		final String key = hashKeyForDisk(data);
+		byte[] bytes = null;
 
-							// Remove from reusable set so it can't be used
-							// again
-							iterator.remove();
-							break;
-						}
-					} else {
-						// Remove from the set if the reference has been
-						// cleared.
-						iterator.remove();
-					}
+		// Only wait for the disk cache to start, reads need no lock
+		final ShardedDiskLruCache diskLruCache;
+		synchronized (mDiskCacheLock) {
+			while (mDiskCacheStarting) {
+				try {
+					mDiskCacheLock.wait();
+				} catch (final InterruptedException e) {
+				}
+			}
+			diskLruCache = mDiskLruCache;
+		}
+		if (diskLruCache != null) {
+			DiskLruCache.Snapshot snapshot = null;
+			try {
+				snapshot = diskLruCache.get(key);
+				if (snapshot != null) {
+					// if (BuildConfig.DEBUG) {
+					Log.d(TAG, "Disk cache hit");
+					// }
+					final ByteBuffer buffer = snapshot.map(DISK_CACHE_INDEX);
+					bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+				}
+			} catch (final IOException e) {
+				Log.e(TAG, "getBytesFromDiskCache - " + e);
+			} catch (final IllegalStateException e) {
+				// closed or cleared meanwhile
+			} finally {
+				if (snapshot != null) {
+					snapshot.close();
 				}
 			}
 		}
+		return bytes;
+	}
 
-		return bitmap;
+	/**
+	 * @param options
+	 *            - BitmapFactory.Options with out* options populated
+	 * @return Bitmap that case be used for inBitmap
+	 */
+	protected Bitmap getBitmapFromReusableSet(final BitmapFactory.Options options) {
+		// BEGIN_INCLUDE(get_bitmap_from_reusable_set)
+		return mBitmapPool != null ? mBitmapPool.get(options) : null;
 		// END_INCLUDE(get_bitmap_from_reusable_set)
 	}
 
+	/**
+	 * @return the pool of bitmaps kept for inBitmap, with its hit and miss
+	 *         counts, or null before Honeycomb or without a memory cache
+	 */
+	public BitmapPool getBitmapPool() {
+		return mBitmapPool;
+	}
+
 	/**
 	 * Clears both the memory and disk cache associated with this ImageCache
 	 * object. Note that this includes disk access so this should not be
 	 * executed on the main/UI thread.
 	 */
 	public void clearCache() {
+		final Object[] cleared;
+		synchronized (mPendingWrites) {
+			cleared = mPendingWrites.values().toArray();
+			mPendingWrites.clear();
+		}
+		for (final Object value : cleared) {
+			releaseAfterWrite(value);
+		}
 		if (mMemoryCache != null) {
 			mMemoryCache.evictAll();
+			if (mBitmapPool != null) {
+				mBitmapPool.evictAll();
+			}
 			// if (BuildConfig.DEBUG) {
 			Log.d(TAG, "Memory cache cleared");
 			// }
@@ -454,11 +847,12 @@ public class ImageCache {
 	}
 
 	/**
-	 * Flushes the disk cache associated with this ImageCache object. Note that
-	 * this includes disk access so this should not be executed on the main/UI
-	 * thread.
+	 * Writes the queued writes and flushes the disk cache associated with this
+	 * ImageCache object. Note that this includes disk access so this should
+	 * not be executed on the main/UI thread.
 	 */
 	public void flush() {
+		drainPendingWrites(false);
 		synchronized (mDiskCacheLock) {
 			if (mDiskLruCache != null) {
 				try {
@@ -474,11 +868,12 @@ public class ImageCache {
 	}
 
 	/**
-	 * Closes the disk cache associated with this ImageCache object. Note that
-	 * this includes disk access so this should not be executed on the main/UI
-	 * thread.
+	 * Writes the queued writes and closes the disk cache associated with this
+	 * ImageCache object. Note that this includes disk access so this should
+	 * not be executed on the main/UI thread.
 	 */
 	public void close() {
+		drainPendingWrites(false);
 		synchronized (mDiskCacheLock) {
 			if (mDiskLruCache != null) {
 				try {
@@ -501,13 +896,34 @@ public class ImageCache {
 	 */
 	public static class ImageCacheParams {
 		public int memCacheSize = DEFAULT_MEM_CACHE_SIZE;
+		/**
+		 * {@link PolicyCache#LRU}, {@link PolicyCache#SLRU} or
+		 * {@link PolicyCache#TINY_LFU}
+		 */
+		public String memCachePolicy = DEFAULT_MEM_CACHE_POLICY;
+		/**
+		 * The part of memCacheSize that bitmaps kept for inBitmap may take
+		 */
+		public float bitmapPoolShare = DEFAULT_BITMAP_POOL_SHARE;
 		public int diskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+		public int diskCacheShardCount = DEFAULT_DISK_CACHE_SHARD_COUNT;
+		public int diskCachePackThreshold = DEFAULT_DISK_CACHE_PACK_THRESHOLD;
 		public File diskCacheDir;
 		public CompressFormat compressFormat = DEFAULT_COMPRESS_FORMAT;
 		public int compressQuality = DEFAULT_COMPRESS_QUALITY;
 		public boolean memoryCacheEnabled = DEFAULT_MEM_CACHE_ENABLED;
 		public boolean diskCacheEnabled = DEFAULT_DISK_CACHE_ENABLED;
 		public boolean initDiskCacheOnCreate = DEFAULT_INIT_DISK_CACHE_ON_CREATE;
+		/**
+		 * The number of disk cache writes that may wait for the writer
+		 * thread; the oldest is dropped beyond that
+		 */
+		public int diskWriteBacklog = DEFAULT_DISK_WRITE_BACKLOG;
+		/**
+		 * Store the original bytes of downloaded images on disk instead of
+		 * compressing the decoded bitmaps again
+		 */
+		public boolean diskCacheOriginals = DEFAULT_DISK_CACHE_ORIGINALS;
 
 		/**
 		 * Create a set of image cache parameters that can be provided to
@@ -533,7 +949,7 @@ public class ImageCache {
 		 * one fifth of the available memory. Throws
 		 * {@link IllegalArgumentException} if percent is < 0.01 or > .8.
 		 * memCacheSize is stored in kilobytes instead of bytes as this will
-		 * eventually be passed to construct a LruCache which takes an int in
+		 * eventually be passed to construct a PolicyCache which takes an int in
 		 * its constructor.
 		 *
 		 * This value should be chosen carefully based on a number of factors
@@ -553,54 +969,6 @@ public class ImageCache {
 		}
 	}
 
-	/**
-	 * @param candidate
-	 *            - Bitmap to check
-	 * @param targetOptions
-	 *            - Options that have the out* value populated
-	 * @return true if <code>candidate</code> can be used for inBitmap re-use
-	 *         with <code>targetOptions</code>
-	 */
-	@TargetApi(VERSION_CODES.KITKAT)
-	private static boolean canUseForInBitmap(final Bitmap candidate, final BitmapFactory.Options targetOptions) {
-		// BEGIN_INCLUDE(can_use_for_inbitmap)
-		if (!Versions.hasKitKat()) {
-			// On earlier versions, the dimensions must match exactly and the
-			// inSampleSize must be 1
-			return candidate.getWidth() == targetOptions.outWidth && candidate.getHeight() == targetOptions.outHeight
-					&& targetOptions.inSampleSize == 1;
-		}
-
-		// From Android 4.4 (KitKat) onward we can re-use if the byte size of
-		// the new bitmap
-		// is smaller than the reusable bitmap candidate allocation byte count.
-		final int width = targetOptions.outWidth / targetOptions.inSampleSize;
-		final int height = targetOptions.outHeight / targetOptions.inSampleSize;
-		final int byteCount = width * height * getBytesPerPixel(candidate.getConfig());
-		return byteCount <= candidate.getAllocationByteCount();
-		// END_INCLUDE(can_use_for_inbitmap)
-	}
-
-	/**
-	 * Return the byte usage per pixel of a bitmap based on its configuration.
-	 *
-	 * @param config
-	 *            The bitmap configuration.
-	 * @return The byte usage per pixel.
-	 */
-	private static int getBytesPerPixel(final Config config) {
-		if (config == Config.ARGB_8888) {
-			return 4;
-		} else if (config == Config.RGB_565) {
-			return 2;
-		} else if (config == Config.ARGB_4444) {
-			return 2;
-		} else if (config == Config.ALPHA_8) {
-			return 1;
-		}
-		return 1;
-	}
-
 	/**
 	 * Get a usable cache directory (external if available, internal otherwise).
 	 *
@@ -0,0 +1,381 @@
+package android.support.graphics.bitmapfun;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.support.util.PolicyCache;
+import android.util.Log;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * The size, orientation and type of image files, read from the first bytes of
+ * the file instead of a bounds decode and a full EXIF parse.
+ *
+ * <p>
+ * JPEG, PNG, GIF, WebP and BMP headers are parsed directly; other files fall
+ * back to {@link BitmapFactory} and {@link ExifInterface}. Results are kept in
+ * an LRU in memory and, after {@link #setIndexDirectory(File)}, in a
+ * {@link DiskLruCache} index, both checked against the modification time and
+ * length of the file.
+ */
+public final class ImageHeaders {
+	private static final String TAG = "ImageHeaders";
+
+	private static final int MEMORY_CACHE_SIZE = 1024;
+	private static final long INDEX_SIZE = 1024 * 1024;
+	/** Entries are a few dozen bytes, all packed into shared segments. */
+	private static final int INDEX_PACK_THRESHOLD = 256;
+	private static final int INDEX_VERSION = 1;
+	/** The part of an EXIF segment read for the orientation. */
+	private static final int EXIF_READ_LIMIT = 8 * 1024;
+
+	private static final PolicyCache<String, Info> sMemoryCache = new PolicyCache<String, Info>(MEMORY_CACHE_SIZE,
+			PolicyCache.LRU);
+	private static DiskLruCache sIndex;
+
+	/**
+	 * The header of an image file.
+	 */
+	public static final class Info {
+		public final long lastModified;
+		public final long length;
+		public final int width;
+		public final int height;
+		/** The rotation in degrees from the EXIF orientation: 0, 90, 180 or 270. */
+		public final int orientation;
+		public final String mimeType;
+
+		public Info(final long lastModified, final long length, final int width, final int height,
+				final int orientation, final String mimeType) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+			this.orientation = orientation;
+			this.mimeType = mimeType;
+		}
+
+		private boolean isOf(final File file) {
+			return lastModified == file.lastModified() && length == file.length();
+		}
+
+		private String encode() {
+			return lastModified + " " + length + " " + width + " " + height + " " + orientation + " "
+					+ (mimeType != null ? mimeType : "");
+		}
+
+		private static Info decode(final String value) {
+			final String[] fields = value.trim().split(" ");
+			if (fields.length < 5) {
+				return null;
+			}
+			try {
+				return new Info(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+						Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+						fields.length > 5 ? fields[5] : null);
+			} catch (final NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	private ImageHeaders() {
+	}
+
+	/**
+	 * Keeps the headers read in an index in {@code directory}, such as a
+	 * subdirectory of the cache directory, so they survive the process.
+	 * Includes disk access, so it should not be called on the main/UI thread.
+	 */
+	public static synchronized void setIndexDirectory(final File directory) {
+		DiskLruCache.closeQuietly(sIndex);
+		sIndex = null;
+		if (directory != null) {
+			try {
+				sIndex = DiskLruCache.open(directory, INDEX_VERSION, 1, INDEX_SIZE, INDEX_PACK_THRESHOLD);
+			} catch (final IOException e) {
+				Log.e(TAG, "setIndexDirectory - " + e);
+			}
+		}
+	}
+
+	private static synchronized DiskLruCache getIndex() {
+		return sIndex;
+	}
+
+	/**
+	 * @return the header of the image file, or null if it is not an image
+	 */
+	public static Info get(final String path) {
+		final File file = new File(path);
+		Info info = sMemoryCache.get(path);
+		if (info != null && info.isOf(file)) {
+			return info;
+		}
+
+		final DiskLruCache index = getIndex();
+		final String key = index != null ? ImageCache.hashKeyForDisk(path) : null;
+		if (index != null) {
+			DiskLruCache.Snapshot snapshot = null;
+			try {
+				snapshot = index.get(key);
+				if (snapshot != null) {
+					info = Info.decode(snapshot.getString(0));
+					if (info != null && info.isOf(file)) {
+						sMemoryCache.put(path, info);
+						return info;
+					}
+				}
+			} catch (final IOException e) {
+				Log.e(TAG, "get - " + e);
+			} catch (final IllegalStateException e) {
+				// closed meanwhile
+			} finally {
+				if (snapshot != null) {
+					snapshot.close();
+				}
+			}
+		}
+
+		info = read(file);
+		if (info == null) {
+			return null;
+		}
+		sMemoryCache.put(path, info);
+		if (index != null) {
+			try {
+				final DiskLruCache.Editor editor = index.edit(key);
+				if (editor != null) {
+					editor.set(0, info.encode());
+					editor.commit();
+				}
+			} catch (final IOException e) {
+				Log.e(TAG, "get - " + e);
+			} catch (final IllegalStateException e) {
+				// closed meanwhile
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Reads the header of a file without any cache.
+	 *
+	 * @return the header, or null if the file is not an image
+	 */
+	public static Info read(final File file) {
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file), 1024);
+			final Info info = parse(new DataInputStream(in), lastModified, length);
+			if (info != null) {
+				return info;
+			}
+		} catch (final IOException e) {
+			// not a header we know, or truncated
+		} finally {
+			DiskLruCache.closeQuietly(in);
+		}
+
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+		int orientation = 0;
+		if ("image/jpeg".equals(options.outMimeType)) {
+			try {
+				orientation = toDegrees(new ExifInterface(file.getPath()).getAttributeInt(
+						ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+			} catch (final IOException e) {
+			}
+		}
+		return new Info(lastModified, length, options.outWidth, options.outHeight, orientation,
+				options.outMimeType);
+	}
+
+	private static Info parse(final DataInputStream in, final long lastModified, final long length)
+			throws IOException {
+		final byte[] header = new byte[30];
+		in.readFully(header, 0, 2);
+		if ((header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8) {
+			return parseJpeg(in, lastModified, length);
+		}
+		if (header[0] == 'B' && header[1] == 'M') {
+			in.readFully(header, 2, 24);
+			return new Info(lastModified, length, int32Le(header, 18), Math.abs(int32Le(header, 22)), 0,
+					"image/bmp");
+		}
+		in.readFully(header, 2, 10);
+		if ((header[0] & 0xff) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+			// signature, then the IHDR chunk: length, type, width, height
+			in.readFully(header, 12, 12);
+			return new Info(lastModified, length, int32Be(header, 16), int32Be(header, 20), 0, "image/png");
+		}
+		if (header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+			return new Info(lastModified, length, uint16Le(header, 6), uint16Le(header, 8), 0, "image/gif");
+		}
+		if (header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F' && header[8] == 'W'
+				&& header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+			in.readFully(header, 12, 18);
+			if (header[15] == 'X') {
+				// VP8X: flags, then the canvas size minus one in 24 bits
+				return new Info(lastModified, length, uint24Le(header, 24) + 1, uint24Le(header, 27) + 1, 0,
+						"image/webp");
+			} else if (header[15] == 'L') {
+				// VP8L: signature byte, then 14 bits each
+				final int bits = int32Le(header, 21);
+				return new Info(lastModified, length, (bits & 0x3fff) + 1, ((bits >>> 14) & 0x3fff) + 1, 0,
+						"image/webp");
+			} else if (header[15] == ' ') {
+				// VP8: frame tag, start code, then 14 bits each
+				return new Info(lastModified, length, uint16Le(header, 26) & 0x3fff,
+						uint16Le(header, 28) & 0x3fff, 0, "image/webp");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Walks the markers up to the start of frame, reading the orientation
+	 * from the EXIF segment on the way.
+	 */
+	private static Info parseJpeg(final DataInputStream in, final long lastModified, final long length)
+			throws IOException {
+		int orientation = 0;
+		while (true) {
+			if (in.readUnsignedByte() != 0xff) {
+				return null;
+			}
+			int marker = in.readUnsignedByte();
+			while (marker == 0xff) {
+				// fill bytes
+				marker = in.readUnsignedByte();
+			}
+			if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd8) {
+				// no length
+				continue;
+			}
+			if (marker == 0xd9 || marker == 0xda) {
+				// end of image or start of scan before any frame
+				return null;
+			}
+			final int segmentLength = in.readUnsignedShort() - 2;
+			if (segmentLength < 0) {
+				return null;
+			}
+			if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+				// start of frame: precision, height, width
+				in.readUnsignedByte();
+				final int height = in.readUnsignedShort();
+				final int width = in.readUnsignedShort();
+				return new Info(lastModified, length, width, height, orientation, "image/jpeg");
+			}
+			if (marker == 0xe1 && orientation == 0) {
+				final byte[] segment = new byte[Math.min(segmentLength, EXIF_READ_LIMIT)];
+				in.readFully(segment);
+				orientation = parseExifOrientation(segment);
+				skipFully(in, segmentLength - segment.length);
+			} else {
+				skipFully(in, segmentLength);
+			}
+		}
+	}
+
+	/**
+	 * @return the rotation of the orientation tag of the first IFD, or 0
+	 */
+	private static int parseExifOrientation(final byte[] segment) {
+		if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i'
+				|| segment[3] != 'f') {
+			return 0;
+		}
+		final int tiff = 6;
+		final boolean littleEndian = segment[tiff] == 'I';
+		final int ifd = tiff + int32(segment, tiff + 4, littleEndian);
+		if (ifd < tiff || ifd + 2 > segment.length) {
+			return 0;
+		}
+		final int count = uint16(segment, ifd, littleEndian);
+		for (int i = 0; i < count; i++) {
+			final int entry = ifd + 2 + i * 12;
+			if (entry + 12 > segment.length) {
+				break;
+			}
+			if (uint16(segment, entry, littleEndian) == 0x0112) {
+				return toDegrees(uint16(segment, entry + 8, littleEndian));
+			}
+		}
+		return 0;
+	}
+
+	private static int toDegrees(final int orientation) {
+		switch (orientation) {
+		case ExifInterface.ORIENTATION_ROTATE_270:
+			return 270;
+		case ExifInterface.ORIENTATION_ROTATE_180:
+			return 180;
+		case ExifInterface.ORIENTATION_ROTATE_90:
+			return 90;
+		default:
+			return 0;
+		}
+	}
+
+	private static void skipFully(final InputStream in, long count) throws IOException {
+		while (count > 0) {
+			final long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				count--;
+			} else {
+				count -= skipped;
+			}
+		}
+	}
+
+	private static int uint16(final byte[] b, final int offset, final boolean littleEndian) {
+		return littleEndian ? uint16Le(b, offset) : ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+	}
+
+	private static int int32(final byte[] b, final int offset, final boolean littleEndian) {
+		return littleEndian ? int32Le(b, offset) : int32Be(b, offset);
+	}
+
+	private static int uint16Le(final byte[] b, final int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+	}
+
+	private static int uint24Le(final byte[] b, final int offset) {
+		return uint16Le(b, offset) | ((b[offset + 2] & 0xff) << 16);
+	}
+
+	private static int int32Le(final byte[] b, final int offset) {
+		return uint24Le(b, offset) | ((b[offset + 3] & 0xff) << 24);
+	}
+
+	private static int int32Be(final byte[] b, final int offset) {
+		return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8)
+				| (b[offset + 3] & 0xff);
+	}
+}
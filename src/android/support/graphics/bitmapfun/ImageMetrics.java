@@ -0,0 +1,287 @@
+package android.support.graphics.bitmapfun;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Counters and stage latencies of an {@link ImageWorker}, and a
+ * {@link Snapshot} of them together with the state of every cache tier and
+ * the scheduler queues. A {@link Listener} receives each event as it
+ * happens, to pass it on to other telemetry.
+ *
+ * <pre>
+ * final ImageMetrics.Snapshot snapshot = imageWorker.getMetricsSnapshot();
+ * Log.i(TAG, snapshot.toString());
+ * </pre>
+ */
+public class ImageMetrics {
+	public static final int TIER_MEMORY = 0;
+	public static final int TIER_DISK = 1;
+
+	public static final int STAGE_FETCH = 0;
+	public static final int STAGE_DECODE = 1;
+	public static final int STAGE_TRANSFORM = 2;
+	private static final int STAGE_COUNT = 3;
+
+	/**
+	 * Receives the events of the ImageWorkers recording to the metrics. The
+	 * methods are called on the thread of the event, the UI thread for memory
+	 * cache lookups and a pool thread otherwise, so they should return
+	 * quickly.
+	 */
+	public static abstract interface Listener {
+		/**
+		 * @param tier
+		 *            {@link #TIER_MEMORY} or {@link #TIER_DISK}
+		 */
+		public abstract void onLookup(int tier, Object data, boolean hit);
+
+		/**
+		 * @param stage
+		 *            {@link #STAGE_FETCH}, {@link #STAGE_DECODE} or
+		 *            {@link #STAGE_TRANSFORM}
+		 */
+		public abstract void onStage(int stage, Object data, long nanos);
+
+		public abstract void onCancel(Object data);
+	}
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger coalescedCount = new AtomicInteger();
+	private final AtomicInteger cancelCount = new AtomicInteger();
+	private final Histogram[] stageLatencies = new Histogram[STAGE_COUNT];
+	private volatile Listener listener;
+
+	public ImageMetrics() {
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			stageLatencies[i] = new Histogram();
+		}
+	}
+
+	public void setListener(final Listener listener) {
+		this.listener = listener;
+	}
+
+	void recordRequest() {
+		requestCount.incrementAndGet();
+	}
+
+	void recordCoalesced() {
+		coalescedCount.incrementAndGet();
+	}
+
+	void recordLookup(final int tier, final Object data, final boolean hit) {
+		final Listener l = listener;
+		if (l != null) {
+			l.onLookup(tier, data, hit);
+		}
+	}
+
+	void recordStage(final int stage, final Object data, final long nanos) {
+		stageLatencies[stage].record(nanos);
+		final Listener l = listener;
+		if (l != null) {
+			l.onStage(stage, data, nanos);
+		}
+	}
+
+	void recordCancel(final Object data) {
+		cancelCount.incrementAndGet();
+		final Listener l = listener;
+		if (l != null) {
+			l.onCancel(data);
+		}
+	}
+
+	/**
+	 * @return the number of loadImage calls
+	 */
+	public int requestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return the number of loads that joined another load of the same data
+	 */
+	public int coalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * @return the number of tasks cancelled or dropped before they finished
+	 */
+	public int cancelCount() {
+		return cancelCount.get();
+	}
+
+	/**
+	 * @return the live latency histogram of a stage
+	 */
+	public Histogram getStageLatency(final int stage) {
+		return stageLatencies[stage];
+	}
+
+	/**
+	 * @param cache
+	 *            the cache whose tiers to include, or null
+	 * @param scheduler
+	 *            the scheduler whose queues to include, or null
+	 */
+	public Snapshot snapshot(final ImageCache cache, final ImageScheduler scheduler) {
+		final Snapshot snapshot = new Snapshot();
+		snapshot.requests = requestCount.get();
+		snapshot.coalesced = coalescedCount.get();
+		snapshot.cancellations = cancelCount.get();
+		snapshot.fetchLatency = stageLatencies[STAGE_FETCH].copy();
+		snapshot.decodeLatency = stageLatencies[STAGE_DECODE].copy();
+		snapshot.transformLatency = stageLatencies[STAGE_TRANSFORM].copy();
+		if (cache != null) {
+			cache.fillSnapshot(snapshot);
+		}
+		if (scheduler != null) {
+			snapshot.diskQueue = scheduler.getDiskQueueSize();
+			snapshot.cpuQueue = scheduler.getCpuQueueSize();
+			snapshot.transformQueue = scheduler.getTransformQueueSize();
+			snapshot.droppedRequests = scheduler.getDroppedCount();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * The metrics at one point in time. Sizes are in bytes.
+	 */
+	public static class Snapshot {
+		public int requests;
+		public int coalesced;
+		public int cancellations;
+
+		public int memoryHits;
+		public int memoryMisses;
+		public int memoryEvictions;
+		public long memorySize;
+		public long memoryMaxSize;
+
+		public int poolHits;
+		public int poolMisses;
+		public int poolEvictions;
+		public long poolSize;
+		public long poolMaxSize;
+
+		public int diskHits;
+		public int diskMisses;
+		public int diskEvictions;
+		public long diskSize;
+		public long diskMaxSize;
+		public int pendingWrites;
+		public int droppedWrites;
+
+		public int diskQueue;
+		public int cpuQueue;
+		public int transformQueue;
+		public int droppedRequests;
+
+		public Histogram fetchLatency;
+		public Histogram decodeLatency;
+		public Histogram transformLatency;
+
+		@Override
+		public String toString() {
+			return String.format("ImageMetrics[requests=%d,coalesced=%d,cancellations=%d,"
+					+ "memory=%d/%d,memoryHits=%d,memoryMisses=%d,memoryEvictions=%d,"
+					+ "pool=%d/%d,poolHits=%d,poolMisses=%d,poolEvictions=%d,"
+					+ "disk=%d/%d,diskHits=%d,diskMisses=%d,diskEvictions=%d,pendingWrites=%d,droppedWrites=%d,"
+					+ "queues=%d/%d/%d,droppedRequests=%d,fetch=%s,decode=%s,transform=%s]", requests, coalesced,
+					cancellations, memorySize, memoryMaxSize, memoryHits, memoryMisses, memoryEvictions, poolSize,
+					poolMaxSize, poolHits, poolMisses, poolEvictions, diskSize, diskMaxSize, diskHits, diskMisses,
+					diskEvictions, pendingWrites, droppedWrites, diskQueue, cpuQueue, transformQueue,
+					droppedRequests, fetchLatency, decodeLatency, transformLatency);
+		}
+	}
+
+	/**
+	 * Latencies counted in buckets of powers of two microseconds: bucket 0
+	 * holds those under 1us, bucket i those from 2^(i-1) up to 2^i us.
+	 */
+	public static final class Histogram {
+		public static final int BUCKET_COUNT = 32;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		public void record(final long nanos) {
+			final long micros = Math.max(0, nanos / 1000);
+			final int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+			counts.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getBucketCount(final int bucket) {
+			return counts.get(bucket);
+		}
+
+		/**
+		 * @return the mean latency in microseconds
+		 */
+		public long getMeanMicros() {
+			final long n = count.get();
+			return n == 0 ? 0 : totalNanos.get() / n / 1000;
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return the upper bound in microseconds of the bucket holding the
+		 *         percentile
+		 */
+		public long getPercentileMicros(final double percentile) {
+			final long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			final long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += counts.get(i);
+				if (seen >= rank && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKET_COUNT - 1);
+		}
+
+		/**
+		 * @return a copy that no longer changes
+		 */
+		public Histogram copy() {
+			final Histogram copy = new Histogram();
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				copy.counts.set(i, counts.get(i));
+			}
+			copy.count.set(count.get());
+			copy.totalNanos.set(totalNanos.get());
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("{count=%d,mean=%dus,p50=%dus,p95=%dus,p99=%dus}", getCount(), getMeanMicros(),
+					getPercentileMicros(50), getPercentileMicros(95), getPercentileMicros(99));
+		}
+	}
+}
@@ -102,6 +102,20 @@ public class ImageResizer extends ImageWorker {
 		return processBitmap(Integer.parseInt(String.valueOf(data)));
 	}
 
+	/**
+	 * Samples down original bytes to the image size, and processes anything
+	 * else as usual.
+	 */
+	@Override
+	protected Bitmap decode(final Object data, final Object fetched) {
+		if (fetched instanceof byte[]) {
+			final byte[] bytes = (byte[]) fetched;
+			return decodeSampledBitmapFromByteArray(bytes, 0, bytes.length, mImageWidth, mImageHeight,
+					getImageCache());
+		}
+		return super.decode(data, fetched);
+	}
+
 	/**
 	 * Decode and sample down a bitmap from resources to the requested width and
 	 * height.
@@ -164,10 +178,16 @@ public class ImageResizer extends ImageWorker {
 	public static Bitmap decodeSampledBitmapFromFile(final String filename, final int reqWidth, final int reqHeight,
 			final ImageCache cache) {
 
-		// First decode with inJustDecodeBounds=true to check dimensions
+		// First read the dimensions from the header, which falls back to a
+		// decode with inJustDecodeBounds=true
+		final ImageHeaders.Info info = ImageHeaders.get(filename);
+		if (info == null) {
+			return null;
+		}
 		final BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(filename, options);
+		options.outWidth = info.width;
+		options.outHeight = info.height;
+		options.outMimeType = info.mimeType;
 
 		// Calculate inSampleSize
 		options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
@@ -221,6 +241,49 @@ public class ImageResizer extends ImageWorker {
 		return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
 	}
 
+	/**
+	 * Decode and sample down a bitmap from a byte array to the requested width
+	 * and height.
+	 *
+	 * @param data
+	 *            The array holding the encoded image
+	 * @param offset
+	 *            The offset of the image in the array
+	 * @param length
+	 *            The length of the image
+	 * @param reqWidth
+	 *            The requested width of the resulting bitmap
+	 * @param reqHeight
+	 *            The requested height of the resulting bitmap
+	 * @param cache
+	 *            The ImageCache used to find candidate bitmaps for use with
+	 *            inBitmap
+	 * @return A bitmap sampled down from the original with the same aspect
+	 *         ratio and dimensions that are equal to or greater than the
+	 *         requested width and height
+	 */
+	public static Bitmap decodeSampledBitmapFromByteArray(final byte[] data, final int offset, final int length,
+			final int reqWidth, final int reqHeight, final ImageCache cache) {
+
+		// First decode with inJustDecodeBounds=true to check dimensions
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, offset, length, options);
+
+		// Calculate inSampleSize
+		options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+
+		// Decode bitmap with inSampleSize set
+		options.inJustDecodeBounds = false;
+
+		// If we're running on Honeycomb or newer, try to use inBitmap
+		if (Versions.hasHoneycomb()) {
+			addInBitmapOptions(options, cache);
+		}
+
+		return BitmapFactory.decodeByteArray(data, offset, length, options);
+	}
+
 	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	private static void addInBitmapOptions(final BitmapFactory.Options options, final ImageCache cache) {
 		// BEGIN_INCLUDE(add_bitmap_options)
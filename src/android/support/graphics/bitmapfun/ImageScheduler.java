@@ -0,0 +1,380 @@
+package android.support.graphics.bitmapfun;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Runs image work on separate thread pools for fetching, decoding and
+ * transforming, newest request first. After a fast scroll the rows that just
+ * became visible are served before the ones that scrolled away.
+ *
+ * <p>
+ * Requests for visible images always run before prefetch requests. Prefetch
+ * requests wait in a bounded queue; when it is full the oldest one is dropped
+ * and, if it is a {@link Future} such as an {@link AsyncTask}'s, cancelled.
+ */
+public class ImageScheduler {
+	public static final int PRIORITY_VISIBLE = 0;
+	public static final int PRIORITY_PREFETCH = 1;
+
+	public static final int DEFAULT_DISK_THREADS = 2;
+	public static final int DEFAULT_PREFETCH_LIMIT = 32;
+
+	private static final int KEEP_ALIVE = 1;
+
+	private final ThreadPoolExecutor diskPool;
+	private final ThreadPoolExecutor cpuPool;
+	private final ThreadPoolExecutor transformPool;
+	private final Executor[] diskExecutors;
+	private final Executor[] cpuExecutors;
+	private final Executor[] transformExecutors;
+	private final AtomicInteger droppedCount = new AtomicInteger();
+
+	/**
+	 * Creates a scheduler with {@link #DEFAULT_DISK_THREADS} disk threads, a
+	 * decode thread per processor and a transform thread.
+	 */
+	public ImageScheduler() {
+		this(DEFAULT_DISK_THREADS, Runtime.getRuntime().availableProcessors(), 1, DEFAULT_PREFETCH_LIMIT);
+	}
+
+	public ImageScheduler(final int diskThreads, final int cpuThreads, final int prefetchLimit) {
+		this(diskThreads, cpuThreads, 1, prefetchLimit);
+	}
+
+	/**
+	 * @param prefetchLimit
+	 *            the number of prefetch requests each pool keeps waiting
+	 */
+	public ImageScheduler(final int diskThreads, final int cpuThreads, final int transformThreads,
+			final int prefetchLimit) {
+		diskPool = newPool("ImageScheduler disk #", Math.max(1, diskThreads), new LifoQueue(prefetchLimit));
+		cpuPool = newPool("ImageScheduler cpu #", Math.max(1, cpuThreads), new LifoQueue(prefetchLimit));
+		transformPool = newPool("ImageScheduler transform #", Math.max(1, transformThreads),
+				new LifoQueue(prefetchLimit));
+		diskExecutors = newExecutors(diskPool);
+		cpuExecutors = newExecutors(cpuPool);
+		transformExecutors = newExecutors(transformPool);
+	}
+
+	private static ThreadPoolExecutor newPool(final String name, final int threads,
+			final BlockingQueue<Runnable> queue) {
+		final ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(r, name + mCount.getAndIncrement());
+			}
+		};
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS, queue,
+				threadFactory);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static Executor[] newExecutors(final ThreadPoolExecutor pool) {
+		return new Executor[] { new PriorityExecutor(pool, PRIORITY_VISIBLE),
+				new PriorityExecutor(pool, PRIORITY_PREFETCH) };
+	}
+
+	/**
+	 * @param priority
+	 *            {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+	 * @return the executor for disk-bound work of the given priority
+	 */
+	public Executor getDiskExecutor(final int priority) {
+		return diskExecutors[priority == PRIORITY_VISIBLE ? PRIORITY_VISIBLE : PRIORITY_PREFETCH];
+	}
+
+	/**
+	 * @param priority
+	 *            {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+	 * @return the executor for decoding and other CPU-bound work of the given
+	 *         priority
+	 */
+	public Executor getCpuExecutor(final int priority) {
+		return cpuExecutors[priority == PRIORITY_VISIBLE ? PRIORITY_VISIBLE : PRIORITY_PREFETCH];
+	}
+
+	/**
+	 * @param priority
+	 *            {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+	 * @return the executor for transforming decoded bitmaps
+	 */
+	public Executor getTransformExecutor(final int priority) {
+		return transformExecutors[priority == PRIORITY_VISIBLE ? PRIORITY_VISIBLE : PRIORITY_PREFETCH];
+	}
+
+	public int getDiskQueueSize() {
+		return diskPool.getQueue().size();
+	}
+
+	public int getCpuQueueSize() {
+		return cpuPool.getQueue().size();
+	}
+
+	public int getTransformQueueSize() {
+		return transformPool.getQueue().size();
+	}
+
+	/**
+	 * @return the number of prefetch requests dropped because their queue was
+	 *         full
+	 */
+	public int getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Stops the pools after the work already running; waiting work is
+	 * dropped.
+	 */
+	public void shutdown() {
+		for (final ThreadPoolExecutor pool : new ThreadPoolExecutor[] { diskPool, cpuPool, transformPool }) {
+			for (final Runnable runnable : pool.shutdownNow()) {
+				cancel(runnable);
+			}
+		}
+	}
+
+	private static void cancel(final Runnable runnable) {
+		final Runnable task = runnable instanceof Job ? ((Job) runnable).runnable : runnable;
+		if (task instanceof Future) {
+			((Future<?>) task).cancel(false);
+		}
+	}
+
+	private static final class PriorityExecutor implements Executor {
+		private final ThreadPoolExecutor pool;
+		private final int priority;
+
+		private PriorityExecutor(final ThreadPoolExecutor pool, final int priority) {
+			this.pool = pool;
+			this.priority = priority;
+		}
+
+		@Override
+		public void execute(final Runnable runnable) {
+			pool.execute(new Job(runnable, priority));
+		}
+	}
+
+	private static final class Job implements Runnable {
+		private final Runnable runnable;
+		private final int priority;
+
+		private Job(final Runnable runnable, final int priority) {
+			this.runnable = runnable;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			runnable.run();
+		}
+	}
+
+	/**
+	 * The work queue of a pool: a stack of visible jobs in front of a bounded
+	 * stack of prefetch jobs.
+	 */
+	private final class LifoQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+		private final ArrayDeque<Runnable> visible = new ArrayDeque<Runnable>();
+		private final ArrayDeque<Runnable> prefetch = new ArrayDeque<Runnable>();
+		private final int prefetchLimit;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+
+		private LifoQueue(final int prefetchLimit) {
+			this.prefetchLimit = Math.max(1, prefetchLimit);
+		}
+
+		@Override
+		public boolean offer(final Runnable runnable) {
+			if (runnable == null) {
+				throw new NullPointerException();
+			}
+			Runnable dropped = null;
+			lock.lock();
+			try {
+				if (runnable instanceof Job && ((Job) runnable).priority != PRIORITY_VISIBLE) {
+					if (prefetch.size() >= prefetchLimit) {
+						dropped = prefetch.pollFirst();
+					}
+					prefetch.addLast(runnable);
+				} else {
+					visible.addLast(runnable);
+				}
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+			if (dropped != null) {
+				droppedCount.incrementAndGet();
+				cancel(dropped);
+			}
+			return true;
+		}
+
+		@Override
+		public void put(final Runnable runnable) {
+			offer(runnable);
+		}
+
+		@Override
+		public boolean offer(final Runnable runnable, final long timeout, final TimeUnit unit) {
+			return offer(runnable);
+		}
+
+		/**
+		 * Call with the lock held.
+		 */
+		private Runnable dequeue() {
+			final Runnable runnable = visible.pollLast();
+			return runnable != null ? runnable : prefetch.pollLast();
+		}
+
+		@Override
+		public Runnable poll() {
+			lock.lock();
+			try {
+				return dequeue();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable take() throws InterruptedException {
+			lock.lockInterruptibly();
+			try {
+				Runnable runnable;
+				while ((runnable = dequeue()) == null) {
+					notEmpty.await();
+				}
+				return runnable;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+			long nanos = unit.toNanos(timeout);
+			lock.lockInterruptibly();
+			try {
+				Runnable runnable;
+				while ((runnable = dequeue()) == null) {
+					if (nanos <= 0) {
+						return null;
+					}
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				return runnable;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable peek() {
+			lock.lock();
+			try {
+				final Runnable runnable = visible.peekLast();
+				return runnable != null ? runnable : prefetch.peekLast();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean remove(final Object o) {
+			lock.lock();
+			try {
+				return visible.removeLastOccurrence(o) || prefetch.removeLastOccurrence(o);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int size() {
+			lock.lock();
+			try {
+				return visible.size() + prefetch.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int remainingCapacity() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public int drainTo(final Collection<? super Runnable> c) {
+			return drainTo(c, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+			lock.lock();
+			try {
+				int count = 0;
+				Runnable runnable;
+				while (count < maxElements && (runnable = dequeue()) != null) {
+					c.add(runnable);
+					count++;
+				}
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Iterates over a copy, in the order the jobs would run.
+		 */
+		@Override
+		public Iterator<Runnable> iterator() {
+			lock.lock();
+			try {
+				final ArrayList<Runnable> runnables = new ArrayList<Runnable>(visible.size() + prefetch.size());
+				final Iterator<Runnable> v = visible.descendingIterator();
+				while (v.hasNext()) {
+					runnables.add(v.next());
+				}
+				final Iterator<Runnable> p = prefetch.descendingIterator();
+				while (p.hasNext()) {
+					runnables.add(p.next());
+				}
+				return runnables.iterator();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -17,6 +17,11 @@
 package android.support.graphics.bitmapfun;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.content.Context;
 import android.content.res.Resources;
@@ -26,6 +31,8 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.util.Versions;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
@@ -36,7 +43,14 @@ import android.widget.ImageView;
  * This class wraps up completing some arbitrary long running work when loading
  * a bitmap to an ImageView. It handles things like using a memory and disk
  * cache, running the work in a background thread and setting a placeholder
- * image.
+ * image. Concurrent loads of the same data share one background task, which
+ * sets its result on every ImageView still waiting for it.
+ * <p>
+ * The task runs in stages on the pools of an {@link ImageScheduler}:
+ * {@link #fetch(Object)} on a disk thread, {@link #decode(Object, Object)} on
+ * a CPU thread and {@link #transform(Object, Bitmap)} on a transform thread.
+ * The bitmap is set on the ImageView as soon as it is transformed; storing it
+ * in the disk cache is left to the write-behind queue of the {@link ImageCache}.
  */
 public abstract class ImageWorker {
 	private static final String TAG = "ImageWorker";
@@ -50,6 +64,14 @@ public abstract class ImageWorker {
 	protected boolean mPauseWork = false;
 	private final Object mPauseWorkLock = new Object();
 
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+	private static ImageScheduler sDefaultScheduler;
+	private ImageScheduler mScheduler;
+	private ImageMetrics mMetrics = new ImageMetrics();
+
+	/** Tasks in progress by data, only touched on the UI thread. */
+	private final HashMap<String, BitmapWorkerTask> mInFlightTasks = new HashMap<String, BitmapWorkerTask>();
+
 	protected Resources mResources;
 
 	private static final int MESSAGE_CLEAR = 0;
@@ -68,8 +90,7 @@ public abstract class ImageWorker {
 	 * been added using
 	 * {@link ImageWorker#addImageCache(android.support.app.FragmentManager, ImageCache.ImageCacheParams)}
 	 * . If the image is found in the memory cache, it is set immediately,
-	 * otherwise an {@link AsyncTask} will be created to asynchronously load the
-	 * bitmap.
+	 * otherwise a task will be started to asynchronously load the bitmap.
 	 *
 	 * @param data
 	 *            The URL of the image to download.
@@ -77,31 +98,53 @@ public abstract class ImageWorker {
 	 *            The ImageView to bind the downloaded image to.
 	 */
 	public void loadImage(final Object data, final ImageView imageView) {
+		loadImage(data, imageView, ImageScheduler.PRIORITY_VISIBLE);
+	}
+
+	/**
+	 * Load an image like {@link #loadImage(Object, ImageView)}, with the
+	 * given priority. Newer requests of the same priority run first.
+	 *
+	 * @param priority
+	 *            {@link ImageScheduler#PRIORITY_VISIBLE} for an ImageView on
+	 *            screen, {@link ImageScheduler#PRIORITY_PREFETCH} for one that
+	 *            is about to be; prefetch requests may be dropped when too
+	 *            many are waiting
+	 */
+	public void loadImage(final Object data, final ImageView imageView, final int priority) {
 		if (data == null) {
 			return;
 		}
 
 		BitmapDrawable value = null;
 
+		mMetrics.recordRequest();
 		if (mImageCache != null) {
 			value = mImageCache.getBitmapFromMemCache(String.valueOf(data));
+			mMetrics.recordLookup(ImageMetrics.TIER_MEMORY, data, value != null);
 		}
 
 		if (value != null) {
 			// Bitmap found in memory cache
 			imageView.setImageDrawable(value);
-		} else if (cancelPotentialWork(data, imageView)) {
+		} else if (cancelPotentialWork(data, imageView, priority)) {
 			// BEGIN_INCLUDE(execute_background_task)
-			final BitmapWorkerTask task = new BitmapWorkerTask(data, imageView);
+			final String dataString = String.valueOf(data);
+			BitmapWorkerTask task = mInFlightTasks.get(dataString);
+			if (task != null && !task.isCancelled() && task.mPriority <= priority) {
+				// Another view is loading the same data, wait for its result
+				mMetrics.recordCoalesced();
+				task.attach(imageView);
+				imageView.setImageDrawable(new AsyncDrawable(mResources, mLoadingBitmap, task));
+				return;
+			}
+
+			task = new BitmapWorkerTask(data, imageView, priority);
+			mInFlightTasks.put(dataString, task);
 			final AsyncDrawable asyncDrawable = new AsyncDrawable(mResources, mLoadingBitmap, task);
 			imageView.setImageDrawable(asyncDrawable);
 
-			// NOTE: This uses a custom version of AsyncTask that has been
-			// pulled from the
-			// framework and slightly modified. Refer to the docs at the top of
-			// the class
-			// for more info on what was changed.
-			task.executeOnExecutor(AsyncTask.DUAL_THREAD_EXECUTOR);
+			task.start();
 			// END_INCLUDE(execute_background_task)
 		}
 	}
@@ -156,6 +199,52 @@ public abstract class ImageWorker {
 		new CacheAsyncTask().execute(MESSAGE_INIT_DISK_CACHE);
 	}
 
+	/**
+	 * Sets the scheduler to run the loads of this ImageWorker on, instead of
+	 * the one shared by all ImageWorkers.
+	 */
+	public void setImageScheduler(final ImageScheduler scheduler) {
+		mScheduler = scheduler;
+	}
+
+	/**
+	 * @return the scheduler the loads run on
+	 */
+	public ImageScheduler getImageScheduler() {
+		if (mScheduler == null) {
+			synchronized (ImageWorker.class) {
+				if (sDefaultScheduler == null) {
+					sDefaultScheduler = new ImageScheduler();
+				}
+				mScheduler = sDefaultScheduler;
+			}
+		}
+		return mScheduler;
+	}
+
+	/**
+	 * Sets the metrics to record to, for example to share them between
+	 * ImageWorkers.
+	 */
+	public void setMetrics(final ImageMetrics metrics) {
+		mMetrics = metrics;
+	}
+
+	/**
+	 * @return the metrics this ImageWorker records to, to set a listener on
+	 */
+	public ImageMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * @return the metrics of this ImageWorker with those of its cache tiers
+	 *         and scheduler queues
+	 */
+	public ImageMetrics.Snapshot getMetricsSnapshot() {
+		return mMetrics.snapshot(mImageCache, getImageScheduler());
+	}
+
 	/**
 	 * If set to true, the image will fade-in once it has been loaded by the
 	 * background thread.
@@ -182,6 +271,56 @@ public abstract class ImageWorker {
 	 */
 	protected abstract Bitmap processBitmap(Object data);
 
+	/**
+	 * Fetches what {@link #decode(Object, Object)} needs on a disk thread,
+	 * after the disk cache missed. For example, download the image here so
+	 * the download does not hold up a decode thread. If the disk cache stores
+	 * originals, return the downloaded bytes as a byte[] to have them cached
+	 * as they are. Returns the data itself by default.
+	 *
+	 * @param data
+	 *            The data to identify which image to process
+	 * @return The input of {@link #decode(Object, Object)}
+	 */
+	protected Object fetch(final Object data) {
+		return data;
+	}
+
+	/**
+	 * Decodes the bitmap on a CPU thread. By default, decodes a byte[] and
+	 * calls {@link #processBitmap(Object)} for anything else.
+	 *
+	 * @param data
+	 *            The data to identify which image to process
+	 * @param fetched
+	 *            The result of {@link #fetch(Object)}, or the original bytes
+	 *            from the disk cache
+	 * @return The decoded bitmap, or null
+	 */
+	protected Bitmap decode(final Object data, final Object fetched) {
+		if (fetched instanceof byte[]) {
+			final byte[] bytes = (byte[]) fetched;
+			return ImageResizer.decodeSampledBitmapFromByteArray(bytes, 0, bytes.length, Integer.MAX_VALUE,
+					Integer.MAX_VALUE, getImageCache());
+		}
+		return processBitmap(data);
+	}
+
+	/**
+	 * Transforms the decoded bitmap on a transform thread, for example to
+	 * round its corners. The result is what gets cached. Returns the bitmap
+	 * itself by default.
+	 *
+	 * @param data
+	 *            The data to identify which image to process
+	 * @param bitmap
+	 *            The decoded bitmap
+	 * @return The final bitmap
+	 */
+	protected Bitmap transform(final Object data, final Bitmap bitmap) {
+		return bitmap;
+	}
+
 	/**
 	 * @return The {@link ImageCache} object currently being used by this
 	 *         ImageWorker.
@@ -191,14 +330,15 @@ public abstract class ImageWorker {
 	}
 
 	/**
-	 * Cancels any pending work attached to the provided ImageView.
+	 * Cancels any pending work attached to the provided ImageView. Work shared
+	 * with other ImageViews goes on for them.
 	 *
 	 * @param imageView
 	 */
 	public static void cancelWork(final ImageView imageView) {
 		final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
 		if (bitmapWorkerTask != null) {
-			bitmapWorkerTask.cancel(true);
+			bitmapWorkerTask.detach(imageView);
 			// if (BuildConfig.DEBUG) {
 				final Object bitmapData = bitmapWorkerTask.mData;
 				Log.d(TAG, "cancelWork - cancelled work for " + bitmapData);
@@ -212,13 +352,23 @@ public abstract class ImageWorker {
 	 * progress deals with the same data. The work is not stopped in that case.
 	 */
 	public static boolean cancelPotentialWork(final Object data, final ImageView imageView) {
+		return cancelPotentialWork(data, imageView, ImageScheduler.PRIORITY_PREFETCH);
+	}
+
+	/**
+	 * Like {@link #cancelPotentialWork(Object, ImageView)}, but also cancels
+	 * work on the same data that was cancelled already or requested with a
+	 * lower priority.
+	 */
+	private static boolean cancelPotentialWork(final Object data, final ImageView imageView, final int priority) {
 		// BEGIN_INCLUDE(cancel_potential_work)
 		final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
 
 		if (bitmapWorkerTask != null) {
 			final Object bitmapData = bitmapWorkerTask.mData;
-			if (bitmapData == null || !bitmapData.equals(data)) {
-				bitmapWorkerTask.cancel(true);
+			if (bitmapData == null || !bitmapData.equals(data) || bitmapWorkerTask.isCancelled()
+					|| bitmapWorkerTask.mPriority > priority) {
+				bitmapWorkerTask.detach(imageView);
 				// if (BuildConfig.DEBUG) {
 					Log.d(TAG, "cancelPotentialWork - cancelled work for " + data);
 				// }
@@ -249,34 +399,133 @@ public abstract class ImageWorker {
 	}
 
 	/**
-	 * The actual AsyncTask that will asynchronously process the image.
+	 * The task that loads the image for all the ImageViews attached to it, in
+	 * stages: fetch on a disk thread, decode on a CPU thread and transform on a
+	 * transform thread. The result is set on the UI thread right away, while
+	 * writing it to the disk cache goes on in the background.
 	 */
-	private class BitmapWorkerTask extends AsyncTask<Void, Void, BitmapDrawable> {
+	private class BitmapWorkerTask {
 		private final Object mData;
-		private final WeakReference<ImageView> imageViewReference;
+		private final int mPriority;
+		private final ArrayList<WeakReference<ImageView>> imageViewReferences;
+		private volatile boolean mCancelled;
+		private volatile Stage mStage;
 
-		public BitmapWorkerTask(final Object data, final ImageView imageView) {
+		public BitmapWorkerTask(final Object data, final ImageView imageView, final int priority) {
 			mData = data;
-			imageViewReference = new WeakReference<ImageView>(imageView);
+			mPriority = priority;
+			imageViewReferences = new ArrayList<WeakReference<ImageView>>(1);
+			imageViewReferences.add(new WeakReference<ImageView>(imageView));
+		}
+
+		public void start() {
+			submit(getImageScheduler().getDiskExecutor(mPriority), new Runnable() {
+				@Override
+				public void run() {
+					fetchStage();
+				}
+			}, true);
+		}
+
+		public boolean isCancelled() {
+			return mCancelled;
 		}
 
 		/**
-		 * Background processing.
+		 * Cancels the stage waiting or running; a running stage finishes but
+		 * does not start the next one.
 		 */
-		@Override
-		protected BitmapDrawable doInBackground(final Void... params) {
+		public void cancel() {
+			markCancelled();
+			final Stage stage = mStage;
+			if (stage != null) {
+				stage.cancel(false);
+			}
+			synchronized (mPauseWorkLock) {
+				mPauseWorkLock.notifyAll();
+			}
+		}
+
+		/**
+		 * Adds an ImageView to set the result on.
+		 */
+		public void attach(final ImageView imageView) {
+			synchronized (imageViewReferences) {
+				imageViewReferences.add(new WeakReference<ImageView>(imageView));
+			}
+		}
+
+		/**
+		 * Removes an ImageView, and cancels the task if no other one is
+		 * waiting for it.
+		 */
+		public void detach(final ImageView imageView) {
+			boolean isWaited = false;
+			synchronized (imageViewReferences) {
+				for (int i = imageViewReferences.size() - 1; i >= 0; i--) {
+					final ImageView waiting = imageViewReferences.get(i).get();
+					if (waiting == null || waiting == imageView) {
+						imageViewReferences.remove(i);
+					} else if (this == getBitmapWorkerTask(waiting)) {
+						isWaited = true;
+					}
+				}
+			}
+			if (!isWaited) {
+				cancel();
+				removeInFlight();
+			}
+		}
+
+		private void removeInFlight() {
+			final String dataString = String.valueOf(mData);
+			if (this == mInFlightTasks.get(dataString)) {
+				mInFlightTasks.remove(dataString);
+			}
+		}
+
+		/**
+		 * Runs the next stage on {@code executor}. Unless {@code ifCancelled}
+		 * is set, the task ends instead if it was cancelled.
+		 */
+		private void submit(final Executor executor, final Runnable runnable, final boolean ifCancelled) {
+			if (mCancelled && !ifCancelled) {
+				postResult(null);
+				return;
+			}
+			final Stage stage = new Stage(runnable);
+			mStage = stage;
+			try {
+				executor.execute(stage);
+			} catch (final RejectedExecutionException e) {
+				stage.cancel(false);
+			}
+		}
+
+		private void markCancelled() {
+			if (!mCancelled) {
+				mCancelled = true;
+				mMetrics.recordCancel(mData);
+			}
+		}
+
+		private boolean isWanted() {
+			return !mCancelled && !mExitTasksEarly && !getAttachedImageViews().isEmpty();
+		}
+
+		/**
+		 * Looks the bitmap up in the disk cache, else fetches the data to
+		 * decode.
+		 */
+		private void fetchStage() {
 			// BEGIN_INCLUDE(load_bitmap_in_background)
 			// if (BuildConfig.DEBUG) {
-				Log.d(TAG, "doInBackground - starting work");
+				Log.d(TAG, "fetchStage - starting work");
 			// }
 
-			final String dataString = String.valueOf(mData);
-			Bitmap bitmap = null;
-			BitmapDrawable drawable = null;
-
 			// Wait here if work is paused and the task is not cancelled
 			synchronized (mPauseWorkLock) {
-				while (mPauseWork && !isCancelled()) {
+				while (mPauseWork && !mCancelled) {
 					try {
 						mPauseWorkLock.wait();
 					} catch (final InterruptedException e) {
@@ -284,104 +533,204 @@ public abstract class ImageWorker {
 				}
 			}
 
-			// If the image cache is available and this task has not been
-			// cancelled by another
-			// thread and the ImageView that was originally bound to this task
-			// is still bound back
-			// to this task and our "exit early" flag is not set then try and
-			// fetch the bitmap from
-			// the cache
-			if (mImageCache != null && !isCancelled() && getAttachedImageView() != null && !mExitTasksEarly) {
-				bitmap = mImageCache.getBitmapFromDiskCache(dataString);
+			// Nothing to do if the task was cancelled, no ImageView is still
+			// bound to it or our "exit early" flag is set
+			if (!isWanted()) {
+				postResult(null);
+				return;
 			}
 
-			// If the bitmap was not found in the cache and this task has not
-			// been cancelled by
-			// another thread and the ImageView that was originally bound to
-			// this task is still
-			// bound back to this task and our "exit early" flag is not set,
-			// then call the main
-			// process method (as implemented by a subclass)
-			if (bitmap == null && !isCancelled() && getAttachedImageView() != null && !mExitTasksEarly) {
-				bitmap = processBitmap(mData);
+			final long start = System.nanoTime();
+			final ImageCache imageCache = mImageCache;
+			final String dataString = String.valueOf(mData);
+			if (imageCache != null) {
+				// Only read here, the decode runs on the cpu executor
+				final byte[] bytes = imageCache.getBytesFromDiskCache(dataString);
+				mMetrics.recordLookup(ImageMetrics.TIER_DISK, mData, bytes != null);
+				if (bytes != null) {
+					mMetrics.recordStage(ImageMetrics.STAGE_FETCH, mData, System.nanoTime() - start);
+					if (imageCache.isDiskCacheOriginals()) {
+						submitDecode(bytes, false);
+					} else {
+						submitDecodeTransformed(imageCache, bytes);
+					}
+					return;
+				}
+			}
+
+			final Object fetched = fetch(mData);
+			mMetrics.recordStage(ImageMetrics.STAGE_FETCH, mData, System.nanoTime() - start);
+			boolean writeToDisk = true;
+			if (imageCache != null && imageCache.isDiskCacheOriginals() && fetched instanceof byte[]) {
+				// Store what was downloaded instead of encoding the bitmap
+				imageCache.addBytesToDiskCacheAsync(dataString, (byte[]) fetched);
+				writeToDisk = false;
 			}
+			submitDecode(fetched, writeToDisk);
+			// END_INCLUDE(load_bitmap_in_background)
+		}
+
+		private void submitDecode(final Object fetched, final boolean writeToDisk) {
+			submit(getImageScheduler().getCpuExecutor(mPriority), new Runnable() {
+				@Override
+				public void run() {
+					decodeStage(fetched, writeToDisk);
+				}
+			}, false);
+		}
 
-			// If the bitmap was processed and the image cache is available,
-			// then add the processed
-			// bitmap to the cache for future use. Note we don't check if the
-			// task was cancelled
-			// here, if it was, and the thread is still running, we may as well
-			// add the processed
-			// bitmap to our cache as it might be used again in the future
-			if (bitmap != null) {
-				if (Versions.hasHoneycomb()) {
-					// Running on Honeycomb or newer, so wrap in a standard
-					// BitmapDrawable
-					drawable = new BitmapDrawable(mResources, bitmap);
-				} else {
-					// Running on Gingerbread or older, so wrap in a
-					// RecyclingBitmapDrawable
-					// which will recycle automagically
-					drawable = new RecyclingBitmapDrawable(mResources, bitmap);
+		/**
+		 * Decodes a bitmap that was stored after the transform, so it is
+		 * delivered as it is.
+		 */
+		private void submitDecodeTransformed(final ImageCache imageCache, final byte[] bytes) {
+			submit(getImageScheduler().getCpuExecutor(mPriority), new Runnable() {
+				@Override
+				public void run() {
+					if (!isWanted()) {
+						postResult(null);
+						return;
+					}
+					final long start = System.nanoTime();
+					// Don't sample, so give MAX_VALUE as the target dimensions
+					final Bitmap bitmap = ImageResizer.decodeSampledBitmapFromByteArray(bytes, 0, bytes.length,
+							Integer.MAX_VALUE, Integer.MAX_VALUE, imageCache);
+					mMetrics.recordStage(ImageMetrics.STAGE_DECODE, mData, System.nanoTime() - start);
+					deliver(bitmap, false);
+				}
+			}, false);
+		}
+
+		private void decodeStage(final Object fetched, final boolean writeToDisk) {
+			if (!isWanted()) {
+				postResult(null);
+				return;
+			}
+			final long start = System.nanoTime();
+			final Bitmap bitmap = decode(mData, fetched);
+			mMetrics.recordStage(ImageMetrics.STAGE_DECODE, mData, System.nanoTime() - start);
+			if (bitmap == null) {
+				postResult(null);
+				return;
+			}
+			// Note we don't check if the task was cancelled from here on, if
+			// it was we may as well add the bitmap to our cache as it might
+			// be used again in the future
+			submit(getImageScheduler().getTransformExecutor(mPriority), new Runnable() {
+				@Override
+				public void run() {
+					final long start = System.nanoTime();
+					final Bitmap transformed = transform(mData, bitmap);
+					mMetrics.recordStage(ImageMetrics.STAGE_TRANSFORM, mData, System.nanoTime() - start);
+					deliver(transformed, writeToDisk);
 				}
+			}, true);
+		}
 
-				if (mImageCache != null) {
-					mImageCache.addBitmapToCache(dataString, drawable);
+		/**
+		 * Adds the bitmap to the memory cache, posts it to the ImageViews and
+		 * queues the disk cache write, if wanted.
+		 */
+		private void deliver(final Bitmap bitmap, final boolean writeToDisk) {
+			if (bitmap == null) {
+				postResult(null);
+				return;
+			}
+			final BitmapDrawable drawable;
+			if (Versions.hasHoneycomb()) {
+				// Running on Honeycomb or newer, so wrap in a standard
+				// BitmapDrawable
+				drawable = new BitmapDrawable(mResources, bitmap);
+			} else {
+				// Running on Gingerbread or older, so wrap in a
+				// RecyclingBitmapDrawable
+				// which will recycle automagically
+				drawable = new RecyclingBitmapDrawable(mResources, bitmap);
+			}
+
+			final ImageCache imageCache = mImageCache;
+			final String dataString = String.valueOf(mData);
+			if (imageCache != null) {
+				// Queued first, so the memory cache does not hand the bitmap
+				// for reuse while it waits to be written
+				if (writeToDisk) {
+					imageCache.addBitmapToDiskCacheAsync(dataString, bitmap);
 				}
+				imageCache.addBitmapToMemCache(dataString, drawable);
 			}
+			postResult(drawable);
 
 			// if (BuildConfig.DEBUG) {
-				Log.d(TAG, "doInBackground - finished work");
+				Log.d(TAG, "deliver - finished work");
 			// }
+		}
 
-			return drawable;
-			// END_INCLUDE(load_bitmap_in_background)
+		private void postResult(final BitmapDrawable value) {
+			sMainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onPostExecute(value);
+				}
+			});
 		}
 
 		/**
 		 * Once the image is processed, associates it to the imageView
 		 */
-		@Override
-		protected void onPostExecute(BitmapDrawable value) {
+		private void onPostExecute(BitmapDrawable value) {
 			// BEGIN_INCLUDE(complete_background_work)
+			removeInFlight();
+
 			// if cancel was called on this task or the "exit early" flag is set
 			// then we're done
-			if (isCancelled() || mExitTasksEarly) {
+			if (mCancelled || mExitTasksEarly) {
 				value = null;
 			}
 
-			final ImageView imageView = getAttachedImageView();
-			if (value != null && imageView != null) {
-				// if (BuildConfig.DEBUG) {
-					Log.d(TAG, "onPostExecute - setting bitmap");
-				// }
-				setImageDrawable(imageView, value);
+			if (value != null) {
+				for (final ImageView imageView : getAttachedImageViews()) {
+					// if (BuildConfig.DEBUG) {
+						Log.d(TAG, "onPostExecute - setting bitmap");
+					// }
+					setImageDrawable(imageView, value);
+				}
 			}
 			// END_INCLUDE(complete_background_work)
 		}
 
-		@Override
-		protected void onCancelled(final BitmapDrawable value) {
-			super.onCancelled(value);
-			synchronized (mPauseWorkLock) {
-				mPauseWorkLock.notifyAll();
+		/**
+		 * Returns the ImageViews associated with this task whose task still
+		 * points to this task as well.
+		 */
+		private ArrayList<ImageView> getAttachedImageViews() {
+			final ArrayList<ImageView> imageViews = new ArrayList<ImageView>(1);
+			synchronized (imageViewReferences) {
+				for (final WeakReference<ImageView> imageViewReference : imageViewReferences) {
+					final ImageView imageView = imageViewReference.get();
+					if (this == getBitmapWorkerTask(imageView)) {
+						imageViews.add(imageView);
+					}
+				}
 			}
+			return imageViews;
 		}
 
 		/**
-		 * Returns the ImageView associated with this task as long as the
-		 * ImageView's task still points to this task as well. Returns null
-		 * otherwise.
+		 * A stage on its pool. One that is cancelled, or dropped by the
+		 * scheduler, before it runs ends the task.
 		 */
-		private ImageView getAttachedImageView() {
-			final ImageView imageView = imageViewReference.get();
-			final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
-
-			if (this == bitmapWorkerTask) {
-				return imageView;
+		private final class Stage extends FutureTask<Void> {
+			public Stage(final Runnable runnable) {
+				super(runnable, null);
 			}
 
-			return null;
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					markCancelled();
+					postResult(null);
+				}
+			}
 		}
 	}
 
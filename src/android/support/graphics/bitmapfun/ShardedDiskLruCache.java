@@ -0,0 +1,339 @@
+package android.support.graphics.bitmapfun;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * A {@link DiskLruCache} split into independent shards by the hash of the key,
+ * each with its own directory, journal, lock and a share of the maximum size.
+ * Writers to different shards never wait for each other, and readers do not
+ * take a lock at all. Snapshots and editors are those of the shard holding the
+ * key.
+ *
+ * <p>
+ * Shards live in subdirectories named after the shard count. When the cache is
+ * opened, the shards of another count are deleted, and the entries of an
+ * unsharded cache left in the directory, such as one written by an earlier
+ * version, are moved into the shards. Other files are left alone.
+ */
+public final class ShardedDiskLruCache implements Closeable {
+	public static final int DEFAULT_SHARD_COUNT = 4;
+
+	private static final String SHARD_PREFIX = "shard";
+
+	private final File directory;
+	private final DiskLruCache[] shards;
+
+	private ShardedDiskLruCache(final File directory, final DiskLruCache[] shards) {
+		this.directory = directory;
+		this.shards = shards;
+	}
+
+	/**
+	 * Opens the cache in {@code directory}, creating a cache if none exists
+	 * there.
+	 *
+	 * @param shardCount
+	 *            the number of independent shards, each limited to
+	 *            {@code maxSize / shardCount} bytes
+	 * @see DiskLruCache#open(File, int, int, long)
+	 */
+	public static ShardedDiskLruCache open(final File directory, final int appVersion, final int valueCount,
+			final long maxSize, final int shardCount) throws IOException {
+		return open(directory, appVersion, valueCount, maxSize, shardCount, 0);
+	}
+
+	/**
+	 * Opens the cache in {@code directory}, creating a cache if none exists
+	 * there.
+	 *
+	 * @param packThreshold
+	 *            values of up to this many bytes are packed into shared
+	 *            segment files; 0 for a file per value
+	 * @see DiskLruCache#open(File, int, int, long, int)
+	 */
+	public static ShardedDiskLruCache open(final File directory, final int appVersion, final int valueCount,
+			final long maxSize, final int shardCount, final int packThreshold) throws IOException {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("shardCount <= 0");
+		}
+		if (maxSize < shardCount) {
+			throw new IllegalArgumentException("maxSize < shardCount");
+		}
+
+		directory.mkdirs();
+		final String prefix = SHARD_PREFIX + shardCount + "-";
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				final String name = file.getName();
+				// shards of another count
+				if (file.isDirectory() && name.matches(SHARD_PREFIX + "\\d+-\\d+")
+						&& !name.startsWith(prefix)) {
+					DiskLruCache.deleteContents(file);
+					file.delete();
+				}
+			}
+		}
+
+		final DiskLruCache[] shards = new DiskLruCache[shardCount];
+		final ShardedDiskLruCache cache = new ShardedDiskLruCache(directory, shards);
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				shards[i] = DiskLruCache.open(new File(directory, prefix + i), appVersion, valueCount,
+						maxSize / shardCount, packThreshold);
+			}
+			cache.migrate(appVersion, valueCount, maxSize, packThreshold);
+		} catch (final IOException e) {
+			for (final DiskLruCache shard : shards) {
+				DiskLruCache.closeQuietly(shard);
+			}
+			throw e;
+		}
+		return cache;
+	}
+
+	/**
+	 * Moves the entries of an unsharded cache in the directory into the shards,
+	 * least recently used first, then deletes its files. Entries that cannot be
+	 * copied are dropped, and so is a cache whose journal is corrupt.
+	 */
+	private void migrate(final int appVersion, final int valueCount, final long maxSize, final int packThreshold)
+			throws IOException {
+		final DiskLruCache unsharded = DiskLruCache.openExisting(directory, appVersion, valueCount, maxSize,
+				packThreshold);
+		if (unsharded == null) {
+			DiskLruCache.deleteJournalFiles(directory);
+			return;
+		}
+		try {
+			for (final String key : unsharded.keys()) {
+				final DiskLruCache.Snapshot snapshot = unsharded.get(key);
+				if (snapshot == null) {
+					continue;
+				}
+				try {
+					copy(snapshot, key, valueCount);
+				} catch (final IOException e) {
+					e.printStackTrace();
+				} finally {
+					snapshot.close();
+				}
+			}
+		} finally {
+			unsharded.deleteFiles();
+		}
+	}
+
+	private void copy(final DiskLruCache.Snapshot snapshot, final String key, final int valueCount)
+			throws IOException {
+		final DiskLruCache.Editor editor = edit(key);
+		if (editor == null) {
+			return;
+		}
+		boolean isCommitted = false;
+		try {
+			final byte[] buffer = new byte[8192];
+			for (int i = 0; i < valueCount; i++) {
+				final InputStream in = snapshot.getInputStream(i);
+				final OutputStream out = editor.newOutputStream(i);
+				try {
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						out.write(buffer, 0, count);
+					}
+				} finally {
+					DiskLruCache.closeQuietly(out);
+				}
+			}
+			editor.commit();
+			isCommitted = true;
+		} finally {
+			if (!isCommitted) {
+				editor.abort();
+			}
+		}
+	}
+
+	private DiskLruCache shardFor(final String key) {
+		return shards[shardIndex(key)];
+	}
+
+	private int shardIndex(final String key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return (hash & Integer.MAX_VALUE) % shards.length;
+	}
+
+	/**
+	 * @see DiskLruCache#get(String)
+	 */
+	public DiskLruCache.Snapshot get(final String key) throws IOException {
+		return shardFor(key).get(key);
+	}
+
+	/**
+	 * @see DiskLruCache#edit(String)
+	 */
+	public DiskLruCache.Editor edit(final String key) throws IOException {
+		return shardFor(key).edit(key);
+	}
+
+	/**
+	 * Opens editors for several keys with a journal flush per shard.
+	 *
+	 * @see DiskLruCache#edit(String[])
+	 */
+	public DiskLruCache.Editor[] edit(final String[] keys) throws IOException {
+		final DiskLruCache.Editor[] editors = new DiskLruCache.Editor[keys.length];
+		final int[] shardOf = new int[keys.length];
+		final int[] counts = new int[shards.length];
+		for (int i = 0; i < keys.length; i++) {
+			shardOf[i] = shardIndex(keys[i]);
+			counts[shardOf[i]]++;
+		}
+		try {
+			for (int s = 0; s < shards.length; s++) {
+				if (counts[s] == 0) {
+					continue;
+				}
+				final String[] shardKeys = new String[counts[s]];
+				for (int i = 0, k = 0; i < keys.length; i++) {
+					if (shardOf[i] == s) {
+						shardKeys[k++] = keys[i];
+					}
+				}
+				final DiskLruCache.Editor[] shardEditors = shards[s].edit(shardKeys);
+				for (int i = 0, k = 0; i < keys.length; i++) {
+					if (shardOf[i] == s) {
+						editors[i] = shardEditors[k++];
+					}
+				}
+			}
+		} catch (final IOException e) {
+			for (final DiskLruCache.Editor editor : editors) {
+				if (editor != null) {
+					try {
+						editor.abort();
+					} catch (final IOException ignored) {
+					}
+				}
+			}
+			throw e;
+		}
+		return editors;
+	}
+
+	/**
+	 * @see DiskLruCache#remove(String)
+	 */
+	public boolean remove(final String key) throws IOException {
+		return shardFor(key).remove(key);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the maximum number of bytes of all shards together.
+	 */
+	public long maxSize() {
+		long maxSize = 0;
+		for (final DiskLruCache shard : shards) {
+			maxSize += shard.maxSize();
+		}
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of bytes stored in all shards together.
+	 */
+	public long size() {
+		long size = 0;
+		for (final DiskLruCache shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	public int hitCount() {
+		int count = 0;
+		for (final DiskLruCache shard : shards) {
+			count += shard.hitCount();
+		}
+		return count;
+	}
+
+	public int missCount() {
+		int count = 0;
+		for (final DiskLruCache shard : shards) {
+			count += shard.missCount();
+		}
+		return count;
+	}
+
+	public int evictionCount() {
+		int count = 0;
+		for (final DiskLruCache shard : shards) {
+			count += shard.evictionCount();
+		}
+		return count;
+	}
+
+	public boolean isClosed() {
+		for (final DiskLruCache shard : shards) {
+			if (shard.isClosed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void flush() throws IOException {
+		for (final DiskLruCache shard : shards) {
+			shard.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException exception = null;
+		for (final DiskLruCache shard : shards) {
+			try {
+				shard.close();
+			} catch (final IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Closes the cache and deletes all of its stored values.
+	 *
+	 * @see DiskLruCache#delete()
+	 */
+	public void delete() throws IOException {
+		close();
+		DiskLruCache.deleteContents(directory);
+	}
+}
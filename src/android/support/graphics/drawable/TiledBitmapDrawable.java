@@ -0,0 +1,326 @@
+package android.support.graphics.drawable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.graphics.bitmapfun.ImageScheduler;
+import android.support.util.PolicyCache;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Draws an image of any resolution from tiles decoded with a
+ * {@link BitmapRegionDecoder}, so memory stays bounded by the tile cache
+ * instead of growing with the image.
+ *
+ * <p>
+ * The tiles form a pyramid of sample levels, powers of two. At the scale given
+ * by {@link #setScale(float)}, only the tiles of the matching level that are
+ * inside the clip of the canvas are drawn; missing ones are decoded in the
+ * background, newest first, and drawn from a cached coarser level or from a
+ * low resolution copy of the whole image meanwhile. Tiles are kept in an LRU
+ * cache keyed by level and position.
+ *
+ * <p>
+ * The drawable works in image pixels: its intrinsic size is that of the image,
+ * as an {@link android.widget.ImageView} with
+ * {@link android.widget.ImageView.ScaleType#MATRIX} draws it.
+ *
+ * <p>
+ * {@link BitmapRegionDecoder} needs Gingerbread MR1 (API 10).
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class TiledBitmapDrawable extends Drawable {
+	/** The width and height of a tile in bitmap pixels, at any level. */
+	public static final int TILE_SIZE = 256;
+	/** The largest side of the copy of the whole image. */
+	private static final int BASE_SIZE = 1024;
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+	private static ImageScheduler sScheduler;
+
+	private final BitmapRegionDecoder decoder;
+	private final int width;
+	private final int height;
+	private final Bitmap base;
+	private final int baseSample;
+	private final PolicyCache<Long, Bitmap> tiles;
+	/** Tiles queued or being decoded. */
+	private final HashSet<Long> pending = new HashSet<Long>();
+	/** Tiles of the last frame, others are not worth decoding any more. */
+	private volatile HashSet<Long> wanted = new HashSet<Long>();
+	private volatile boolean recycled;
+	private float scale = 1f;
+
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Rect clip = new Rect();
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	private final Runnable invalidateRunnable = new Runnable() {
+		@Override
+		public void run() {
+			invalidateSelf();
+		}
+	};
+
+	/**
+	 * Opens the image with a tile cache of an eighth of the maximum memory.
+	 */
+	public static TiledBitmapDrawable open(final String path) throws IOException {
+		return open(path, (int) (Runtime.getRuntime().maxMemory() / 1024 / 8));
+	}
+
+	/**
+	 * @param cacheSize
+	 *            the maximum size of the cached tiles, in kilobytes
+	 * @throws IOException
+	 *             if the image cannot be decoded by region, such as a GIF
+	 */
+	public static TiledBitmapDrawable open(final String path, final int cacheSize) throws IOException {
+		final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+		if (decoder == null) {
+			throw new IOException("Cannot decode " + path);
+		}
+		return new TiledBitmapDrawable(decoder, cacheSize);
+	}
+
+	public TiledBitmapDrawable(final BitmapRegionDecoder decoder, final int cacheSize) {
+		this.decoder = decoder;
+		width = decoder.getWidth();
+		height = decoder.getHeight();
+
+		int sample = 1;
+		while (Math.max(width, height) / sample > BASE_SIZE) {
+			sample *= 2;
+		}
+		baseSample = sample;
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = baseSample;
+		base = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+
+		tiles = new PolicyCache<Long, Bitmap>(Math.max(1, cacheSize), PolicyCache.LRU) {
+			@Override
+			protected int sizeOf(final Long key, final Bitmap value) {
+				return Math.max(1, value.getRowBytes() * value.getHeight() / 1024);
+			}
+		};
+	}
+
+	/**
+	 * Sets the scale the drawable is drawn at, in screen pixels per image
+	 * pixel, which decides the level of the tiles.
+	 */
+	public void setScale(final float scale) {
+		if (scale > 0 && scale != this.scale) {
+			this.scale = scale;
+			invalidateSelf();
+		}
+	}
+
+	/**
+	 * @return the sample level of the tiles drawn at the current scale
+	 */
+	public int getSample() {
+		int sample = 1;
+		while (sample * 2 * scale <= 1 && sample < baseSample) {
+			sample *= 2;
+		}
+		return sample;
+	}
+
+	@Override
+	public void draw(final Canvas canvas) {
+		if (recycled || !canvas.getClipBounds(clip) || !clip.intersect(0, 0, width, height)) {
+			return;
+		}
+		// the whole image, under the tiles and while they load
+		if (base != null) {
+			src.set(0, 0, base.getWidth(), base.getHeight());
+			dst.set(0, 0, width, height);
+			canvas.drawBitmap(base, src, dst, paint);
+		}
+
+		final int sample = getSample();
+		if (sample >= baseSample && base != null) {
+			wanted = new HashSet<Long>();
+			return;
+		}
+		final int span = TILE_SIZE * sample;
+		final HashSet<Long> visible = new HashSet<Long>();
+		final ArrayList<Long> missing = new ArrayList<Long>();
+		for (int ty = clip.top / span; ty <= (clip.bottom - 1) / span; ty++) {
+			for (int tx = clip.left / span; tx <= (clip.right - 1) / span; tx++) {
+				final Long key = Long.valueOf(key(sample, tx, ty));
+				visible.add(key);
+				final Bitmap tile = tiles.get(key);
+				if (tile != null) {
+					tileRect(sample, tx, ty, dst);
+					src.set(0, 0, tile.getWidth(), tile.getHeight());
+					canvas.drawBitmap(tile, src, dst, paint);
+				} else {
+					drawCoarser(canvas, sample, tx, ty);
+					missing.add(key);
+				}
+			}
+		}
+		wanted = visible;
+		for (final Long key : missing) {
+			request(key);
+		}
+	}
+
+	/**
+	 * Draws the part of a cached tile of a coarser level that covers a
+	 * missing tile.
+	 */
+	private void drawCoarser(final Canvas canvas, final int sample, final int tx, final int ty) {
+		final int span = TILE_SIZE * sample;
+		for (int coarse = sample * 2; coarse < baseSample; coarse *= 2) {
+			final int coarseSpan = TILE_SIZE * coarse;
+			final int cx = tx * span / coarseSpan;
+			final int cy = ty * span / coarseSpan;
+			final Bitmap tile = tiles.get(Long.valueOf(key(coarse, cx, cy)));
+			if (tile != null) {
+				tileRect(sample, tx, ty, dst);
+				final int left = cx * coarseSpan;
+				final int top = cy * coarseSpan;
+				src.set((dst.left - left) / coarse, (dst.top - top) / coarse, (dst.right - left) / coarse,
+						(dst.bottom - top) / coarse);
+				canvas.drawBitmap(tile, src, dst, paint);
+				return;
+			}
+		}
+	}
+
+	private void request(final Long key) {
+		synchronized (pending) {
+			if (!pending.add(key)) {
+				return;
+			}
+		}
+		getScheduler().getCpuExecutor(ImageScheduler.PRIORITY_VISIBLE).execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					decodeTile(key);
+				} finally {
+					synchronized (pending) {
+						pending.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	private void decodeTile(final Long key) {
+		if (recycled || !wanted.contains(key)) {
+			// scrolled or zoomed away
+			return;
+		}
+		final long value = key.longValue();
+		final int sample = (int) (value >>> 48);
+		final Rect region = new Rect();
+		tileRect(sample, (int) (value & 0xffffff), (int) ((value >>> 24) & 0xffffff), region);
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sample;
+		final Bitmap tile;
+		synchronized (decoder) {
+			if (recycled) {
+				return;
+			}
+			tile = decoder.decodeRegion(region, options);
+		}
+		if (tile != null) {
+			tiles.put(key, tile);
+			sMainHandler.post(invalidateRunnable);
+		}
+	}
+
+	private void tileRect(final int sample, final int tx, final int ty, final Rect rect) {
+		final int span = TILE_SIZE * sample;
+		rect.set(tx * span, ty * span, Math.min(width, (tx + 1) * span), Math.min(height, (ty + 1) * span));
+	}
+
+	private static long key(final int sample, final int tx, final int ty) {
+		return ((long) sample << 48) | ((long) ty << 24) | tx;
+	}
+
+	private static synchronized ImageScheduler getScheduler() {
+		if (sScheduler == null) {
+			// a region decoder decodes one region at a time anyway
+			sScheduler = new ImageScheduler(1, 1, ImageScheduler.DEFAULT_PREFETCH_LIMIT);
+		}
+		return sScheduler;
+	}
+
+	/**
+	 * Releases the cached tiles, e.g. while the drawable is not shown. The
+	 * drawable keeps drawing, from the low resolution copy until the tiles
+	 * are decoded again.
+	 */
+	public void releaseTiles() {
+		wanted = new HashSet<Long>();
+		tiles.evictAll();
+	}
+
+	/**
+	 * Releases the decoder and the tiles. The drawable draws nothing
+	 * afterwards.
+	 */
+	public void recycle() {
+		recycled = true;
+		synchronized (decoder) {
+			decoder.recycle();
+		}
+		tiles.evictAll();
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return width;
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return height;
+	}
+
+	@Override
+	public void setAlpha(final int alpha) {
+		paint.setAlpha(alpha);
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(final ColorFilter colorFilter) {
+		paint.setColorFilter(colorFilter);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return base != null && !base.hasAlpha() ? PixelFormat.OPAQUE : PixelFormat.TRANSLUCENT;
+	}
+}
@@ -6,11 +6,18 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -54,6 +61,76 @@ public class Crypt {
 
 	private static final String DES = NString.add(Strings.UPPD, Strings.UPPE, Strings.UPPS);
 
+	private static final int CIPHER_CACHE_SIZE = 8;
+
+	/**
+	 * Ciphers are not thread safe, so every thread keeps its own small LRU of
+	 * initialized ciphers per key instead of building a key schedule and
+	 * looking up the provider for every message.
+	 */
+	private static final ThreadLocal<LinkedHashMap<String, CipherContext>> CIPHER_CACHE = new ThreadLocal<LinkedHashMap<String, CipherContext>>() {
+		@Override
+		protected LinkedHashMap<String, CipherContext> initialValue() {
+			return new LinkedHashMap<String, CipherContext>(CIPHER_CACHE_SIZE * 2, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, CipherContext> eldest) {
+					return size() > CIPHER_CACHE_SIZE;
+				}
+			};
+		}
+	};
+
+	private static final class CipherContext {
+		private final SecretKey secretKey;
+		private Cipher encryptCipher;
+		private Cipher decryptCipher;
+
+		private CipherContext(final String key) throws GeneralSecurityException {
+			final DESKeySpec dks = new DESKeySpec(key.getBytes());
+			final SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
+			secretKey = keyFactory.generateSecret(dks);
+		}
+
+		private final Cipher getCipher(final int mode) throws GeneralSecurityException {
+			if (Cipher.ENCRYPT_MODE == mode) {
+				if (null == encryptCipher) {
+					encryptCipher = Cipher.getInstance(DES);
+					encryptCipher.init(mode, secretKey, new SecureRandom());
+				}
+				return encryptCipher;
+			}
+			if (null == decryptCipher) {
+				decryptCipher = Cipher.getInstance(DES);
+				decryptCipher.init(mode, secretKey, new SecureRandom());
+			}
+			return decryptCipher;
+		}
+	}
+
+	private static final CipherContext getCipherContext(final String key) throws GeneralSecurityException {
+		final LinkedHashMap<String, CipherContext> cache = CIPHER_CACHE.get();
+		CipherContext context = cache.get(key);
+		if (null == context) {
+			context = new CipherContext(key);
+			cache.put(key, context);
+		}
+		return context;
+	}
+
+	private static final Cipher getCipher(final String key, final int mode) throws GeneralSecurityException {
+		return getCipherContext(key).getCipher(mode);
+	}
+
+	/**
+	 * Forgets the cached cipher of a key after a failure, so the next call
+	 * starts from a freshly initialized one.
+	 */
+	private static final void evictCipher(final String key) {
+		CIPHER_CACHE.get().remove(key);
+	}
+
 	public static final String encrypt(final String data, final String key) {
 		String result = data;
 		try {
@@ -61,19 +138,16 @@ public class Crypt {
 			// data = compress(data);
 			// System.out.println("size compress:" + data.length());
 
-			final SecureRandom sRandom = new SecureRandom();
-			final DESKeySpec dks = new DESKeySpec(key.getBytes());
-			final SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-			final SecretKey securekey = keyFactory.generateSecret(dks);
-			final Cipher cipher = Cipher.getInstance(DES);
-			cipher.init(Cipher.ENCRYPT_MODE, securekey, sRandom);
+			final Cipher cipher = getCipher(key, Cipher.ENCRYPT_MODE);
 
 			final String strs = Base64.encodeBytes(cipher.doFinal(data.getBytes()));
 			// System.out.println("size encrypt:" + strs.length());
 			result = strs;
 		} catch (final IllegalArgumentException exception) {
 		} catch (final IllegalBlockSizeException exception) {
+			evictCipher(key);
 		} catch (final Exception exception) {
+			evictCipher(key);
 			exception.printStackTrace();
 		}
 		return result;
@@ -86,12 +160,7 @@ public class Crypt {
 				// System.out.println("size org:" + data.length());
 				final byte[] buf = Base64.decode(data);
 
-				final SecureRandom sRandom = new SecureRandom();
-				final DESKeySpec dks = new DESKeySpec(key.getBytes());
-				final SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-				final SecretKey securekey = keyFactory.generateSecret(dks);
-				final Cipher cipher = Cipher.getInstance(DES);
-				cipher.init(Cipher.DECRYPT_MODE, securekey, sRandom);
+				final Cipher cipher = getCipher(key, Cipher.DECRYPT_MODE);
 
 				final String resultString = new String(cipher.doFinal(buf));
 				// System.out.println("size decrypt:" + resultString.length());
@@ -102,13 +171,109 @@ public class Crypt {
 			}
 		} catch (final IllegalArgumentException exception) {
 		} catch (final IllegalBlockSizeException exception) {
+			evictCipher(key);
 		} catch (final IOException exception) {
 		} catch (final Exception exception) {
+			evictCipher(key);
 			exception.printStackTrace();
 		}
 		return result;
 	}
 
+	/**
+	 * Encrypts {@code length} bytes of {@code data} starting at
+	 * {@code offset} without any string or Base64 conversion.
+	 */
+	public static final byte[] encrypt(final byte[] data, final int offset, final int length, final String key)
+			throws GeneralSecurityException {
+		try {
+			return getCipher(key, Cipher.ENCRYPT_MODE).doFinal(data, offset, length);
+		} catch (final GeneralSecurityException exception) {
+			evictCipher(key);
+			throw exception;
+		}
+	}
+
+	public static final byte[] decrypt(final byte[] data, final int offset, final int length, final String key)
+			throws GeneralSecurityException {
+		try {
+			return getCipher(key, Cipher.DECRYPT_MODE).doFinal(data, offset, length);
+		} catch (final GeneralSecurityException exception) {
+			evictCipher(key);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Encrypts the remaining bytes of {@code input} straight into
+	 * {@code output}, which needs room for {@link #getEncryptedSize(int, String)}
+	 * bytes.
+	 *
+	 * @return the number of bytes written to {@code output}
+	 */
+	public static final int encrypt(final ByteBuffer input, final ByteBuffer output, final String key)
+			throws GeneralSecurityException {
+		try {
+			return getCipher(key, Cipher.ENCRYPT_MODE).doFinal(input, output);
+		} catch (final GeneralSecurityException exception) {
+			evictCipher(key);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Decrypts the remaining bytes of {@code input} straight into
+	 * {@code output}, which needs room for {@code input.remaining()} bytes.
+	 *
+	 * @return the number of bytes written to {@code output}
+	 */
+	public static final int decrypt(final ByteBuffer input, final ByteBuffer output, final String key)
+			throws GeneralSecurityException {
+		try {
+			return getCipher(key, Cipher.DECRYPT_MODE).doFinal(input, output);
+		} catch (final GeneralSecurityException exception) {
+			evictCipher(key);
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return the size of {@code length} bytes once encrypted with the key
+	 */
+	public static final int getEncryptedSize(final int length, final String key) throws GeneralSecurityException {
+		return getCipher(key, Cipher.ENCRYPT_MODE).getOutputSize(length);
+	}
+
+	/**
+	 * Wraps a stream so everything written to it is encrypted on the fly, so
+	 * large files never have to be held in memory. Closing the returned
+	 * stream writes the final block and closes {@code out}.
+	 */
+	public static final OutputStream newEncryptOutputStream(final OutputStream out, final String key)
+			throws GeneralSecurityException {
+		return new CipherOutputStream(out, newCipher(key, Cipher.ENCRYPT_MODE));
+	}
+
+	/**
+	 * Wraps a stream of data written by
+	 * {@link #newEncryptOutputStream(OutputStream, String)} so it is decrypted
+	 * while being read.
+	 */
+	public static final InputStream newDecryptInputStream(final InputStream in, final String key)
+			throws GeneralSecurityException {
+		return new CipherInputStream(in, newCipher(key, Cipher.DECRYPT_MODE));
+	}
+
+	/**
+	 * Streams outlive a single call and may interleave with other calls on the
+	 * same thread, so they get their own cipher instead of the cached one.
+	 */
+	private static final Cipher newCipher(final String key, final int mode) throws GeneralSecurityException {
+		final Cipher cipher = Cipher.getInstance(DES);
+		cipher.init(mode, getCipherContext(key).secretKey, new SecureRandom());
+		return cipher;
+	}
+
 	public static final String imgToBase64(final String filePath, final int size) {
 		final Bitmap bitmap = Bitmaps.getBitmap(filePath, size, true);
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
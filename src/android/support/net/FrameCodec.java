@@ -0,0 +1,230 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import android.support.lang.Crypt;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Length-prefixed binary framing. Every frame is a varint payload length, a
+ * type byte of {@code FLAG_*} bits and the payload itself, so messages may
+ * contain newlines and large payloads are copied in bulk instead of being
+ * scanned for a line terminator. Encrypted payloads are raw cipher bytes
+ * written straight into the frame, without Base64. Payloads are compressed
+ * before they are encrypted.
+ */
+public class FrameCodec extends SocketCodec {
+	public static final int FLAG_ENCRYPTED = 0x01;
+	public static final int FLAG_COMPRESSED = 0x02;
+
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	// Longest varint for an int plus the type byte
+	private static final int HEADER_SIZE = 5 + 1;
+
+	private static final int STATE_LENGTH = 0;
+	private static final int STATE_TYPE = 1;
+	private static final int STATE_PAYLOAD = 2;
+
+	private transient int state = STATE_LENGTH;
+	private transient int length;
+	private transient int shift;
+	private transient int type;
+	private transient byte[] payload = new byte[Sockets.BUFFERSIZE * 8];
+	private transient int count;
+	private transient ByteBuffer plainBuffer = ByteBuffer.allocate(Sockets.BUFFERSIZE * 8);
+	private final transient SocketCipher cipher;
+	private final transient SocketCompressor compressor;
+
+	public FrameCodec() {
+		this(null, null);
+	}
+
+	/**
+	 * @param cipher
+	 *            encrypts every frame of this direction with AES-GCM, or null
+	 *            for the legacy DES encryption of long messages
+	 * @param compressor
+	 *            compresses large frames of this direction, or null
+	 */
+	public FrameCodec(final SocketCipher cipher, final SocketCompressor compressor) {
+		this.cipher = cipher;
+		this.compressor = compressor;
+	}
+
+	/**
+	 * @return the compressor with its statistics, or null if this direction
+	 *         is not compressed
+	 */
+	public final SocketCompressor getCompressor() {
+		return compressor;
+	}
+
+	@Override
+	public String getName() {
+		return FRAME;
+	}
+
+	@Override
+	public ByteBuffer encode(final Sockets socket, final String message, final ByteBuffer buffer) throws IOException {
+		// Encode the payload first, then write the header right in front of
+		// it so no second copy is needed once its length is known
+		buffer.clear();
+		ByteBuffer out = ensureCapacity(buffer, HEADER_SIZE);
+		out.position(HEADER_SIZE);
+
+		int flags = 0;
+		final boolean isEncrypted = null != cipher || message.length() >= Sockets.ENCRYPTSIZELIMIT;
+		if (isEncrypted || null != compressor) {
+			plainBuffer.clear();
+			plainBuffer = putString(plainBuffer, message);
+			plainBuffer.flip();
+
+			ByteBuffer plain = plainBuffer;
+			if (null != compressor) {
+				final ByteBuffer compressed = compressor.deflate(plainBuffer.array(), plainBuffer.arrayOffset(),
+						plainBuffer.remaining());
+				if (null != compressed) {
+					plain = compressed;
+					flags |= FLAG_COMPRESSED;
+				}
+			}
+
+			if (isEncrypted) {
+				try {
+					if (null != cipher) {
+						out = ensureCapacity(out, HEADER_SIZE + cipher.getEncryptedSize(plain.remaining()));
+						cipher.doFinal(plain, out);
+					} else {
+						out = ensureCapacity(out,
+								HEADER_SIZE + Crypt.getEncryptedSize(plain.remaining(), socket.getEncryptionKey()));
+						Crypt.encrypt(plain, out, socket.getEncryptionKey());
+					}
+				} catch (final GeneralSecurityException exception) {
+					throw new IOException(exception.toString());
+				}
+				flags |= FLAG_ENCRYPTED;
+			} else {
+				out = ensureCapacity(out, HEADER_SIZE + plain.remaining());
+				out.put(plain);
+			}
+		} else {
+			out = putString(out, message);
+		}
+		final int end = out.position();
+		final int start = HEADER_SIZE - 1 - varintSize(end - HEADER_SIZE);
+
+		out.position(start);
+		putVarint(out, end - HEADER_SIZE);
+		out.put((byte) flags);
+		out.limit(end);
+		out.position(start);
+		return out;
+	}
+
+	@Override
+	public String decode(final Sockets socket, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			switch (state) {
+			case STATE_LENGTH:
+				final byte b = buffer.get();
+				length |= (b & 0x7f) << shift;
+				shift += 7;
+				if ((b & 0x80) == 0) {
+					if (length < 0 || length > MAX_FRAME_SIZE) {
+						throw new IOException("Frame too large: " + length);
+					}
+					state = STATE_TYPE;
+				} else if (shift > 28) {
+					throw new IOException("Malformed frame length");
+				}
+				break;
+			case STATE_TYPE:
+				type = buffer.get() & 0xff;
+				payload = ensureCapacity(payload, length);
+				count = 0;
+				state = STATE_PAYLOAD;
+				if (0 == length) {
+					return finish(socket);
+				}
+				break;
+			default:
+				final int n = Math.min(buffer.remaining(), length - count);
+				buffer.get(payload, count, n);
+				count += n;
+				if (count == length) {
+					return finish(socket);
+				}
+				break;
+			}
+		}
+		return null;
+	}
+
+	private final String finish(final Sockets socket) throws IOException {
+		final int size = length;
+		final int flags = type;
+		state = STATE_LENGTH;
+		length = 0;
+		shift = 0;
+		count = 0;
+
+		byte[] plain = payload;
+		int plainSize = size;
+		if ((flags & FLAG_ENCRYPTED) != 0) {
+			plainBuffer.clear();
+			plainBuffer = ensureCapacity(plainBuffer, size);
+			try {
+				if (null != cipher) {
+					cipher.doFinal(ByteBuffer.wrap(payload, 0, size), plainBuffer);
+				} else {
+					Crypt.decrypt(ByteBuffer.wrap(payload, 0, size), plainBuffer, socket.getEncryptionKey());
+				}
+			} catch (final GeneralSecurityException exception) {
+				throw new IOException(exception.toString());
+			}
+			plain = plainBuffer.array();
+			plainSize = plainBuffer.position();
+		}
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			if (null == compressor) {
+				throw new IOException("Compressed frame without negotiated compression");
+			}
+			final ByteBuffer inflated = compressor.inflate(plain, 0, plainSize);
+			return new String(inflated.array(), 0, inflated.limit(), UTF8);
+		}
+		if (null != compressor) {
+			compressor.countUncompressed();
+		}
+		return new String(plain, 0, plainSize, UTF8);
+	}
+
+	static final int varintSize(final int value) {
+		int size = 1;
+		int rest = value >>> 7;
+		while (rest != 0) {
+			size++;
+			rest >>>= 7;
+		}
+		return size;
+	}
+
+	static final void putVarint(final ByteBuffer buffer, final int value) {
+		int rest = value;
+		while ((rest & ~0x7f) != 0) {
+			buffer.put((byte) ((rest & 0x7f) | 0x80));
+			rest >>>= 7;
+		}
+		buffer.put((byte) rest);
+	}
+}
@@ -0,0 +1,67 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.support.lang.Crypt;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * The original protocol: one UTF-8 line per message, encrypted and Base64
+ * encoded once it reaches {@link Sockets#ENCRYPTSIZELIMIT} characters.
+ */
+public class LineCodec extends SocketCodec {
+	private transient byte[] line = new byte[Sockets.BUFFERSIZE * 8];
+	private transient int count;
+
+	@Override
+	public String getName() {
+		return LINE;
+	}
+
+	@Override
+	public ByteBuffer encode(final Sockets socket, final String message, final ByteBuffer buffer) throws IOException {
+		String outMessage = message;
+		if (outMessage.length() >= Sockets.ENCRYPTSIZELIMIT) {
+			outMessage = Crypt.encrypt(outMessage, socket.getEncryptionKey());
+		}
+
+		buffer.clear();
+		ByteBuffer out = putString(buffer, outMessage);
+		out = ensureCapacity(out, out.position() + 1);
+		out.put((byte) '\n');
+		out.flip();
+		return out;
+	}
+
+	@Override
+	public String decode(final Sockets socket, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			final byte b = buffer.get();
+			if ('\n' == b) {
+				int end = count;
+				if (end > 0 && '\r' == line[end - 1]) {
+					end--;
+				}
+				count = 0;
+
+				final String message = new String(line, 0, end, UTF8);
+				if (message.length() >= Sockets.ENCRYPTSIZELIMIT) {
+					return Crypt.decrypt(message, socket.getEncryptionKey());
+				}
+				return message;
+			}
+			line = ensureCapacity(line, count + 1);
+			line[count++] = b;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,129 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import android.support.lang.Base64;
+import android.support.lang.Strings;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * AES-GCM encryption for one direction of a {@link FrameCodec} connection.
+ * Both peers derive a fresh key per direction from the shared encryption key
+ * and the nonces exchanged in the greetings, and count frames to build the
+ * GCM nonce, so nothing but the tag is added to a frame. A frame that was
+ * altered, dropped or replayed fails to decrypt and closes the connection.
+ *
+ * <p>
+ * Needs {@link GCMParameterSpec}, which Android only has from KitKat on;
+ * {@link #isSupported()} tells whether GCM can be offered. Peers that do not
+ * offer or accept it keep using the legacy DES mode of
+ * {@link android.support.lang.Crypt}.
+ */
+public class SocketCipher {
+	public static final String DES = Strings.UPPD;
+	public static final String AES_GCM = Strings.UPPG;
+
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final String AES = "AES";
+	private static final String HMAC = "HmacSHA256";
+	private static final int KEY_SIZE = 16;
+	private static final int NONCE_SIZE = 12;
+	private static final int TAG_SIZE = 16;
+
+	private static Boolean isSupported;
+
+	public static final synchronized boolean isSupported() {
+		if (null == isSupported) {
+			try {
+				Cipher.getInstance(TRANSFORMATION);
+				Class.forName("javax.crypto.spec.GCMParameterSpec");
+				isSupported = Boolean.TRUE;
+			} catch (final Exception exception) {
+				isSupported = Boolean.FALSE;
+			}
+		}
+		return isSupported.booleanValue();
+	}
+
+	/**
+	 * @return a random Base64 nonce to send with the greetings
+	 */
+	public static final String newNonce() {
+		final byte[] nonce = new byte[KEY_SIZE];
+		new SecureRandom().nextBytes(nonce);
+		return Base64.encodeBytes(nonce);
+	}
+
+	/**
+	 * Derives the keys of a connection with HMAC-SHA256 over both nonces.
+	 *
+	 * @return the client to server cipher followed by the server to client
+	 *         cipher, set up to encrypt or decrypt for the given side
+	 */
+	public static final SocketCipher[] derive(final String encryptionKey, final String clientNonce,
+			final String serverNonce, final boolean isClient) throws IOException {
+		try {
+			final Mac mac = Mac.getInstance(HMAC);
+			mac.init(new SecretKeySpec(encryptionKey.getBytes(SocketCodec.UTF8), HMAC));
+			mac.update(Base64.decode(clientNonce));
+			final byte[] keys = mac.doFinal(Base64.decode(serverNonce));
+
+			final SecretKeySpec clientKey = new SecretKeySpec(keys, 0, KEY_SIZE, AES);
+			final SecretKeySpec serverKey = new SecretKeySpec(keys, KEY_SIZE, KEY_SIZE, AES);
+			final int clientMode = isClient ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+			final int serverMode = isClient ? Cipher.DECRYPT_MODE : Cipher.ENCRYPT_MODE;
+			return new SocketCipher[] { new SocketCipher(clientKey, clientMode),
+					new SocketCipher(serverKey, serverMode) };
+		} catch (final GeneralSecurityException exception) {
+			throw new IOException(exception.toString());
+		}
+	}
+
+	private final transient Cipher cipher;
+	private final transient SecretKeySpec key;
+	private final transient int mode;
+	private final transient byte[] nonce = new byte[NONCE_SIZE];
+	private transient long counter;
+
+	private SocketCipher(final SecretKeySpec key, final int mode) throws GeneralSecurityException {
+		this.key = key;
+		this.mode = mode;
+		cipher = Cipher.getInstance(TRANSFORMATION);
+	}
+
+	public final int getEncryptedSize(final int length) {
+		return length + TAG_SIZE;
+	}
+
+	/**
+	 * Encrypts or decrypts, depending on the direction, the remaining bytes of
+	 * {@code input} into {@code output} under the next frame's nonce.
+	 *
+	 * @return the number of bytes written to {@code output}
+	 */
+	public final int doFinal(final ByteBuffer input, final ByteBuffer output) throws GeneralSecurityException {
+		long value = counter++;
+		for (int i = NONCE_SIZE - 1; i >= NONCE_SIZE - 8; i--) {
+			nonce[i] = (byte) value;
+			value >>>= 8;
+		}
+		cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+		return cipher.doFinal(input, output);
+	}
+}
@@ -1,24 +1,22 @@
 package android.support.net;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
+import java.util.Date;
+import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.n.It;
 import android.n.NDate;
 import android.n.NString;
-import android.support.lang.Crypt;
-import android.support.lang.Strings;
 import net.minidev.json.JSONObject;
 import net.minidev.json.JSONStyle;
 import net.minidev.json.JSONValue;
@@ -40,12 +38,57 @@ public class SocketClient {
 		this.serverIp = serverIp;
 	}
 
+	private transient int serverPort = Sockets.SERVERPORT;
+
+	/**
+	 * Connects to another port than {@link Sockets#SERVERPORT}.
+	 */
+	public final void setServerPort(final int serverPort) {
+		this.serverPort = serverPort;
+	}
+
 	private transient JSONObject greetings;
 
 	public final void setGreetings(final JSONObject greetings) {
 		this.greetings = greetings;
 	}
 
+	private transient String codec;
+
+	/**
+	 * Offers a {@link SocketCodec} to the server in the greetings. The client
+	 * keeps using {@link SocketCodec#LINE} until the server accepts it.
+	 */
+	public final void setCodec(final String codec) {
+		this.codec = codec;
+	}
+
+	private transient String cipher;
+
+	/**
+	 * Offers {@link SocketCipher#AES_GCM} together with
+	 * {@link SocketCodec#FRAME}, if the device supports it. Without it, or if
+	 * the server declines, messages use the legacy DES encryption.
+	 */
+	public final void setCipher(final String cipher) {
+		this.cipher = cipher;
+	}
+
+	private transient String compression;
+
+	/**
+	 * Offers {@link SocketCompressor#DEFLATE} or
+	 * {@link SocketCompressor#DICTIONARY} together with
+	 * {@link SocketCodec#FRAME}. Only messages of at least
+	 * {@link Sockets#COMPRESSSIZELIMIT} bytes are compressed.
+	 */
+	public final void setCompression(final String compression) {
+		this.compression = compression;
+	}
+
+	private transient boolean isNegotiating;
+	private transient String cipherNonce;
+
 	public static abstract interface SocketClientCallback {
 		public abstract void onConnected(Sockets socket);
 
@@ -60,17 +103,13 @@ public class SocketClient {
 		this.callback = callback;
 	}
 
-	private transient boolean isConnected;
-
-	private final void setIsConnected(final boolean isConnected) {
-		this.isConnected = isConnected;
-	}
+	private transient volatile boolean isReady;
 
 	private transient Sockets socket;
-	private transient ExecutorService threadPool;
+	private transient volatile ScheduledExecutorService threadPool;
 
 	public final void connectToServer() {
-		threadPool = Executors.newFixedThreadPool(4);
+		threadPool = Executors.newScheduledThreadPool(4);
 		if (null != connectToServerFuture) {
 			connectToServerFuture.cancel(true);
 			connectToServerFuture = null;
@@ -91,7 +130,7 @@ public class SocketClient {
 					}
 					socket = null;
 				}
-				socket = new Sockets(InetAddress.getByName(serverIp), Sockets.SERVERPORT);
+				socket = new Sockets(InetAddress.getByName(serverIp), serverPort);
 				socket.setReceiveBufferSize(Sockets.BUFFERSIZE * 1024);
 				socket.setSendBufferSize(Sockets.BUFFERSIZE / 2 * 1024);
 				socket.setTcpNoDelay(true);
@@ -107,22 +146,40 @@ public class SocketClient {
 				}
 				receiveFuture = threadPool.submit(new Receive());
 
-				if (null != proposeFuture) {
-					proposeFuture.cancel(true);
-					proposeFuture = null;
-				}
-				proposeFuture = threadPool.submit(new Propose());
-
 				if (null != keepAliveFuture) {
 					keepAliveFuture.cancel(true);
 					keepAliveFuture = null;
 				}
 				keepAliveFuture = threadPool.submit(new KeepAlive());
 
-				if (null != greetings) {
+				isNegotiating = null != codec && null != SocketCodec.forName(codec);
+				if (isNegotiating) {
+					final JSONObject offer = new JSONObject();
+					if (null != greetings) {
+						offer.putAll(greetings);
+					}
+					offer.put(Sockets.CODEC, codec);
+					cipherNonce = null;
+					if (SocketCodec.FRAME.equals(codec) && SocketCipher.AES_GCM.equals(cipher)
+							&& SocketCipher.isSupported()) {
+						cipherNonce = SocketCipher.newNonce();
+						offer.put(Sockets.CIPHER, cipher);
+						offer.put(Sockets.NONCE, cipherNonce);
+					}
+					if (SocketCodec.FRAME.equals(codec) && SocketCompressor.isSupported(compression)) {
+						offer.put(Sockets.COMPRESS, compression);
+					}
+					sendMessage(offer.toJSONString(JSONStyle.MAX_COMPRESS));
+				} else if (null != greetings) {
 					sendMessage(greetings.toJSONString(JSONStyle.MAX_COMPRESS));
 				}
 
+				// Nothing may be sent before the greetings, after that every
+				// message still waiting is sent again on the new connection
+				outbox.requeueInFlight();
+				isReady = true;
+				propose();
+
 				if (null != callback) {
 					callback.onConnected(socket);
 				}
@@ -150,51 +207,49 @@ public class SocketClient {
 				onDisconnect();
 			}
 		}
-		setIsConnected(false);
 	}
 
 	public static final int PRIORITY_LOW = 0;
 	public static final int PRIORITY_HIG = 1;
 
-	private transient String lastMsgCode = Strings.EMPTY;
-	private final transient ArrayList<JSONObject> queryListLOW = new ArrayList<JSONObject>();
-	private final transient ArrayList<JSONObject> queryListHIG = new ArrayList<JSONObject>();
+	private final transient SocketOutbox outbox = new SocketOutbox(PRIORITY_HIG + 1, Sockets.PROPOSEWINDOW);
+	private final transient AtomicLong msgCodeSequence = new AtomicLong(
+			Long.parseLong(new SimpleDateFormat("HHmmssSSS", Locale.US).format(new Date())));
 
 	public final void addMessage(final JSONObject jObject, final int priority) {
 		if (!It.isNull(jObject.get(Sockets.ACTION))) {
-			for (int i = 0; i < queryListHIG.size(); i++) {
-				if (jObject.get(Sockets.ACTION).equals(queryListHIG.get(i).get(Sockets.ACTION))) {
-					queryListHIG.remove(i);
-				}
-			}
-			for (int i = 0; i < queryListLOW.size(); i++) {
-				if (jObject.get(Sockets.ACTION).equals(queryListLOW.get(i).get(Sockets.ACTION))) {
-					queryListLOW.remove(i);
+			jObject.put(Sockets.MSG_CODE, NString.parse(msgCodeSequence.incrementAndGet()));
+			outbox.add(jObject, PRIORITY_HIG == priority ? PRIORITY_HIG : PRIORITY_LOW);
+			// The caller may be the main thread, so send from the pool
+			final ScheduledExecutorService executor = threadPool;
+			if (isReady && null != executor) {
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							propose();
+						}
+					});
+				} catch (final RejectedExecutionException exception) {
 				}
 			}
-
-			jObject.put(Sockets.MSG_CODE, new SimpleDateFormat("HHmmssSSS"));
-			if (PRIORITY_HIG == priority) {
-				queryListHIG.add(jObject);
-			} else {
-				queryListLOW.add(jObject);
-			}
 		}
 	}
 
 	private final void removeMessage(final String message) {
+		if (message.indexOf(Sockets.MSG_CODE) < 0) {
+			return;
+		}
 		try {
 			final JSONObject jObject = (JSONObject) JSONValue.parse(message);
 			if (!It.isNull(jObject.get(Sockets.MSG_CODE))) {
-				for (int i = 0; i < queryListHIG.size(); i++) {
-					if (jObject.get(Sockets.MSG_CODE).equals(queryListHIG.get(i).get(Sockets.MSG_CODE))) {
-						queryListHIG.remove(i);
-					}
-				}
-				for (int i = 0; i < queryListLOW.size(); i++) {
-					if (jObject.get(Sockets.MSG_CODE).equals(queryListLOW.get(i).get(Sockets.MSG_CODE))) {
-						queryListLOW.remove(i);
+				final SocketOutbox.Entry entry = outbox.removeByMsgCode(jObject.get(Sockets.MSG_CODE));
+				if (null != entry) {
+					final Future<?> retransmit = entry.retransmit;
+					if (null != retransmit) {
+						retransmit.cancel(false);
 					}
+					propose();
 				}
 			}
 		} catch (final ClassCastException exception) {
@@ -203,50 +258,59 @@ public class SocketClient {
 		}
 	}
 
-	private transient Future<?> proposeFuture;
+	/**
+	 * Sends queued messages until {@link Sockets#PROPOSEWINDOW} of them are
+	 * waiting for an answer.
+	 */
+	private final void propose() {
+		if (isReady) {
+			SocketOutbox.Entry entry;
+			while (null != (entry = outbox.poll())) {
+				transmit(entry);
+			}
+		}
+	}
+
+	private final void transmit(final SocketOutbox.Entry entry) {
+		final int tryCount = entry.tryCount.incrementAndGet();
+		sendMessage(entry.message.toJSONString(JSONStyle.MAX_COMPRESS));
+
+		final ScheduledExecutorService scheduler = threadPool;
+		if (null != scheduler) {
+			try {
+				entry.retransmit = scheduler.schedule(new Propose(entry, tryCount),
+						(long) Sockets.PROPOSETIMEOUT << (tryCount - 1), TimeUnit.MILLISECONDS);
+			} catch (final RejectedExecutionException exception) {
+			}
+		}
+	}
 
+	/**
+	 * Fires when a message was not answered in time. It is sent again with a
+	 * doubled deadline until it was sent {@link Sockets#QUEUEFAILTRY} times,
+	 * then dropped to make room for the next one. It does nothing if the
+	 * message was sent again meanwhile, e.g. after a reconnect.
+	 */
 	private final class Propose implements Runnable {
-		private transient int queryTryCount;
+		private final transient SocketOutbox.Entry entry;
+		private final transient int tryCount;
+
+		private Propose(final SocketOutbox.Entry entry, final int tryCount) {
+			this.entry = entry;
+			this.tryCount = tryCount;
+		}
 
 		@Override
 		public void run() {
 			try {
-				while (socket.isConnected()) {
-					if (isConnected) {
-						if (!queryListHIG.isEmpty()) {
-							if (lastMsgCode.equals(queryListHIG.get(0).get(Sockets.MSG_CODE))) {
-								queryTryCount++;
-							} else {
-								lastMsgCode = NString.parse(queryListHIG.get(0).get(Sockets.MSG_CODE));
-								queryTryCount = 0;
-							}
-
-							if (queryTryCount >= Sockets.QUEUEFAILTRY) {
-								queryListHIG.remove(0);
-								queryTryCount = 0;
-							} else {
-								sendMessage(queryListHIG.get(0).toJSONString(JSONStyle.MAX_COMPRESS));
-							}
-						} else if (!queryListLOW.isEmpty()) {
-							if (lastMsgCode.equals(NString.parse(queryListLOW.get(0).get(Sockets.MSG_CODE)))) {
-								queryTryCount++;
-							} else {
-								lastMsgCode = NString.parse(queryListLOW.get(0).get(Sockets.MSG_CODE));
-								queryTryCount = 0;
-							}
-
-							if (queryTryCount >= Sockets.QUEUEFAILTRY) {
-								queryListLOW.remove(0);
-								queryTryCount = 0;
-							} else {
-								sendMessage(queryListLOW.get(0).toJSONString(JSONStyle.MAX_COMPRESS));
-							}
-						}
+				if (entry.isInFlight() && entry.tryCount.get() == tryCount) {
+					if (tryCount >= Sockets.QUEUEFAILTRY) {
+						outbox.remove(entry);
+						propose();
+					} else {
+						transmit(entry);
 					}
-					Thread.sleep(Sockets.PROPOSESPEED);
 				}
-				Thread.currentThread().interrupt();
-			} catch (final InterruptedException exception) {
 			} catch (final Exception exception) {
 				exception.printStackTrace();
 			}
@@ -267,47 +331,64 @@ public class SocketClient {
 	private transient Future<?> receiveFuture;
 
 	private final class Receive implements Runnable {
-		private transient BufferedReader reader;
-		private transient InputStream inputStream;
-
 		@Override
 		public void run() {
 			try {
-				inputStream = new BufferedInputStream(socket.getInputStream());
-				reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
 				while (socket.isConnected()) {
-					String message = reader.readLine();
-					if (null != message && message.length() != 0) {
-						if (Sockets.KEEPALIVE_REACTION.equals(message)) {
-							keepAliveTimeoutCount = 0;
-						} else {
-							if (message.length() >= Sockets.ENCRYPTSIZELIMIT) {
-								message = Crypt.decrypt(message, socket.getEncryptionKey());
+					if (!socket.read()) {
+						throw new EOFException();
+					}
+					String message;
+					while (null != (message = socket.decode())) {
+						if (message.length() != 0) {
+							if (Sockets.KEEPALIVE_REACTION.equals(message)) {
+								keepAliveTimeoutCount = 0;
+							} else if (!isNegotiating || !acceptCodec(message)) {
+								readMessage(message);
 							}
-							readMessage(message);
 						}
-						setIsConnected(true);
 					}
-					Thread.sleep(5);
 				}
-			} catch (final InterruptedException exception) {
 			} catch (final IOException exception) {
 				onDisconnect();
 			} catch (final Exception exception) {
 				exception.printStackTrace();
-			} finally {
-				try {
-					inputStream.close();
-				} catch (final IOException exception) {
-				}
-				try {
-					reader.close();
-				} catch (final IOException exception) {
-				}
 			}
 		}
 	}
 
+	/**
+	 * Switches to the codec the server accepted and confirms it, so the
+	 * server knows where its decoder has to change.
+	 *
+	 * @return true if the message was the server's answer to the offer
+	 */
+	private final boolean acceptCodec(final String message) throws IOException {
+		final JSONObject answer = SocketCodec.parseNegotiation(message);
+		if (null == answer) {
+			return false;
+		}
+		isNegotiating = false;
+
+		final String accepted = (String) answer.get(Sockets.CODEC);
+		if (SocketCodec.FRAME.equals(accepted)) {
+			SocketCipher[] ciphers = new SocketCipher[2];
+			if (null != cipherNonce && SocketCipher.AES_GCM.equals(answer.get(Sockets.CIPHER))
+					&& null != answer.get(Sockets.NONCE)) {
+				ciphers = SocketCipher.derive(socket.getEncryptionKey(), cipherNonce,
+						(String) answer.get(Sockets.NONCE), true);
+			}
+			final Object compress = SocketCompressor.isSupported(compression) ? answer.get(Sockets.COMPRESS) : null;
+			socket.setDecoder(new FrameCodec(ciphers[1], SocketCompressor.forName(compress)));
+			socket.send(SocketCodec.toMessage(accepted),
+					new FrameCodec(ciphers[0], SocketCompressor.forName(compress)));
+		} else {
+			socket.setDecoder(SocketCodec.forName(accepted));
+			socket.send(SocketCodec.toMessage(accepted), SocketCodec.forName(accepted));
+		}
+		return true;
+	}
+
 	private transient int keepAliveTimeoutCount;
 
 	private transient Future<?> keepAliveFuture;
@@ -336,6 +417,7 @@ public class SocketClient {
 	}
 
 	public final void onDisconnect() {
+		isReady = false;
 		if (null != connectToServerFuture) {
 			connectToServerFuture.cancel(true);
 			connectToServerFuture = null;
@@ -344,10 +426,6 @@ public class SocketClient {
 			keepAliveFuture.cancel(true);
 			keepAliveFuture = null;
 		}
-		if (null != proposeFuture) {
-			proposeFuture.cancel(true);
-			proposeFuture = null;
-		}
 		if (null != receiveFuture) {
 			receiveFuture.cancel(true);
 			receiveFuture = null;
@@ -0,0 +1,162 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import android.support.lang.Strings;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONStyle;
+import net.minidev.json.JSONValue;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Turns messages into bytes on the wire and back. Every {@link Sockets} owns
+ * one encoder and one decoder instance, so implementations may keep per
+ * connection state and reuse their buffers between messages.
+ *
+ * <p>
+ * The codec is negotiated at greeting time: the client adds
+ * {@link Sockets#CODEC} to its greeting, the server answers with the codec it
+ * accepts and switches its encoder, and the client confirms with the same
+ * message before switching its own encoder. Each peer switches its decoder
+ * right after the message that announced the change, so no message is ever
+ * read with the wrong codec. A {@link SocketCipher} or
+ * {@link SocketCompressor} agreed on in the same exchange takes effect at the
+ * same points.
+ */
+public abstract class SocketCodec {
+	public static final String LINE = Strings.UPPL;
+	public static final String FRAME = Strings.UPPF;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MIN_CAPACITY = 256;
+
+	public static final SocketCodec forName(final String name) {
+		if (LINE.equals(name)) {
+			return new LineCodec();
+		} else if (FRAME.equals(name)) {
+			return new FrameCodec();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the negotiation message, carrying a known {@link Sockets#CODEC}
+	 *         and optionally {@link Sockets#CIPHER} and {@link Sockets#NONCE},
+	 *         or null if the message is not one
+	 */
+	public static final JSONObject parseNegotiation(final String message) {
+		if (message.indexOf(Sockets.CODEC) < 0) {
+			return null;
+		}
+		try {
+			final JSONObject jObject = (JSONObject) JSONValue.parse(message);
+			final Object codec = jObject.get(Sockets.CODEC);
+			if (LINE.equals(codec) || FRAME.equals(codec)) {
+				return jObject;
+			}
+		} catch (final ClassCastException exception) {
+		} catch (final Exception exception) {
+			exception.printStackTrace();
+		}
+		return null;
+	}
+
+	public static final String toMessage(final String codec) {
+		return toMessage(codec, null, null, null);
+	}
+
+	public static final String toMessage(final String codec, final String cipher, final String nonce,
+			final String compress) {
+		final JSONObject jObject = new JSONObject();
+		jObject.put(Sockets.CODEC, codec);
+		if (null != cipher) {
+			jObject.put(Sockets.CIPHER, cipher);
+			jObject.put(Sockets.NONCE, nonce);
+		}
+		if (null != compress) {
+			jObject.put(Sockets.COMPRESS, compress);
+		}
+		return jObject.toJSONString(JSONStyle.MAX_COMPRESS);
+	}
+
+	private final transient CharsetEncoder charsetEncoder = UTF8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	public abstract String getName();
+
+	/**
+	 * Encodes a single message.
+	 *
+	 * @param buffer
+	 *            the buffer reused from the previous call, may be null
+	 * @return the buffer holding the encoded message between its position and
+	 *         limit; a larger one if the given buffer was too small
+	 */
+	public abstract ByteBuffer encode(Sockets socket, String message, ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Consumes bytes from the buffer until one message is complete. Partial
+	 * messages are kept by the codec, so the buffer is always drained before
+	 * null is returned.
+	 *
+	 * @return the next message, or null when the buffer is exhausted
+	 */
+	public abstract String decode(Sockets socket, ByteBuffer buffer) throws IOException;
+
+	protected final ByteBuffer putString(final ByteBuffer buffer, final String string) {
+		final CharBuffer chars = CharBuffer.wrap(string);
+		ByteBuffer out = ensureCapacity(buffer, buffer.position() + string.length());
+		charsetEncoder.reset();
+		while (charsetEncoder.encode(chars, out, true).isOverflow()) {
+			out = ensureCapacity(out, out.capacity() * 2);
+		}
+		CoderResult result;
+		while ((result = charsetEncoder.flush(out)).isOverflow()) {
+			out = ensureCapacity(out, out.capacity() * 2);
+		}
+		if (result.isError()) {
+			throw new IllegalArgumentException(result.toString());
+		}
+		return out;
+	}
+
+	/**
+	 * @return the same buffer if it can hold {@code capacity} bytes, otherwise
+	 *         a larger buffer of the same kind holding its written bytes
+	 */
+	protected static final ByteBuffer ensureCapacity(final ByteBuffer buffer, final int capacity) {
+		if (buffer.capacity() >= capacity) {
+			buffer.limit(buffer.capacity());
+			return buffer;
+		}
+		final int size = Math.max(MIN_CAPACITY, Math.max(capacity, buffer.capacity() * 2));
+		final ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	protected static final byte[] ensureCapacity(final byte[] bytes, final int capacity) {
+		if (bytes.length >= capacity) {
+			return bytes;
+		}
+		final byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+		System.arraycopy(bytes, 0, grown, 0, bytes.length);
+		return grown;
+	}
+}
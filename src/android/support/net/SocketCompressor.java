@@ -0,0 +1,205 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.support.lang.Strings;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Per-message deflate for one direction of a {@link FrameCodec} connection.
+ * Messages below {@link Sockets#COMPRESSSIZELIMIT} bytes, and messages that
+ * would not shrink, are sent as they are. The {@link Deflater} or
+ * {@link Inflater} and its buffer are kept for the life of the connection.
+ *
+ * <p>
+ * With {@link #DICTIONARY} both peers preset the compressor with the
+ * protocol's JSON keys, which pays off most for the many small messages.
+ */
+public class SocketCompressor {
+	public static final String DEFLATE = Strings.UPPZ;
+	public static final String DICTIONARY = Strings.UPPY;
+
+	private static final byte[] PRESET_DICTIONARY = buildDictionary();
+
+	public static final boolean isSupported(final Object name) {
+		return DEFLATE.equals(name) || DICTIONARY.equals(name);
+	}
+
+	/**
+	 * @return a new compressor for the negotiated name, or null for none
+	 */
+	public static final SocketCompressor forName(final Object name) {
+		return isSupported(name) ? new SocketCompressor(DICTIONARY.equals(name)) : null;
+	}
+
+	private static final byte[] buildDictionary() {
+		final StringBuilder dictionary = new StringBuilder();
+		for (final String key : new String[] { Sockets.SENDER, Sockets.RECEIVER, Sockets.RETURN, Sockets.MSG_CODE,
+				Sockets.ACTION }) {
+			dictionary.append(Strings.COMMA).append(key).append(Strings.COLON);
+			dictionary.append("\"").append(key).append("\":\"");
+		}
+		return dictionary.toString().getBytes(SocketCodec.UTF8);
+	}
+
+	private final transient boolean isDictionary;
+	private transient Deflater deflater;
+	private transient Inflater inflater;
+	private transient byte[] buffer = new byte[Sockets.BUFFERSIZE * 8];
+
+	// Read from other threads than the one sending or receiving
+	private final transient AtomicLong messageCount = new AtomicLong();
+	private final transient AtomicLong compressedCount = new AtomicLong();
+	private final transient AtomicLong inputBytes = new AtomicLong();
+	private final transient AtomicLong outputBytes = new AtomicLong();
+	private final transient AtomicLong nanos = new AtomicLong();
+
+	private SocketCompressor(final boolean isDictionary) {
+		this.isDictionary = isDictionary;
+	}
+
+	public final String getName() {
+		return isDictionary ? DICTIONARY : DEFLATE;
+	}
+
+	/**
+	 * @return the deflated bytes, or null if the message is too small or
+	 *         would not shrink
+	 */
+	final ByteBuffer deflate(final byte[] input, final int offset, final int length) {
+		messageCount.incrementAndGet();
+		if (length < Sockets.COMPRESSSIZELIMIT) {
+			return null;
+		}
+
+		final long start = System.nanoTime();
+		if (null == deflater) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		deflater.reset();
+		if (isDictionary) {
+			deflater.setDictionary(PRESET_DICTIONARY);
+		}
+		deflater.setInput(input, offset, length);
+		deflater.finish();
+
+		// Anything as long as the input is not worth sending
+		buffer = SocketCodec.ensureCapacity(buffer, length);
+		int size = 0;
+		while (!deflater.finished() && size < length) {
+			size += deflater.deflate(buffer, size, length - size);
+		}
+		nanos.addAndGet(System.nanoTime() - start);
+
+		if (!deflater.finished() || size >= length) {
+			return null;
+		}
+		compressedCount.incrementAndGet();
+		inputBytes.addAndGet(length);
+		outputBytes.addAndGet(size);
+		return ByteBuffer.wrap(buffer, 0, size);
+	}
+
+	/**
+	 * Counts a message received as it is, as {@link #deflate} counts every
+	 * message sent, compressed or not.
+	 */
+	final void countUncompressed() {
+		messageCount.incrementAndGet();
+	}
+
+	final ByteBuffer inflate(final byte[] input, final int offset, final int length) throws IOException {
+		messageCount.incrementAndGet();
+		final long start = System.nanoTime();
+		if (null == inflater) {
+			inflater = new Inflater(true);
+		}
+		inflater.reset();
+		if (isDictionary) {
+			inflater.setDictionary(PRESET_DICTIONARY);
+		}
+		inflater.setInput(input, offset, length);
+
+		int size = 0;
+		try {
+			while (!inflater.finished()) {
+				if (size == buffer.length) {
+					if (size >= FrameCodec.MAX_FRAME_SIZE) {
+						throw new IOException("Inflated frame too large");
+					}
+					buffer = SocketCodec.ensureCapacity(buffer, size * 2);
+				}
+				final int count = inflater.inflate(buffer, size, buffer.length - size);
+				if (0 == count && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed frame");
+				}
+				size += count;
+			}
+		} catch (final DataFormatException exception) {
+			throw new IOException(exception.toString());
+		}
+		nanos.addAndGet(System.nanoTime() - start);
+
+		compressedCount.incrementAndGet();
+		inputBytes.addAndGet(size);
+		outputBytes.addAndGet(length);
+		return ByteBuffer.wrap(buffer, 0, size);
+	}
+
+	/**
+	 * @return number of messages seen, compressed or not
+	 */
+	public final long getMessageCount() {
+		return messageCount.get();
+	}
+
+	/**
+	 * @return number of messages that were sent or received compressed
+	 */
+	public final long getCompressedCount() {
+		return compressedCount.get();
+	}
+
+	/**
+	 * @return uncompressed bytes of all compressed messages
+	 */
+	public final long getInputBytes() {
+		return inputBytes.get();
+	}
+
+	/**
+	 * @return compressed bytes of all compressed messages
+	 */
+	public final long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	/**
+	 * @return compressed size over uncompressed size, 1 if nothing was
+	 *         compressed yet
+	 */
+	public final float getCompressionRatio() {
+		final long input = inputBytes.get();
+		return 0 == input ? 1f : (float) outputBytes.get() / input;
+	}
+
+	/**
+	 * @return time spent deflating or inflating, in nanoseconds
+	 */
+	public final long getNanos() {
+		return nanos.get();
+	}
+}
@@ -0,0 +1,221 @@
+package android.support.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * A single selector thread multiplexing many non-blocking {@link Sockets}.
+ * Each registered connection is driven through its
+ * {@link SocketServerHandler} exactly like the thread-per-client Receive and
+ * KeepAlive runnables, so handlers do not need to know which mode they run in.
+ */
+final class SocketEventLoop implements Runnable {
+	private final transient Selector selector;
+	private final transient ConcurrentLinkedQueue<Connection> registerQueue = new ConcurrentLinkedQueue<Connection>();
+	private final transient ConcurrentLinkedQueue<Sockets> writeQueue = new ConcurrentLinkedQueue<Sockets>();
+	private final transient ByteBuffer readBuffer = ByteBuffer.allocateDirect(Sockets.BUFFERSIZE * 1024);
+
+	private final transient boolean isBatchDrain;
+
+	private transient Thread thread;
+	private transient long nextKeepAlive;
+
+	/**
+	 * @param isBatchDrain
+	 *            keep reading a ready connection until its receive buffer is
+	 *            empty instead of handling one buffer per connection and
+	 *            select round
+	 */
+	SocketEventLoop(final boolean isBatchDrain) throws IOException {
+		selector = Selector.open();
+		this.isBatchDrain = isBatchDrain;
+	}
+
+	final void start(final String name) {
+		thread = new Thread(this, name);
+		thread.start();
+	}
+
+	final void shutdown() {
+		if (null != thread) {
+			thread.interrupt();
+			thread = null;
+		}
+		selector.wakeup();
+	}
+
+	final void register(final Sockets socket, final SocketServerHandler handler) {
+		registerQueue.add(new Connection(socket, handler));
+		selector.wakeup();
+	}
+
+	final void write(final Sockets socket, final ByteBuffer buffer) {
+		socket.outbound.add(buffer);
+		writeQueue.add(socket);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		nextKeepAlive = System.currentTimeMillis() + Sockets.KEEPALIVESPEED;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				selector.select(Math.max(1, nextKeepAlive - System.currentTimeMillis()));
+
+				registerPending();
+				flushPending();
+
+				final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+
+					final Connection connection = (Connection) key.attachment();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						if (key.isReadable()) {
+							read(connection);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key, connection);
+						}
+					} catch (final IOException exception) {
+						close(key, connection);
+					} catch (final RuntimeException exception) {
+						// a bad peer only loses its own connection, as in the
+						// thread-per-client mode
+						exception.printStackTrace();
+						close(key, connection);
+					}
+				}
+
+				if (System.currentTimeMillis() >= nextKeepAlive) {
+					keepAlive();
+					nextKeepAlive = System.currentTimeMillis() + Sockets.KEEPALIVESPEED;
+				}
+			}
+		} catch (final IOException exception) {
+			exception.printStackTrace();
+		} finally {
+			for (final SelectionKey key : selector.keys()) {
+				close(key, (Connection) key.attachment());
+			}
+			try {
+				selector.close();
+			} catch (final IOException exception) {
+			}
+		}
+	}
+
+	private final void registerPending() {
+		Connection connection;
+		while (null != (connection = registerQueue.poll())) {
+			try {
+				int ops = SelectionKey.OP_READ;
+				if (!connection.socket.outbound.isEmpty()) {
+					ops |= SelectionKey.OP_WRITE;
+				}
+				connection.socket.getChannel().register(selector, ops, connection);
+			} catch (final ClosedChannelException exception) {
+				try {
+					connection.handler.onDisconnect();
+				} catch (final RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private final void flushPending() {
+		Sockets socket;
+		while (null != (socket = writeQueue.poll())) {
+			final SelectionKey key = socket.getChannel().keyFor(selector);
+			if (null != key && key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private final void read(final Connection connection) throws IOException {
+		int count;
+		do {
+			readBuffer.clear();
+			count = connection.socket.getChannel().read(readBuffer);
+			if (count < 0) {
+				throw new ClosedChannelException();
+			}
+			readBuffer.flip();
+			String message;
+			while (null != (message = connection.socket.decode(readBuffer))) {
+				if (message.length() != 0) {
+					connection.handler.receive(message);
+				}
+			}
+		} while (isBatchDrain && count == readBuffer.capacity() && connection.socket == connection.handler.socket);
+	}
+
+	private final void write(final SelectionKey key, final Connection connection) throws IOException {
+		final SocketChannel channel = connection.socket.getChannel();
+		ByteBuffer buffer;
+		while (null != (buffer = connection.socket.outbound.peek())) {
+			channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				return;
+			}
+			connection.socket.outbound.poll();
+		}
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+	}
+
+	private final void keepAlive() {
+		for (final SelectionKey key : selector.keys()) {
+			final Connection connection = (Connection) key.attachment();
+			try {
+				if (key.isValid() && !connection.handler.keepAlive()) {
+					key.cancel();
+				}
+			} catch (final RuntimeException exception) {
+				exception.printStackTrace();
+				close(key, connection);
+			}
+		}
+	}
+
+	private final void close(final SelectionKey key, final Connection connection) {
+		key.cancel();
+		if (null != connection && connection.socket == connection.handler.socket) {
+			try {
+				connection.handler.onDisconnect();
+			} catch (final RuntimeException exception) {
+				exception.printStackTrace();
+			}
+		}
+	}
+
+	private static final class Connection {
+		private final transient Sockets socket;
+		private final transient SocketServerHandler handler;
+
+		private Connection(final Sockets socket, final SocketServerHandler handler) {
+			this.socket = socket;
+			this.handler = handler;
+		}
+	}
+}
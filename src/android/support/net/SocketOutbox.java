@@ -0,0 +1,230 @@
+package android.support.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.n.NString;
+import net.minidev.json.JSONObject;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * Outgoing messages waiting for the server's answer, one lock-free queue per
+ * priority. Messages are indexed by {@link Sockets#ACTION}, so a newer
+ * message replaces a queued one of the same action, and by
+ * {@link Sockets#MSG_CODE}, so an answer removes its message in constant
+ * time. At most {@code window} messages are handed out by {@link #poll()}
+ * until they are removed again. Removed messages are only marked and are
+ * skipped once they reach the head of their queue.
+ */
+public class SocketOutbox {
+	private static final int STATE_QUEUED = 0;
+	private static final int STATE_IN_FLIGHT = 1;
+	private static final int STATE_REMOVED = 2;
+
+	public static final class Entry {
+		public final JSONObject message;
+		private final Object action;
+		private final Object msgCode;
+		private final int priority;
+		private final long sequence;
+		private final AtomicInteger state = new AtomicInteger(STATE_QUEUED);
+
+		/** Times sent since queued, a retransmit for an older try is stale. */
+		final transient AtomicInteger tryCount = new AtomicInteger();
+		transient volatile ScheduledFuture<?> retransmit;
+
+		private Entry(final JSONObject message, final int priority, final long sequence) {
+			this.message = message;
+			this.priority = priority;
+			this.sequence = sequence;
+			action = message.get(Sockets.ACTION);
+			msgCode = NString.parse(message.get(Sockets.MSG_CODE));
+		}
+
+		public final boolean isRemoved() {
+			return STATE_REMOVED == state.get();
+		}
+
+		public final boolean isInFlight() {
+			return STATE_IN_FLIGHT == state.get();
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Entry>[] queues;
+	private final ConcurrentHashMap<Object, Entry> actionIndex = new ConcurrentHashMap<Object, Entry>();
+	private final ConcurrentHashMap<Object, Entry> msgCodeIndex = new ConcurrentHashMap<Object, Entry>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong sequence = new AtomicLong();
+	private final int window;
+
+	private static final Comparator<Entry> SEQUENCE_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(final Entry lhs, final Entry rhs) {
+			return lhs.sequence < rhs.sequence ? -1 : lhs.sequence == rhs.sequence ? 0 : 1;
+		}
+	};
+
+	/**
+	 * @param priorityCount
+	 *            number of priorities, the highest one is
+	 *            {@code priorityCount - 1}
+	 * @param window
+	 *            maximum number of messages in flight
+	 */
+	@SuppressWarnings("unchecked")
+	public SocketOutbox(final int priorityCount, final int window) {
+		this.window = window;
+		queues = new ConcurrentLinkedQueue[priorityCount];
+		for (int i = 0; i < priorityCount; i++) {
+			queues[i] = new ConcurrentLinkedQueue<Entry>();
+		}
+	}
+
+	/**
+	 * Queues a message carrying both {@link Sockets#ACTION} and
+	 * {@link Sockets#MSG_CODE}, replacing any queued or in flight message of
+	 * the same action.
+	 */
+	public final Entry add(final JSONObject message, final int priority) {
+		final Entry entry = new Entry(message, Math.max(0, Math.min(queues.length - 1, priority)),
+				sequence.incrementAndGet());
+		final Entry replaced = actionIndex.put(entry.action, entry);
+		if (null != replaced) {
+			remove(replaced);
+		}
+		msgCodeIndex.put(entry.msgCode, entry);
+		queues[entry.priority].add(entry);
+		return entry;
+	}
+
+	/**
+	 * Takes the oldest queued message of the highest priority and counts it
+	 * as in flight until it is removed.
+	 *
+	 * @return the message to send, or null if none is queued or the window is
+	 *         full
+	 */
+	public final Entry poll() {
+		while (true) {
+			final int count = inFlight.get();
+			if (count >= window) {
+				return null;
+			}
+			if (inFlight.compareAndSet(count, count + 1)) {
+				break;
+			}
+		}
+		for (int i = queues.length - 1; i >= 0; i--) {
+			Entry entry;
+			while (null != (entry = queues[i].poll())) {
+				if (entry.state.compareAndSet(STATE_QUEUED, STATE_IN_FLIGHT)) {
+					return entry;
+				}
+			}
+		}
+		inFlight.decrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @return the removed message, or null if none was queued with this code
+	 */
+	public final Entry removeByMsgCode(final Object msgCode) {
+		final Entry entry = msgCodeIndex.get(NString.parse(msgCode));
+		if (null != entry && remove(entry)) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * @return false if the message was already removed
+	 */
+	public final boolean remove(final Entry entry) {
+		while (true) {
+			final int state = entry.state.get();
+			if (STATE_REMOVED == state) {
+				return false;
+			}
+			if (entry.state.compareAndSet(state, STATE_REMOVED)) {
+				if (STATE_IN_FLIGHT == state) {
+					inFlight.decrementAndGet();
+				}
+				actionIndex.remove(entry.action, entry);
+				msgCodeIndex.remove(entry.msgCode, entry);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Puts every message in flight back into its queue, ahead of the ones
+	 * still queued and in the order they were added, e.g. after a reconnect
+	 * when none of them can be answered any more. Nothing should be polled
+	 * meanwhile.
+	 */
+	public final void requeueInFlight() {
+		final ArrayList<ArrayList<Entry>> requeued = new ArrayList<ArrayList<Entry>>(queues.length);
+		for (int i = 0; i < queues.length; i++) {
+			requeued.add(new ArrayList<Entry>());
+		}
+		for (final Entry entry : msgCodeIndex.values()) {
+			if (entry.state.compareAndSet(STATE_IN_FLIGHT, STATE_QUEUED)) {
+				inFlight.decrementAndGet();
+				final ScheduledFuture<?> retransmit = entry.retransmit;
+				if (null != retransmit) {
+					retransmit.cancel(false);
+				}
+				entry.tryCount.set(0);
+				requeued.get(entry.priority).add(entry);
+			}
+		}
+		for (int i = 0; i < queues.length; i++) {
+			final ArrayList<Entry> entries = requeued.get(i);
+			if (entries.isEmpty()) {
+				continue;
+			}
+			Entry entry;
+			while (null != (entry = queues[i].poll())) {
+				entries.add(entry);
+			}
+			Collections.sort(entries, SEQUENCE_ORDER);
+			queues[i].addAll(entries);
+		}
+	}
+
+	public final boolean isEmpty() {
+		return msgCodeIndex.isEmpty();
+	}
+
+	public final int size() {
+		return msgCodeIndex.size();
+	}
+
+	public final int inFlightSize() {
+		return inFlight.get();
+	}
+
+	public final void clear() {
+		for (final Entry entry : msgCodeIndex.values()) {
+			remove(entry);
+		}
+		for (final ConcurrentLinkedQueue<Entry> queue : queues) {
+			queue.clear();
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package android.support.net;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /*
  * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
@@ -21,10 +25,30 @@ public class SocketServer {
 		this.callback = callback;
 	}
 
+	private transient int serverPort = Sockets.SERVERPORT;
+
+	/**
+	 * Listens on another port than {@link Sockets#SERVERPORT}.
+	 */
+	public final void setServerPort(final int serverPort) {
+		this.serverPort = serverPort;
+	}
+
+	private transient boolean isBatchDrain;
+
+	/**
+	 * Lets the event loops of {@link #selectForClient(int)} drain everything a
+	 * client has buffered before serving the next ready client. Favours
+	 * per-client throughput over fairness between clients.
+	 */
+	public final void setBatchDrain(final boolean isBatchDrain) {
+		this.isBatchDrain = isBatchDrain;
+	}
+
 	public final void waitForClient() {
 		ServerSockets serverSocket = null;
 		try {
-			serverSocket = new ServerSockets(Sockets.SERVERPORT);
+			serverSocket = new ServerSockets(serverPort);
 
 			while (null != serverSocket) {
 				final Sockets socket = serverSocket.accept();
@@ -50,4 +74,62 @@ public class SocketServer {
 			}
 		}
 	}
+
+	/**
+	 * Accepts clients like {@link #waitForClient()}, but hands every
+	 * connection to one of {@code eventLoopCount} selector threads instead of
+	 * giving each client its own Receive and KeepAlive threads. The
+	 * {@link SocketServerCallback} and {@link SocketServerHandler} contracts
+	 * are unchanged.
+	 *
+	 * @param eventLoopCount
+	 *            number of selector threads sharing the accepted clients
+	 */
+	public final void selectForClient(final int eventLoopCount) {
+		ServerSocketChannel serverChannel = null;
+		final SocketEventLoop[] eventLoops = new SocketEventLoop[Math.max(1, eventLoopCount)];
+		try {
+			for (int i = 0; i < eventLoops.length; i++) {
+				eventLoops[i] = new SocketEventLoop(isBatchDrain);
+				eventLoops[i].start("SocketEventLoop-" + i);
+			}
+
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(serverPort));
+
+			int next = 0;
+			while (serverChannel.isOpen()) {
+				final SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+
+				final Socket socket = channel.socket();
+				socket.setReceiveBufferSize(Sockets.BUFFERSIZE / 2 * 1024);
+				socket.setSendBufferSize(Sockets.BUFFERSIZE * 1024);
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				socket.setOOBInline(false);
+				socket.setTrafficClass(0x04 | 0x10);
+
+				final Sockets sockets = new Sockets(channel, eventLoops[next]);
+				next = (next + 1) % eventLoops.length;
+
+				if (null != callback) {
+					callback.onConnected(sockets);
+				}
+			}
+		} catch (final Exception exception) {
+			if (null != serverChannel) {
+				try {
+					serverChannel.close();
+				} catch (final IOException e) {
+				}
+			}
+		} finally {
+			for (final SocketEventLoop eventLoop : eventLoops) {
+				if (null != eventLoop) {
+					eventLoop.shutdown();
+				}
+			}
+		}
+	}
 }
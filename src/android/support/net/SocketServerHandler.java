@@ -1,16 +1,12 @@
 package android.support.net;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import android.n.NDate;
-import android.support.lang.Crypt;
 import net.minidev.json.JSONObject;
 
 /*
@@ -39,6 +35,14 @@ public class SocketServerHandler {
 
 	public final void connectToClient(final Sockets socket) {
 		this.socket = socket;
+		isGreeted = false;
+		pendingDecoder = null;
+
+		if (null != socket.eventLoop) {
+			keepAliveTimeoutCount = 0;
+			socket.eventLoop.register(socket, this);
+			return;
+		}
 
 		threadPool = Executors.newFixedThreadPool(2);
 		if (null != receiveFuture) {
@@ -78,49 +82,92 @@ public class SocketServerHandler {
 	public transient Future<?> receiveFuture;
 
 	private final class Receive implements Runnable {
-		private transient BufferedReader reader;
-		private transient InputStream inputStream;
-
 		@Override
 		public void run() {
 			try {
-				inputStream = new BufferedInputStream(socket.getInputStream());
-				reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
 				while (socket.isConnected()) {
-					String message = reader.readLine();
-					if (message != null && message.length() != 0) {
-						if (Sockets.KEEPALIVE.equals(message)) {
-							keepAliveTimeoutCount = 0;
-							sendMessage(Sockets.KEEPALIVE_REACTION);
-						} else {
-							if (message.length() >= Sockets.ENCRYPTSIZELIMIT) {
-								message = Crypt.decrypt(message, socket.getEncryptionKey());
-							}
-							readMessage(message);
+					if (!socket.read()) {
+						throw new EOFException();
+					}
+					String message;
+					while (null != (message = socket.decode())) {
+						if (message.length() != 0) {
+							receive(message);
 						}
 					}
-					Thread.sleep(5);
 				}
-			} catch (final InterruptedException exception) {
 			} catch (final IOException exception) {
 				onDisconnect();
 			} catch (final Exception exception) {
 				exception.printStackTrace();
-			} finally {
-				try {
-					inputStream.close();
-				} catch (final IOException exception) {
-				}
-				try {
-					reader.close();
-				} catch (final IOException exception) {
+			}
+		}
+	}
+
+	private transient boolean isGreeted;
+	private transient SocketCodec pendingDecoder;
+
+	final void receive(final String message) {
+		if (Sockets.KEEPALIVE.equals(message)) {
+			keepAliveTimeoutCount = 0;
+			sendMessage(Sockets.KEEPALIVE_REACTION);
+		} else if (null != pendingDecoder && null != SocketCodec.parseNegotiation(message)) {
+			// The client confirmed the codec, everything after this is in it
+			socket.setDecoder(pendingDecoder);
+			pendingDecoder = null;
+		} else {
+			if (!isGreeted) {
+				isGreeted = true;
+				acceptCodec(message);
+			}
+			readMessage(message);
+		}
+	}
+
+	private final void acceptCodec(final String greetings) {
+		final JSONObject offer = SocketCodec.parseNegotiation(greetings);
+		if (null != offer && null != socket) {
+			try {
+				final String codec = (String) offer.get(Sockets.CODEC);
+				if (SocketCodec.FRAME.equals(codec)) {
+					String cipher = null;
+					String nonce = null;
+					SocketCipher[] ciphers = new SocketCipher[2];
+					if (SocketCipher.AES_GCM.equals(offer.get(Sockets.CIPHER)) && null != offer.get(Sockets.NONCE)
+							&& SocketCipher.isSupported()) {
+						cipher = SocketCipher.AES_GCM;
+						nonce = SocketCipher.newNonce();
+						ciphers = SocketCipher.derive(socket.getEncryptionKey(), (String) offer.get(Sockets.NONCE),
+								nonce, false);
+					}
+					final Object compress = offer.get(Sockets.COMPRESS);
+					final boolean isCompressed = SocketCompressor.isSupported(compress);
+					pendingDecoder = new FrameCodec(ciphers[0], SocketCompressor.forName(compress));
+					socket.send(SocketCodec.toMessage(codec, cipher, nonce, isCompressed ? (String) compress : null),
+							new FrameCodec(ciphers[1], SocketCompressor.forName(compress)));
+				} else {
+					pendingDecoder = SocketCodec.forName(codec);
+					socket.send(SocketCodec.toMessage(codec), SocketCodec.forName(codec));
 				}
+			} catch (final ClassCastException exception) {
+			} catch (final IOException exception) {
+				exception.printStackTrace();
 			}
 		}
 	}
 
 	private transient int keepAliveTimeoutCount;
 
+	final boolean keepAlive() {
+		if (keepAliveTimeoutCount > Sockets.KEEPALIVEFAILTRY) {
+			keepAliveTimeoutCount = 0;
+			onDisconnect();
+			return false;
+		}
+		keepAliveTimeoutCount++;
+		return true;
+	}
+
 	public transient Future<?> keepAliveFuture;
 
 	private final class KeepAlive implements Runnable {
@@ -128,15 +175,7 @@ public class SocketServerHandler {
 		public void run() {
 			keepAliveTimeoutCount = 0;
 
-			while (true) {
-				if (keepAliveTimeoutCount > Sockets.KEEPALIVEFAILTRY) {
-					keepAliveTimeoutCount = 0;
-					onDisconnect();
-					break;
-				} else {
-					keepAliveTimeoutCount++;
-				}
-
+			while (keepAlive()) {
 				try {
 					Thread.sleep(Sockets.KEEPALIVESPEED);
 				} catch (final InterruptedException exception) {
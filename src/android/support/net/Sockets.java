@@ -1,17 +1,17 @@
 package android.support.net;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import android.n.NString;
-import android.support.lang.Crypt;
 import android.support.lang.Strings;
 import net.minidev.json.JSONObject;
 
@@ -36,6 +36,60 @@ public class Sockets extends Socket {
 		super();
 	}
 
+	private transient SocketChannel channel;
+	transient SocketEventLoop eventLoop;
+	transient ConcurrentLinkedQueue<ByteBuffer> outbound;
+
+	/**
+	 * Wraps a non-blocking channel accepted by
+	 * {@link SocketServer#selectForClient(int)}. Reads and writes of such a
+	 * socket are driven by the owning event loop instead of stream threads.
+	 */
+	Sockets(final SocketChannel channel, final SocketEventLoop eventLoop) throws SocketException {
+		super();
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return null != channel ? channel : super.getChannel();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return null != channel ? channel.isConnected() : super.isConnected();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return null != channel ? !channel.isOpen() : super.isClosed();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return null != channel ? channel.socket().isOutputShutdown() : super.isOutputShutdown();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return null != channel ? channel.socket().getInetAddress() : super.getInetAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return null != channel ? channel.socket().getPort() : super.getPort();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (null != channel) {
+			channel.close();
+		}
+		super.close();
+	}
+
 	private transient String idString;
 
 	public final void setIdString(final String idString) {
@@ -71,6 +125,8 @@ public class Sockets extends Socket {
 
 	public static final int QUEUEFAILTRY = 3;
 	public static final int PROPOSESPEED = 1000 / 10;
+	public static final int PROPOSETIMEOUT = 1000;
+	public static final int PROPOSEWINDOW = 8;
 
 	public static final int KEEPALIVEFAILTRY = 2;
 	public static final int KEEPALIVESPEED = 1000 * 6;
@@ -78,20 +134,102 @@ public class Sockets extends Socket {
 	public static final int SERVERPORT = 40;
 
 	public static final int ENCRYPTSIZELIMIT = 10;
+	public static final int COMPRESSSIZELIMIT = 256;
+
+	private transient SocketCodec encoder = new LineCodec();
+	private transient SocketCodec decoder = new LineCodec();
+	private transient ByteBuffer sendBuffer;
+	private transient ByteBuffer receiveBuffer;
+	private transient OutputStream outputStream;
+	private transient InputStream inputStream;
+
+	public final SocketCodec getEncoder() {
+		return encoder;
+	}
+
+	public final SocketCodec getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * Replaces the decoder. Must only be called from the thread reading this
+	 * socket, right after the message that announced the new codec.
+	 */
+	final void setDecoder(final SocketCodec decoder) {
+		this.decoder = decoder;
+	}
 
 	public final void send(final String message) throws IOException {
-		if (!isOutputShutdown() && !isClosed()) {
-			final OutputStream out = new BufferedOutputStream(getOutputStream());
-			final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+		send(message, null);
+	}
 
-			String outMessage = message;
-			if (outMessage.length() >= ENCRYPTSIZELIMIT) {
-				outMessage = Crypt.encrypt(outMessage, getEncryptionKey());
+	/**
+	 * Sends a message and then, before any other message can be sent,
+	 * switches to {@code nextEncoder} if it is not null.
+	 */
+	final synchronized void send(final String message, final SocketCodec nextEncoder) throws IOException {
+		if (null != eventLoop) {
+			if (!isClosed()) {
+				if (null == sendBuffer) {
+					sendBuffer = ByteBuffer.allocateDirect(BUFFERSIZE * 1024);
+				}
+				sendBuffer = encoder.encode(this, message, sendBuffer);
+				if (outbound.isEmpty()) {
+					channel.write(sendBuffer);
+				}
+				if (sendBuffer.hasRemaining()) {
+					final ByteBuffer pending = ByteBuffer.allocate(sendBuffer.remaining());
+					pending.put(sendBuffer);
+					pending.flip();
+					eventLoop.write(this, pending);
+				}
 			}
+		} else if (!isOutputShutdown() && !isClosed()) {
+			if (null == sendBuffer) {
+				sendBuffer = ByteBuffer.allocate(BUFFERSIZE * 1024);
+				outputStream = getOutputStream();
+			}
+			sendBuffer = encoder.encode(this, message, sendBuffer);
+			outputStream.write(sendBuffer.array(), sendBuffer.arrayOffset() + sendBuffer.position(),
+					sendBuffer.remaining());
+			outputStream.flush();
+		}
+		if (null != nextEncoder) {
+			encoder = nextEncoder;
+		}
+	}
 
-			writer.println(outMessage);
-			writer.flush();
+	/**
+	 * Blocks until bytes arrive on a stream socket and buffers them for
+	 * {@link #decode()}.
+	 *
+	 * @return false at the end of the stream
+	 */
+	final boolean read() throws IOException {
+		if (null == receiveBuffer) {
+			receiveBuffer = ByteBuffer.allocate(BUFFERSIZE * 1024);
+			inputStream = getInputStream();
+		}
+		receiveBuffer.clear();
+		final int count = inputStream.read(receiveBuffer.array(), receiveBuffer.arrayOffset(),
+				receiveBuffer.capacity());
+		if (count < 0) {
+			return false;
 		}
+		receiveBuffer.limit(count);
+		return true;
+	}
+
+	/**
+	 * @return the next message buffered by {@link #read()}, or null once all
+	 *         of them were returned
+	 */
+	final String decode() throws IOException {
+		return decode(receiveBuffer);
+	}
+
+	final String decode(final ByteBuffer buffer) throws IOException {
+		return decoder.decode(this, buffer);
 	}
 
 	public static final String SENDER = NString.add(Strings.LOWS, Strings.UPPE, Strings.LOWN);
@@ -102,6 +240,15 @@ public class Sockets extends Socket {
 	public static final String RETURN = NString.add(Strings.UPPR, Strings.UPPE, Strings.UPPT, Strings.UPPU,
 			Strings.UPPR, Strings.UPPN);
 
+	public static final String CODEC = NString.add(Strings.UPPC, Strings.UPPO, Strings.UPPD, Strings.UPPE,
+			Strings.UPPC);
+
+	public static final String CIPHER = NString.add(Strings.UPPC, Strings.UPPI, Strings.UPPP, Strings.UPPH,
+			Strings.UPPE, Strings.UPPR);
+	public static final String NONCE = NString.add(Strings.UPPN, Strings.UPPO, Strings.UPPN, Strings.UPPC,
+			Strings.UPPE);
+	public static final String COMPRESS = NString.add(Strings.UPPZ, Strings.UPPI, Strings.UPPP);
+
 	public static final String KEEPALIVE = Strings.LOWK;
 	public static final String KEEPALIVE_REACTION = Strings.LOWT;
 	public static final String DISCONNECT = NString.add(Strings.UPPD, Strings.UPPI, Strings.UPPS, Strings.UPPC,
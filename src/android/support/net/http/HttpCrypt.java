@@ -1,5 +1,9 @@
 package android.support.net.http;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -7,6 +11,8 @@ import java.util.Locale;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
@@ -17,20 +23,18 @@ import android.support.lang.Strings;
 public class HttpCrypt {
 	private static final String AES = NString.add(Strings.UPPA, Strings.UPPE, Strings.UPPS);
 
+	private static final String KEY = NString.add(Strings.FIVE, Strings.SEVEN, Strings.TWO, Strings.THREE,
+			Strings.EIGHT, Strings.ZERO, Strings.ZERO, Strings.FOUR, Strings.LOWE, Strings.SEVEN, Strings.EIGHT,
+			Strings.FOUR, Strings.FOUR, Strings.NINE, Strings.EIGHT, Strings.LOWB, Strings.LOWB, Strings.LOWC,
+			Strings.TWO, Strings.LOWF, Strings.EIGHT, Strings.LOWB, Strings.LOWF, Strings.NINE, Strings.EIGHT,
+			Strings.FOUR, Strings.FIVE, Strings.SIX, Strings.FIVE, Strings.ZERO, Strings.NINE, Strings.ZERO);
+
 	public static final String decrypt(final String plaintext) {
-		return decrypt(plaintext, NString.add(Strings.FIVE, Strings.SEVEN, Strings.TWO, Strings.THREE, Strings.EIGHT,
-				Strings.ZERO, Strings.ZERO, Strings.FOUR, Strings.LOWE, Strings.SEVEN, Strings.EIGHT, Strings.FOUR,
-				Strings.FOUR, Strings.NINE, Strings.EIGHT, Strings.LOWB, Strings.LOWB, Strings.LOWC, Strings.TWO,
-				Strings.LOWF, Strings.EIGHT, Strings.LOWB, Strings.LOWF, Strings.NINE, Strings.EIGHT, Strings.FOUR,
-				Strings.FIVE, Strings.SIX, Strings.FIVE, Strings.ZERO, Strings.NINE, Strings.ZERO));
+		return decrypt(plaintext, KEY);
 	}
 
 	public static final String encrypt(final String plaintext) {
-		return encrypt(plaintext, NString.add(Strings.FIVE, Strings.SEVEN, Strings.TWO, Strings.THREE, Strings.EIGHT,
-				Strings.ZERO, Strings.ZERO, Strings.FOUR, Strings.LOWE, Strings.SEVEN, Strings.EIGHT, Strings.FOUR,
-				Strings.FOUR, Strings.NINE, Strings.EIGHT, Strings.LOWB, Strings.LOWB, Strings.LOWC, Strings.TWO,
-				Strings.LOWF, Strings.EIGHT, Strings.LOWB, Strings.LOWF, Strings.NINE, Strings.EIGHT, Strings.FOUR,
-				Strings.FIVE, Strings.SIX, Strings.FIVE, Strings.ZERO, Strings.NINE, Strings.ZERO));
+		return encrypt(plaintext, KEY);
 	}
 
 	public static final String decrypt(final String plaintext, final String key) {
@@ -67,6 +71,70 @@ public class HttpCrypt {
 		return result;
 	}
 
+	/**
+	 * Encrypts {@code length} bytes of {@code data} starting at
+	 * {@code offset}, without the hex string round trip of
+	 * {@link #encrypt(String, String)}.
+	 */
+	public static final byte[] encrypt(final byte[] data, final int offset, final int length, final String key)
+			throws GeneralSecurityException {
+		return newCipher(key, Cipher.ENCRYPT_MODE).doFinal(data, offset, length);
+	}
+
+	public static final byte[] decrypt(final byte[] data, final int offset, final int length, final String key)
+			throws GeneralSecurityException {
+		return newCipher(key, Cipher.DECRYPT_MODE).doFinal(data, offset, length);
+	}
+
+	/**
+	 * Encrypts the remaining bytes of {@code input} straight into
+	 * {@code output}.
+	 *
+	 * @return the number of bytes written to {@code output}
+	 */
+	public static final int encrypt(final ByteBuffer input, final ByteBuffer output, final String key)
+			throws GeneralSecurityException {
+		return newCipher(key, Cipher.ENCRYPT_MODE).doFinal(input, output);
+	}
+
+	public static final int decrypt(final ByteBuffer input, final ByteBuffer output, final String key)
+			throws GeneralSecurityException {
+		return newCipher(key, Cipher.DECRYPT_MODE).doFinal(input, output);
+	}
+
+	/**
+	 * Wraps a request or file stream so everything written to it is encrypted
+	 * on the fly. Closing the returned stream writes the final block and
+	 * closes {@code out}.
+	 */
+	public static final OutputStream newEncryptOutputStream(final OutputStream out) throws GeneralSecurityException {
+		return newEncryptOutputStream(out, KEY);
+	}
+
+	public static final OutputStream newEncryptOutputStream(final OutputStream out, final String key)
+			throws GeneralSecurityException {
+		return new CipherOutputStream(out, newCipher(key, Cipher.ENCRYPT_MODE));
+	}
+
+	/**
+	 * Wraps a response or file stream so it is decrypted while being read.
+	 */
+	public static final InputStream newDecryptInputStream(final InputStream in) throws GeneralSecurityException {
+		return newDecryptInputStream(in, KEY);
+	}
+
+	public static final InputStream newDecryptInputStream(final InputStream in, final String key)
+			throws GeneralSecurityException {
+		return new CipherInputStream(in, newCipher(key, Cipher.DECRYPT_MODE));
+	}
+
+	private static final Cipher newCipher(final String key, final int mode) throws GeneralSecurityException {
+		final SecretKeySpec secretKeySpec = new SecretKeySpec(hexStringToByteArray(key), AES);
+		final Cipher cipher = Cipher.getInstance(AES);
+		cipher.init(mode, secretKeySpec, cipher.getParameters());
+		return cipher;
+	}
+
 	public static final String byteArrayToHexString(final byte... bytes) {
 		String result = new String(bytes);
 		try {
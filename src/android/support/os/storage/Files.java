@@ -8,16 +8,11 @@
  */
 package android.support.os.storage;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -46,25 +41,17 @@ public class Files {
 		return result;
 	}
 
+	/**
+	 * Zips the files under their names, storing the ones that are compressed
+	 * already and deflating the others in parallel.
+	 *
+	 * @see ZipWriter
+	 */
 	public static final void zip(final String[] files, final String output) throws IOException {
-		BufferedInputStream origin = null;
-		final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+		final ZipWriter out = new ZipWriter(new FileOutputStream(output));
 		try {
-			final byte data[] = new byte[1024];
-
 			for (final String file : files) {
-				final FileInputStream inputStream = new FileInputStream(file);
-				origin = new BufferedInputStream(inputStream, 1024);
-				try {
-					final ZipEntry entry = new ZipEntry(file.substring(file.lastIndexOf(Character.valueOf('/')) + 1));
-					out.putNextEntry(entry);
-					int count;
-					while ((count = origin.read(data, 0, 1024)) != -1) {
-						out.write(data, 0, count);
-					}
-				} finally {
-					origin.close();
-				}
+				out.add(new File(file), file.substring(file.lastIndexOf(Character.valueOf('/')) + 1));
 			}
 		} finally {
 			out.close();
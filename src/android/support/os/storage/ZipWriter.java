@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+package android.support.os.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes files to a zip, storing the ones whose content is already
+ * compressed, such as JPEGs, and deflating the others on a pool.
+ *
+ * <p>
+ * Files are read into memory whole and deflated in parallel, then written in
+ * the order they were added while the next ones deflate. Files larger than a
+ * quarter of the memory budget are streamed through instead, after those
+ * before them are written. Entries are plain zip, without zip64: at most 65535
+ * entries and 4 GB.
+ *
+ * <pre>
+ * final ZipWriter zip = new ZipWriter(new FileOutputStream(output));
+ * try {
+ * 	zip.add(file, file.getName());
+ * } finally {
+ * 	zip.close();
+ * }
+ * </pre>
+ */
+public class ZipWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int SNIFF_SIZE = 16;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int DATA_DESCRIPTOR = 0x08074b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final long MAX_SIZE = 0xffffffffL;
+	private static final int MAX_ENTRIES = 0xffff;
+
+	private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private final OutputStream out;
+	private final ThreadPoolExecutor executor;
+	private final long memoryBudget;
+	private final int level;
+	private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+	private final HashSet<String> names = new HashSet<String>();
+	private long pendingSize;
+	private long offset;
+	private boolean closed;
+
+	/**
+	 * Creates a writer deflating on a thread per processor, with an eighth of
+	 * the maximum memory for the files in flight.
+	 */
+	public ZipWriter(final OutputStream out) {
+		this(out, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 8,
+				Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param threads
+	 *            the number of threads deflating, or 0 to deflate on the
+	 *            calling thread
+	 * @param memoryBudget
+	 *            the most bytes of files read and not yet written
+	 * @param level
+	 *            the {@link Deflater} compression level
+	 */
+	public ZipWriter(final OutputStream out, final int threads, final long memoryBudget, final int level) {
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		this.memoryBudget = Math.max(BUFFER_SIZE, memoryBudget);
+		this.level = level;
+		if (threads > 0) {
+			executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger mCount = new AtomicInteger(1);
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(r, "ZipWriter #" + mCount.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * Adds a file under {@code name}. The file is read and written later, by
+	 * this or the next calls, so it should not change until {@link #close()}.
+	 *
+	 * @throws ZipException
+	 *             if an entry of that name was added already
+	 * @throws IOException
+	 *             if writing this or an earlier entry fails
+	 */
+	public void add(final File file, final String name) throws IOException {
+		if (closed) {
+			throw new IOException("closed");
+		}
+		if (entries.size() + pending.size() >= MAX_ENTRIES) {
+			throw new ZipException("too many entries");
+		}
+		final long length = file.length();
+		if (length > MAX_SIZE) {
+			throw new ZipException("entry too large: " + name);
+		}
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+
+		if (length > memoryBudget / 4) {
+			drain(-1);
+			writeStreamed(file, name);
+			return;
+		}
+		drain(memoryBudget - length);
+		final Callable<Entry> task = new Callable<Entry>() {
+			@Override
+			public Entry call() throws IOException {
+				return compress(file, name);
+			}
+		};
+		final Future<Entry> future;
+		if (executor != null) {
+			future = executor.submit(task);
+		} else {
+			final FutureTask<Entry> futureTask = new FutureTask<Entry>(task);
+			futureTask.run();
+			future = futureTask;
+		}
+		pending.add(new Pending(future, length));
+		pendingSize += length;
+	}
+
+	/**
+	 * Writes pending entries, oldest first, until at most {@code size} bytes
+	 * of them are left; all of them for -1.
+	 */
+	private void drain(final long size) throws IOException {
+		while (!pending.isEmpty() && pendingSize > size) {
+			final Entry entry;
+			try {
+				entry = pending.peek().future.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException(String.valueOf(cause));
+			}
+			pendingSize -= pending.poll().length;
+			writeLocalHeader(entry);
+			out.write(entry.data, 0, (int) entry.compressedSize);
+			offset += entry.compressedSize;
+			entry.data = null;
+		}
+	}
+
+	/**
+	 * Reads and, unless its content is compressed already, deflates a file in
+	 * memory.
+	 */
+	private Entry compress(final File file, final String name) throws IOException {
+		final Entry entry = new Entry(name, file.lastModified());
+		final byte[] content = readFully(file);
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+		entry.crc = crc.getValue();
+		entry.size = content.length;
+
+		if (!isCompressed(content, content.length)) {
+			final Deflater deflater = new Deflater(level, true);
+			try {
+				deflater.setInput(content);
+				deflater.finish();
+				final byte[] buffer = sBuffers.get();
+				final Buffer deflated = new Buffer(content.length / 2 + 64);
+				// stops once deflating saves nothing
+				while (!deflater.finished() && deflated.size() < content.length) {
+					deflated.write(buffer, 0, deflater.deflate(buffer));
+				}
+				if (deflater.finished() && deflated.size() < content.length) {
+					entry.method = DEFLATED;
+					entry.data = deflated.array();
+					entry.compressedSize = deflated.size();
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		if (entry.method == STORED) {
+			entry.data = content;
+			entry.compressedSize = content.length;
+		}
+		return entry;
+	}
+
+	/**
+	 * Writes a large file without holding it in memory. Stored files are read
+	 * twice, as their checksum goes before their data; deflated ones are
+	 * followed by a data descriptor.
+	 */
+	private void writeStreamed(final File file, final String name) throws IOException {
+		final Entry entry = new Entry(name, file.lastModified());
+		final byte[] buffer = sBuffers.get();
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final int sniffed = read(channel, ByteBuffer.wrap(buffer, 0, SNIFF_SIZE));
+			channel.position(0);
+			final CRC32 crc = new CRC32();
+			if (isCompressed(buffer, sniffed)) {
+				long size = 0;
+				for (int count; (count = read(channel, ByteBuffer.wrap(buffer))) > 0;) {
+					crc.update(buffer, 0, count);
+					size += count;
+				}
+				entry.crc = crc.getValue();
+				entry.size = size;
+				entry.compressedSize = size;
+				writeLocalHeader(entry);
+				channel.position(0);
+				for (long left = size; left > 0;) {
+					final int count = read(channel, ByteBuffer.wrap(buffer, 0, (int) Math.min(left, buffer.length)));
+					if (count <= 0) {
+						throw new IOException("file changed: " + name);
+					}
+					out.write(buffer, 0, count);
+					left -= count;
+				}
+			} else {
+				entry.method = DEFLATED;
+				entry.flags |= FLAG_DATA_DESCRIPTOR;
+				writeLocalHeader(entry);
+				final byte[] deflated = new byte[BUFFER_SIZE];
+				final Deflater deflater = new Deflater(level, true);
+				try {
+					long size = 0;
+					for (int count; (count = read(channel, ByteBuffer.wrap(buffer))) > 0;) {
+						crc.update(buffer, 0, count);
+						size += count;
+						deflater.setInput(buffer, 0, count);
+						while (!deflater.needsInput()) {
+							out.write(deflated, 0, deflater.deflate(deflated));
+						}
+					}
+					deflater.finish();
+					while (!deflater.finished()) {
+						out.write(deflated, 0, deflater.deflate(deflated));
+					}
+					entry.crc = crc.getValue();
+					entry.size = size;
+					entry.compressedSize = deflater.getBytesWritten();
+				} finally {
+					deflater.end();
+				}
+				writeInt(DATA_DESCRIPTOR);
+				writeInt((int) entry.crc);
+				writeInt((int) entry.compressedSize);
+				writeInt((int) entry.size);
+				offset += 16;
+			}
+			offset += entry.compressedSize;
+			if (entry.compressedSize > MAX_SIZE || offset > MAX_SIZE) {
+				throw new ZipException("zip too large: " + name);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readFully(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final long size = channel.size();
+			final byte[] content = new byte[(int) size];
+			final ByteBuffer buffer = ByteBuffer.wrap(content);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("file changed: " + file);
+				}
+			}
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the number of bytes read, filling the buffer unless the file
+	 *         ends first
+	 */
+	private static int read(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		final int start = buffer.position();
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+		}
+		return buffer.position() - start;
+	}
+
+	/**
+	 * @return whether the content starts like a format that is compressed
+	 *         already, which deflating would not shrink
+	 */
+	static boolean isCompressed(final byte[] b, final int length) {
+		if (length < 4) {
+			return false;
+		}
+		final int b0 = b[0] & 0xff;
+		final int b1 = b[1] & 0xff;
+		final int b2 = b[2] & 0xff;
+		final int b3 = b[3] & 0xff;
+		return b0 == 0xff && b1 == 0xd8 && b2 == 0xff // JPEG
+				|| b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G' // PNG
+				|| b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8' // GIF
+				|| b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F' && length >= 12 && b[8] == 'W' && b[9] == 'E'
+				&& b[10] == 'B' && b[11] == 'P' // WebP
+				|| b0 == 'P' && b1 == 'K' && (b2 == 3 && b3 == 4 || b2 == 5 && b3 == 6) // zip, jar, apk
+				|| b0 == 0x1f && b1 == 0x8b // gzip
+				|| b0 == 'B' && b1 == 'Z' && b2 == 'h' // bzip2
+				|| b0 == 0xfd && b1 == '7' && b2 == 'z' && b3 == 'X' // xz
+				|| b0 == '7' && b1 == 'z' && b2 == 0xbc && b3 == 0xaf // 7z
+				|| b0 == 'R' && b1 == 'a' && b2 == 'r' && b3 == '!' // rar
+				|| b0 == 'O' && b1 == 'g' && b2 == 'g' && b3 == 'S' // ogg
+				|| b0 == 'I' && b1 == 'D' && b2 == '3' // mp3
+				|| isMpegAudio(b0, b1, b2) // mp3 frame, aac
+				|| length >= 8 && b[4] == 'f' && b[5] == 't' && b[6] == 'y' && b[7] == 'p'; // mp4, 3gp
+	}
+
+	/**
+	 * @return whether the bytes are a valid MPEG audio or ADTS frame header,
+	 *         but not the UTF-16LE byte order mark FF FE
+	 */
+	private static boolean isMpegAudio(final int b0, final int b1, final int b2) {
+		if (b0 != 0xff || (b1 & 0xe0) != 0xe0 || b1 == 0xfe) {
+			return false;
+		}
+		if ((b1 & 0x06) == 0) {
+			// ADTS: MPEG-4 or MPEG-2, layer 0, a known sampling frequency
+			return (b1 & 0xf6) == 0xf0 && (b2 >> 2 & 0xf) <= 12;
+		}
+		// version and layer not reserved, bitrate and sampling rate valid
+		return (b1 >> 3 & 3) != 1 && (b1 >> 1 & 3) != 0 && (b2 >> 4) != 15 && (b2 >> 2 & 3) != 3;
+	}
+
+	private void writeLocalHeader(final Entry entry) throws IOException {
+		entry.offset = offset;
+		if (offset > MAX_SIZE) {
+			throw new ZipException("zip too large: " + entry.name);
+		}
+		final boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+		writeInt(LOCAL_HEADER);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt(descriptor ? 0 : (int) entry.crc);
+		writeInt(descriptor ? 0 : (int) entry.compressedSize);
+		writeInt(descriptor ? 0 : (int) entry.size);
+		writeShort(entry.nameBytes.length);
+		writeShort(0);
+		out.write(entry.nameBytes);
+		offset += 30 + entry.nameBytes.length;
+		entries.add(entry);
+	}
+
+	/**
+	 * Writes the pending entries and the central directory, and closes the
+	 * stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			drain(-1);
+			final long directoryOffset = offset;
+			for (final Entry entry : entries) {
+				writeInt(CENTRAL_HEADER);
+				writeShort(VERSION);
+				writeShort(VERSION);
+				writeShort(entry.flags);
+				writeShort(entry.method);
+				writeInt(entry.dosTime);
+				writeInt((int) entry.crc);
+				writeInt((int) entry.compressedSize);
+				writeInt((int) entry.size);
+				writeShort(entry.nameBytes.length);
+				// extra, comment, disk, internal and external attributes
+				writeShort(0);
+				writeShort(0);
+				writeShort(0);
+				writeShort(0);
+				writeInt(0);
+				writeInt((int) entry.offset);
+				out.write(entry.nameBytes);
+				offset += 46 + entry.nameBytes.length;
+			}
+			if (offset > MAX_SIZE) {
+				throw new ZipException("zip too large");
+			}
+			writeInt(END_HEADER);
+			writeShort(0);
+			writeShort(0);
+			writeShort(entries.size());
+			writeShort(entries.size());
+			writeInt((int) (offset - directoryOffset));
+			writeInt((int) directoryOffset);
+			writeShort(0);
+		} finally {
+			for (final Pending p : pending) {
+				p.future.cancel(true);
+			}
+			pending.clear();
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			out.close();
+		}
+	}
+
+	private void writeShort(final int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+	}
+
+	private void writeInt(final int value) throws IOException {
+		writeShort(value);
+		writeShort(value >>> 16);
+	}
+
+	private static final class Entry {
+		private final String name;
+		private final byte[] nameBytes;
+		private final int dosTime;
+		private int flags = FLAG_UTF8;
+		private int method = STORED;
+		private long crc;
+		private long size;
+		private long compressedSize;
+		private long offset;
+		private byte[] data;
+
+		private Entry(final String name, final long time) {
+			this.name = name;
+			try {
+				nameBytes = name.getBytes("UTF-8");
+			} catch (final UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+			dosTime = toDosTime(time);
+		}
+
+		private static int toDosTime(final long time) {
+			final Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(time);
+			final int year = calendar.get(Calendar.YEAR);
+			if (year < 1980) {
+				// the earliest DOS date, 1980-01-01
+				return 1 << 21 | 1 << 16;
+			}
+			return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+					| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+					| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+		}
+	}
+
+	private static final class Pending {
+		private final Future<Entry> future;
+		private final long length;
+
+		private Pending(final Future<Entry> future, final long length) {
+			this.future = future;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Gives the deflated bytes without copying them.
+	 */
+	private static final class Buffer extends ByteArrayOutputStream {
+		private Buffer(final int size) {
+			super(size);
+		}
+
+		private byte[] array() {
+			return buf;
+		}
+	}
+}
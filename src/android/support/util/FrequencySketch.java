@@ -0,0 +1,104 @@
+package android.support.util;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * A count-min sketch estimating how often keys were seen recently, in 4-bit
+ * counters packed sixteen to a long. Each key increments one counter in each
+ * of four rows and is estimated by the smallest of them. Once the sketch has
+ * seen ten times as many keys as it has slots, all counters are halved, so old
+ * popularity fades away.
+ *
+ * <p>
+ * Not thread safe; {@link PolicyCache} calls it under its own lock.
+ */
+public final class FrequencySketch {
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xbe4b6b2f, 0x5d5f2f47, 0x1c69b3f7 };
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param expectedSize
+	 *            the number of distinct keys the sketch should tell apart
+	 */
+	public FrequencySketch(final int expectedSize) {
+		int size = 16;
+		while (size < expectedSize && size < (1 << 24)) {
+			size <<= 1;
+		}
+		table = new long[size];
+		tableMask = size - 1;
+		sampleSize = 10 * size;
+	}
+
+	/**
+	 * Returns the estimated number of recent occurrences of the key, up to 15.
+	 */
+	public int frequency(final Object key) {
+		final int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			final int index = indexOf(hash, i);
+			final int shift = shiftOf(hash, i);
+			frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xf));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Counts one more occurrence of the key.
+	 */
+	public void increment(final Object key) {
+		final int hash = spread(key.hashCode());
+		boolean isAdded = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			final int index = indexOf(hash, i);
+			final int shift = shiftOf(hash, i);
+			if (((table[index] >>> shift) & 0xf) < MAX_COUNT) {
+				table[index] += 1L << shift;
+				isAdded = true;
+			}
+		}
+		if (isAdded && ++additions == sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Halves every counter.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions /= 2;
+	}
+
+	private int indexOf(final int hash, final int row) {
+		int h = hash * SEEDS[row];
+		h ^= h >>> 17;
+		return h & tableMask;
+	}
+
+	private static int shiftOf(final int hash, final int row) {
+		// a different counter of the long for each row
+		return (((hash >>> (row * 4)) & 3) + (row << 2)) << 2;
+	}
+
+	private static int spread(int hash) {
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,454 @@
+package android.support.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2014 Kenneth Tu <don.ling.lok@gmail.com>
+ *
+ * All rights reserved. No warranty, explicit or implicit, provided.
+ *
+ * @author Kenneth Tu
+ * @version 1.0.0
+ */
+
+/**
+ * A memory cache with the API of {@code android.support.v4.util.LruCache}
+ * whose eviction order, and whether a new entry is kept at all, is decided by
+ * a {@link Policy}:
+ *
+ * <ul>
+ * <li>{@link #LRU} evicts the least recently used entry, like
+ * {@code LruCache}.</li>
+ * <li>{@link #SLRU} keeps entries that were hit again in a protected segment
+ * of 80% of the cache, so entries seen only once go first.</li>
+ * <li>{@link #TINY_LFU} runs new entries through a window of 1% of the cache,
+ * which always keeps at least the newest entry, and only lets them into the
+ * segmented main part if a {@link FrequencySketch} has seen them more often
+ * than the entry they would push out. A single pass over many new keys then
+ * goes through the window without flushing the hot entries.</li>
+ * </ul>
+ *
+ * All methods are synchronized on the cache.
+ */
+public class PolicyCache<K, V> {
+	public static final String LRU = "LRU";
+	public static final String SLRU = "SLRU";
+	public static final String TINY_LFU = "W-TinyLFU";
+
+	/**
+	 * Decides which entry to evict. The cache calls it under its lock, with
+	 * the size of each entry as returned by {@link PolicyCache#sizeOf}.
+	 */
+	public static abstract interface Policy<K> {
+		/**
+		 * Called for every lookup and insertion, hit or miss.
+		 */
+		public abstract void record(K key);
+
+		/**
+		 * Called when the entry was found.
+		 */
+		public abstract void onHit(K key);
+
+		public abstract void onAdd(K key, int size);
+
+		/**
+		 * Called when the entry is removed or evicted.
+		 */
+		public abstract void onRemove(K key);
+
+		/**
+		 * @return the next entry to evict, or null if there is none
+		 */
+		public abstract K victim();
+	}
+
+	/**
+	 * @return a new policy for a cache of {@code maxSize}
+	 * @throws IllegalArgumentException
+	 *             for an unknown name
+	 */
+	public static <K> Policy<K> newPolicy(final String name, final int maxSize) {
+		if (LRU.equals(name)) {
+			return new LruPolicy<K>();
+		} else if (SLRU.equals(name)) {
+			return new SegmentedLruPolicy<K>(maxSize);
+		} else if (TINY_LFU.equals(name)) {
+			return new TinyLfuPolicy<K>(maxSize);
+		}
+		throw new IllegalArgumentException("Unknown policy " + name);
+	}
+
+	private final HashMap<K, V> map = new HashMap<K, V>();
+	private final Policy<K> policy;
+	private final int maxSize;
+	private int size;
+
+	private int putCount;
+	private int evictionCount;
+	private int hitCount;
+	private int missCount;
+
+	/**
+	 * @param maxSize
+	 *            the maximum sum of the sizes of the entries
+	 */
+	public PolicyCache(final int maxSize, final String policy) {
+		this(maxSize, PolicyCache.<K> newPolicy(policy, maxSize));
+	}
+
+	public PolicyCache(final int maxSize, final Policy<K> policy) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		this.maxSize = maxSize;
+		this.policy = policy;
+	}
+
+	/**
+	 * @return the cached value, or null
+	 */
+	public synchronized final V get(final K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		policy.record(key);
+		final V value = map.get(key);
+		if (value == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		policy.onHit(key);
+		return value;
+	}
+
+	/**
+	 * Caches {@code value}, then evicts as the policy says until the cache
+	 * fits, which may evict the new entry itself.
+	 *
+	 * @return the previous value of the key, or null
+	 */
+	public synchronized final V put(final K key, final V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("key == null || value == null");
+		}
+		putCount++;
+		policy.record(key);
+		final V previous = map.put(key, value);
+		if (previous != null) {
+			size -= safeSizeOf(key, previous);
+			policy.onRemove(key);
+		}
+		final int valueSize = safeSizeOf(key, value);
+		size += valueSize;
+		policy.onAdd(key, valueSize);
+		if (previous != null) {
+			entryRemoved(false, key, previous, value);
+		}
+		trimToSize(maxSize);
+		return previous;
+	}
+
+	/**
+	 * Evicts entries as the policy says until the cache is no larger than
+	 * {@code maxSize}.
+	 */
+	public synchronized final void trimToSize(final int maxSize) {
+		while (size > maxSize) {
+			final K key = policy.victim();
+			if (key == null) {
+				break;
+			}
+			final V value = map.remove(key);
+			policy.onRemove(key);
+			if (value != null) {
+				size -= safeSizeOf(key, value);
+				evictionCount++;
+				entryRemoved(true, key, value, null);
+			}
+		}
+	}
+
+	/**
+	 * @return the removed value, or null
+	 */
+	public synchronized final V remove(final K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		final V previous = map.remove(key);
+		if (previous != null) {
+			size -= safeSizeOf(key, previous);
+			policy.onRemove(key);
+			entryRemoved(false, key, previous, null);
+		}
+		return previous;
+	}
+
+	/**
+	 * Called for entries that have been evicted or removed, under the cache's
+	 * lock.
+	 *
+	 * @param evicted
+	 *            true if the entry was evicted to make space, false if it was
+	 *            removed or replaced
+	 * @param newValue
+	 *            the new value of the key, or null
+	 */
+	protected void entryRemoved(final boolean evicted, final K key, final V oldValue, final V newValue) {
+	}
+
+	/**
+	 * Returns the size of the entry in user-defined units. The default is 1,
+	 * so the size is the number of entries.
+	 */
+	protected int sizeOf(final K key, final V value) {
+		return 1;
+	}
+
+	private int safeSizeOf(final K key, final V value) {
+		final int result = sizeOf(key, value);
+		if (result < 0) {
+			throw new IllegalStateException("Negative size: " + key + "=" + value);
+		}
+		return result;
+	}
+
+	/**
+	 * Evicts all entries.
+	 */
+	public synchronized final void evictAll() {
+		trimToSize(-1);
+	}
+
+	public synchronized final int size() {
+		return size;
+	}
+
+	public synchronized final int maxSize() {
+		return maxSize;
+	}
+
+	public synchronized final int hitCount() {
+		return hitCount;
+	}
+
+	public synchronized final int missCount() {
+		return missCount;
+	}
+
+	public synchronized final int putCount() {
+		return putCount;
+	}
+
+	public synchronized final int evictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return a copy of the current contents of the cache
+	 */
+	public synchronized final Map<K, V> snapshot() {
+		return new HashMap<K, V>(map);
+	}
+
+	@Override
+	public synchronized final String toString() {
+		final int accesses = hitCount + missCount;
+		final int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+		return String.format("PolicyCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, hitCount,
+				missCount, hitPercent);
+	}
+
+	/**
+	 * @return a new access ordered map of keys to sizes
+	 */
+	private static <K> LinkedHashMap<K, Integer> newQueue() {
+		return new LinkedHashMap<K, Integer>(16, 0.75f, true);
+	}
+
+	/**
+	 * @return the eldest key of the queue, or null if it is empty
+	 */
+	private static <K> K eldest(final LinkedHashMap<K, Integer> queue) {
+		final Iterator<K> iterator = queue.keySet().iterator();
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	/**
+	 * Least recently used first.
+	 */
+	public static final class LruPolicy<K> implements Policy<K> {
+		private final LinkedHashMap<K, Integer> queue = newQueue();
+
+		@Override
+		public void record(final K key) {
+		}
+
+		@Override
+		public void onHit(final K key) {
+			queue.get(key);
+		}
+
+		@Override
+		public void onAdd(final K key, final int size) {
+			queue.put(key, Integer.valueOf(size));
+		}
+
+		@Override
+		public void onRemove(final K key) {
+			queue.remove(key);
+		}
+
+		@Override
+		public K victim() {
+			return eldest(queue);
+		}
+	}
+
+	/**
+	 * New entries go to a probation segment, and move to the protected
+	 * segment when hit there. The least recently used protected entries fall
+	 * back to probation when the protected segment is full. Probation is
+	 * evicted first.
+	 */
+	public static final class SegmentedLruPolicy<K> implements Policy<K> {
+		private final LinkedHashMap<K, Integer> probation = newQueue();
+		private final LinkedHashMap<K, Integer> protect = newQueue();
+		private final int maxProtectedSize;
+		private int protectedSize;
+
+		public SegmentedLruPolicy(final int maxSize) {
+			maxProtectedSize = (int) (maxSize * 0.8f);
+		}
+
+		@Override
+		public void record(final K key) {
+		}
+
+		@Override
+		public void onHit(final K key) {
+			if (protect.get(key) != null) {
+				return;
+			}
+			final Integer size = probation.remove(key);
+			if (size != null) {
+				protect.put(key, size);
+				protectedSize += size.intValue();
+				while (protectedSize > maxProtectedSize && protect.size() > 1) {
+					final K demoted = eldest(protect);
+					final Integer demotedSize = protect.remove(demoted);
+					protectedSize -= demotedSize.intValue();
+					probation.put(demoted, demotedSize);
+				}
+			}
+		}
+
+		@Override
+		public void onAdd(final K key, final int size) {
+			probation.put(key, Integer.valueOf(size));
+		}
+
+		@Override
+		public void onRemove(final K key) {
+			if (probation.remove(key) == null) {
+				final Integer size = protect.remove(key);
+				if (size != null) {
+					protectedSize -= size.intValue();
+				}
+			}
+		}
+
+		@Override
+		public K victim() {
+			final K key = eldest(probation);
+			return key != null ? key : eldest(protect);
+		}
+	}
+
+	/**
+	 * New entries go to a small LRU window in front of a
+	 * {@link SegmentedLruPolicy}. An entry leaving the window enters the main
+	 * segments if they have room, or if it was seen more often than their
+	 * victim, which is then evicted instead; otherwise the entry itself is
+	 * evicted. The newest entry stays in the window even if it is larger, so
+	 * an entry is never rejected by the put that added it.
+	 */
+	public static final class TinyLfuPolicy<K> implements Policy<K> {
+		private final LinkedHashMap<K, Integer> window = newQueue();
+		private final SegmentedLruPolicy<K> main;
+		private final FrequencySketch sketch;
+		private final int maxWindowSize;
+		private final int maxMainSize;
+		private final HashMap<K, Integer> mainSizes = new HashMap<K, Integer>();
+		private int windowSize;
+		private int mainSize;
+
+		public TinyLfuPolicy(final int maxSize) {
+			maxWindowSize = Math.max(1, maxSize / 100);
+			maxMainSize = maxSize - maxWindowSize;
+			main = new SegmentedLruPolicy<K>(maxMainSize);
+			sketch = new FrequencySketch(maxSize);
+		}
+
+		@Override
+		public void record(final K key) {
+			sketch.increment(key);
+		}
+
+		@Override
+		public void onHit(final K key) {
+			if (window.get(key) == null) {
+				main.onHit(key);
+			}
+		}
+
+		@Override
+		public void onAdd(final K key, final int size) {
+			window.put(key, Integer.valueOf(size));
+			windowSize += size;
+		}
+
+		@Override
+		public void onRemove(final K key) {
+			final Integer size = window.remove(key);
+			if (size != null) {
+				windowSize -= size.intValue();
+				return;
+			}
+			final Integer removed = mainSizes.remove(key);
+			if (removed != null) {
+				mainSize -= removed.intValue();
+				main.onRemove(key);
+			}
+		}
+
+		@Override
+		public K victim() {
+			while (windowSize > maxWindowSize && window.size() > 1) {
+				final K candidate = eldest(window);
+				final int candidateSize = window.get(candidate).intValue();
+				final K mainVictim = main.victim();
+				if (mainVictim != null && mainSize + candidateSize > maxMainSize
+						&& sketch.frequency(candidate) <= sketch.frequency(mainVictim)) {
+					return candidate;
+				}
+				// admitted, the main victim, if any, goes instead
+				window.remove(candidate);
+				windowSize -= candidateSize;
+				main.onAdd(candidate, candidateSize);
+				mainSizes.put(candidate, Integer.valueOf(candidateSize));
+				mainSize += candidateSize;
+				if (mainVictim != null && mainSize > maxMainSize) {
+					return mainVictim;
+				}
+			}
+			final K key = main.victim();
+			return key != null ? key : eldest(window);
+		}
+	}
+}
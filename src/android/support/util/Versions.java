@@ -50,6 +50,10 @@ public class Versions {
 		return Build.VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD;
 	}
 
+	public static final boolean hasGingerbreadMR1() {
+		return Build.VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD_MR1;
+	}
+
 	public static final boolean hasHoneycomb() {
 		return Build.VERSION.SDK_INT >= VERSION_CODES.HONEYCOMB;
 	}
@@ -1,5 +1,7 @@
 package android.support.view;
 
+import java.io.IOException;
+
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -7,6 +9,8 @@ import android.graphics.PointF;
 import android.graphics.RectF;
 import android.support.content.SharedPreferences.Preferences;
 import android.support.graphics.Bitmaps;
+import android.support.graphics.drawable.TiledBitmapDrawable;
+import android.support.util.Versions;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.ImageView;
@@ -18,9 +22,21 @@ import android.widget.RelativeLayout;
  */
 public class ImageZoomView extends RelativeLayout {
 	private final transient  Context baseContext;
+	private transient TiledBitmapDrawable tiledDrawable;
 
-	@SuppressWarnings("deprecation")
 	public ImageZoomView(final Context context, final String path) {
+		this(context, path, false);
+	}
+
+	/**
+	 * @param tiled
+	 *            true to draw the image from tiles decoded at the resolution
+	 *            of the current zoom, which allows zooming in to the full
+	 *            resolution of large photos; needs Gingerbread MR1 (API 10),
+	 *            a single bitmap is zoomed before it
+	 */
+	@SuppressWarnings("deprecation")
+	public ImageZoomView(final Context context, final String path, final boolean tiled) {
 		super(context);
 		baseContext = context.getApplicationContext();
 
@@ -31,8 +47,19 @@ public class ImageZoomView extends RelativeLayout {
 		imageView.setScaleType(ScaleType.MATRIX);
 		imageView.setBackgroundColor(Color.BLACK);
 		imageView.setOnTouchListener(imageTouchListener);
-		imageView.setImageBitmap(Bitmaps.getBitmap(path, Preferences.get(baseContext, "deviceHeight", 1920),
-				Preferences.get(baseContext, "deviceWidth", 1080), true));
+		if (tiled && Versions.hasGingerbreadMR1()) {
+			try {
+				tiledDrawable = TiledBitmapDrawable.open(path);
+			} catch (final IOException exception) {
+				// not decodable by region, zoom a single bitmap
+			}
+		}
+		if (tiledDrawable != null) {
+			imageView.setImageDrawable(tiledDrawable);
+		} else {
+			imageView.setImageBitmap(Bitmaps.getBitmap(path, Preferences.get(baseContext, "deviceHeight", 1920),
+					Preferences.get(baseContext, "deviceWidth", 1080), true));
+		}
 
 		addView(imageView);
 
@@ -48,6 +75,9 @@ public class ImageZoomView extends RelativeLayout {
 	private transient float oldDist = 1f;
 	// private transient float maxZoom;
 	// private transient float minZoom;
+	/** The zoom limits in tiled mode. */
+	private transient float minTiledZoom;
+	private transient float maxTiledZoom;
 	private final transient  float matrixValues[] = new float[9];
 
 	private transient int mode = NONE;
@@ -96,6 +126,35 @@ public class ImageZoomView extends RelativeLayout {
 		matrix.postTranslate((frameWidth - newImageWidth) / 2, frameHeight - newImageHeight);
 
 		((ImageView) view).setImageMatrix(matrix);
+
+		if (tiledDrawable != null) {
+			// from fitting the frame up to two screen pixels per image pixel
+			minTiledZoom = usedScaleFactor;
+			maxTiledZoom = Math.max(usedScaleFactor, 2f);
+			tiledDrawable.setScale(usedScaleFactor);
+		}
+	}
+
+	/**
+	 * Drops the tiles while the view is not shown; they are decoded again
+	 * when it is drawn after being attached again.
+	 */
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		if (tiledDrawable != null) {
+			tiledDrawable.releaseTiles();
+		}
+	}
+
+	/**
+	 * Releases the region decoder of the tiled mode once the view is not
+	 * used any more. The view draws nothing afterwards in that mode.
+	 */
+	public void recycle() {
+		if (tiledDrawable != null) {
+			tiledDrawable.recycle();
+		}
 	}
 
 	private final transient  PointF start = new PointF();
@@ -123,12 +182,19 @@ public class ImageZoomView extends RelativeLayout {
 						doDrag(view, event);
 					} else if (mode == ZOOM) {
 						// doZoom(view, event);
+						if (tiledDrawable != null) {
+							doTiledZoom(view, event);
+						}
 					}
 					break;
 				default:
 					break;
 				}
 				((ImageView) view).setImageMatrix(matrix);
+				if (tiledDrawable != null) {
+					matrix.getValues(matrixValues);
+					tiledDrawable.setScale(matrixValues[Matrix.MSCALE_X]);
+				}
 				view.invalidate();
 			}
 			return true;
@@ -152,6 +218,25 @@ public class ImageZoomView extends RelativeLayout {
 		// }
 		// }
 
+		private final void doTiledZoom(final View view, final MotionEvent event) {
+			final float newDist = spacing(event);
+			if (newDist > SPEED_ZOOM) {
+				float scale = newDist / oldDist;
+
+				matrix.getValues(matrixValues);
+				final float currentScale = matrixValues[Matrix.MSCALE_X];
+
+				if (scale * currentScale > maxTiledZoom) {
+					scale = maxTiledZoom / currentScale;
+				} else if (scale * currentScale < minTiledZoom) {
+					scale = minTiledZoom / currentScale;
+				}
+				matrix.postScale(scale, scale, mid.x, mid.y);
+				adjustPan(view);
+				oldDist = newDist;
+			}
+		}
+
 		private final void doDrag(final View view, final MotionEvent event) {
 			final int nowX = (int) event.getRawX();
 			final int nowY = (int) event.getRawY();